@@ -28,13 +28,13 @@ public class ChromocenterAnalysis{
 		histogram.run(imagePlusChromocenter);
 		Measure3D measure3D = new Measure3D();
 		double [] tVolume =  measure3D.computeVolumeofAllObjects(imagePlusChromocenter);
-		RadialDistance radialDistance = new RadialDistance();
+		RadialDistanceContext radialDistanceContext = new RadialDistance().createContext(imagePlusSegmented);
 		IJ.log("CHROMOCENTER PARAMETERS");
 		IJ.log("Titre Volume BorderToBorderDistance BarycenterToBorderDistance BarycenterToBorderDistanceNucleus ");
 		if (histogram.getNbLabels() > 0){
-			double [] tBorderToBorderDistanceTable = radialDistance.computeBorderToBorderDistances(imagePlusSegmented,imagePlusChromocenter);
-			double [] tBarycenterToBorderDistanceTable = radialDistance.computeBarycenterToBorderDistances (imagePlusSegmented,imagePlusChromocenter);
-			double [] tBarycenterToBorderDistanceTableNucleus = radialDistance.computeBarycenterToBorderDistances (imagePlusSegmented,imagePlusSegmented);
+			double [] tBorderToBorderDistanceTable = radialDistanceContext.computeBorderToBorderDistances(imagePlusChromocenter);
+			double [] tBarycenterToBorderDistanceTable = radialDistanceContext.computeBarycenterToBorderDistances(imagePlusChromocenter);
+			double [] tBarycenterToBorderDistanceTableNucleus = radialDistanceContext.computeBarycenterToBorderDistances(imagePlusSegmented);
 			for (int i = 0; i < tBorderToBorderDistanceTable.length;++i )
 				IJ.log
 				(
@@ -69,10 +69,10 @@ public class ChromocenterAnalysis{
 			bufferedWriterOutput = new BufferedWriter(fileWriter);
 			Measure3D measure3D = new Measure3D();
 			double [] tVolume =  measure3D.computeVolumeofAllObjects(imagePlusChromocenter);
-			RadialDistance radialDistance = new RadialDistance();
-			double [] tBorderToBorderDistanceTable = radialDistance.computeBorderToBorderDistances(imagePlusSegmented,imagePlusChromocenter);
-			double [] tBarycenterToBorderDistanceTableCc = radialDistance.computeBarycenterToBorderDistances (imagePlusSegmented,imagePlusChromocenter);
-			double [] tBarycenterToBorderDistanceTableNucleus = radialDistance.computeBarycenterToBorderDistances (imagePlusSegmented,imagePlusSegmented);
+			RadialDistanceContext radialDistanceContext = new RadialDistance().createContext(imagePlusSegmented);
+			double [] tBorderToBorderDistanceTable = radialDistanceContext.computeBorderToBorderDistances(imagePlusChromocenter);
+			double [] tBarycenterToBorderDistanceTableCc = radialDistanceContext.computeBarycenterToBorderDistances(imagePlusChromocenter);
+			double [] tBarycenterToBorderDistanceTableNucleus = radialDistanceContext.computeBarycenterToBorderDistances(imagePlusSegmented);
 			if (exist == false)
 				bufferedWriterOutput.write("Titre\tVolume\tBorderToBorderDistance\tBarycenterToBorderDistance\tBarycenterToBorderDistanceNucleus\n");
 			for (int i = 0; i < tBorderToBorderDistanceTable.length;++i ){
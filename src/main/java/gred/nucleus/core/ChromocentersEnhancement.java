@@ -1,6 +1,7 @@
 package gred.nucleus.core;
 import gred.nucleus.myGradient.MyGradient;
 import gred.nucleus.utils.RegionalExtremaFilter;
+import gred.nucleus.utils.StackAccessor;
 import ij.measure.*;
 import ij.*;
 import ij.process.*;
@@ -163,21 +164,21 @@ public class ChromocentersEnhancement{
 	
 	public double [] computeMeanIntensity(ImagePlus imagePlusInput,ImagePlus imagePlusWatershed){
 		ImageStatistics imageStatistics = new StackStatistics(imagePlusWatershed);
-		ImageStack imageStackWatershed = imagePlusWatershed.getStack();
-		ImageStack imageStackInput = imagePlusInput.getStack();
+		StackAccessor stackAccessorWatershed = new StackAccessor(imagePlusWatershed);
+		StackAccessor stackAccessorInput = new StackAccessor(imagePlusInput);
+		int sliceSize = imagePlusWatershed.getWidth()*imagePlusWatershed.getHeight();
 		double [] tIntensityTotal = new double [(int)imageStatistics.histMax + 1];
 		double [] tIntensityMean = new double [(int)imageStatistics.histMax + 1];
 		int [] tNbVoxelInEachRegion = new int [(int)imageStatistics.histMax + 1];
 		int voxelValue;
 		for (int k = 0; k < imagePlusWatershed.getNSlices(); ++k)
-			for (int i = 0; i < imagePlusWatershed.getWidth(); ++i)
-				for (int j = 0; j < imagePlusWatershed.getHeight(); ++j){
-					voxelValue = (int) imageStackWatershed.getVoxel(i,j,k);
-					if (voxelValue > 0){
-						tIntensityTotal [voxelValue] += imageStackInput.getVoxel(i,j,k);
-						++tNbVoxelInEachRegion [voxelValue];
-					}
- 				}
+			for (int index = 0; index < sliceSize; ++index){
+				voxelValue = (int) stackAccessorWatershed.getVoxel(index, k);
+				if (voxelValue > 0){
+					tIntensityTotal [voxelValue] += stackAccessorInput.getVoxel(index, k);
+					++tNbVoxelInEachRegion [voxelValue];
+				}
+			}
 		for (int i = 1; i < tIntensityTotal.length; ++i)
 			tIntensityMean[i] = tIntensityTotal[i] / tNbVoxelInEachRegion [i];
 		return tIntensityMean;
@@ -193,13 +194,13 @@ public class ChromocentersEnhancement{
 	public ImagePlus computeImage(ImagePlus imagePlusInput, double [] tVoxelValue){
 		double voxelValue;
 		ImagePlus imagePlusContrast = imagePlusInput.duplicate();
-		ImageStack imageStackConstrast = imagePlusContrast.getStack();
+		StackAccessor stackAccessorContrast = new StackAccessor(imagePlusContrast);
+		int sliceSize = imagePlusContrast.getWidth()*imagePlusContrast.getHeight();
 		for (int k = 0; k < imagePlusContrast.getNSlices(); ++k)
-			for (int i = 0; i < imagePlusContrast.getWidth(); ++i)
-				for (int j = 0; j < imagePlusContrast.getHeight(); ++j){
-					voxelValue = imageStackConstrast.getVoxel(i, j, k);
-					if (voxelValue > 0) imageStackConstrast.setVoxel(i, j, k, tVoxelValue[(int)voxelValue]);
-				}
+			for (int index = 0; index < sliceSize; ++index){
+				voxelValue = stackAccessorContrast.getVoxel(index, k);
+				if (voxelValue > 0) stackAccessorContrast.setVoxel(index, k, tVoxelValue[(int)voxelValue]);
+			}
 		return imagePlusContrast;
 	}
 }
\ No newline at end of file
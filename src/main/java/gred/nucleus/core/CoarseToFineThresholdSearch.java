@@ -0,0 +1,79 @@
+package gred.nucleus.core;
+
+import ij.IJ;
+
+/**
+ * Search strategy in two passes: the thresholds are first evaluated on a stride, then every
+ * threshold is evaluated around the best sphericity of the coarse pass. If no threshold of the
+ * coarse pass is validated, the interval is evaluated with the exhaustive search.
+ * 
+ * The sphericity is supposed unimodal at the scale of the stride: a narrow peak between two coarse
+ * thresholds can be missed.
+ * 
+ * @author Poulet Axel
+ *
+ */
+public class CoarseToFineThresholdSearch implements ThresholdSearchStrategy{
+	/** Stride of the coarse pass, 0 for a stride computed with the size of the interval*/
+	private int m_stride;
+
+	/**
+	 * Coarse pass with a stride equal to the square root of the number of thresholds, which
+	 * minimizes the number of thresholds evaluated in the two passes
+	 */
+	public CoarseToFineThresholdSearch(){
+		this(0);
+	}
+
+	/**
+	 * 
+	 * @param stride stride of the coarse pass, 0 for a stride computed with the size of the interval
+	 */
+	public CoarseToFineThresholdSearch(int stride){
+		m_stride = Math.max(stride, 0);
+	}
+
+	/**
+	 * 
+	 */
+	public void search(int thresholdMin, int thresholdMax, ThresholdEvaluator thresholdEvaluator){
+		if (thresholdMax < thresholdMin)
+			return;
+		int nbThreshold = thresholdMax-thresholdMin+1;
+		int stride = m_stride;
+		if (stride == 0)
+			stride = (int)Math.sqrt(nbThreshold);
+		if (stride <= 1){
+			new ExhaustiveThresholdSearch().search(thresholdMin, thresholdMax, thresholdEvaluator);
+			return;
+		}
+		int [] tThresholdCoarse = new int[(nbThreshold-1)/stride+1];
+		for (int i = 0; i < tThresholdCoarse.length; ++i)
+			tThresholdCoarse[i] = thresholdMin+i*stride;
+		double [] tSphericity = thresholdEvaluator.evaluate(tThresholdCoarse);
+		int indexMax = -1;
+		for (int i = 0; i < tSphericity.length; ++i)
+			if (tSphericity[i] > -1 && (indexMax < 0 || tSphericity[i] > tSphericity[indexMax]))
+				indexMax = i;
+		if (indexMax < 0){
+			IJ.log("Coarse to fine search: no threshold validated with a stride of "+stride+", exhaustive search");
+			new ExhaustiveThresholdSearch().search(thresholdMin, thresholdMax, thresholdEvaluator);
+			return;
+		}
+		int thresholdRefineMin = Math.max(tThresholdCoarse[indexMax]-stride+1, thresholdMin);
+		int thresholdRefineMax = Math.min(tThresholdCoarse[indexMax]+stride-1, thresholdMax);
+		new ExhaustiveThresholdSearch().search(thresholdRefineMin, thresholdRefineMax, thresholdEvaluator);
+	}
+
+	/**
+	 * 
+	 * @return name and parameters of the strategy, used in the key of the segmentation cache
+	 */
+	public String getCacheKey(){
+		return "CoarseToFineThresholdSearch "+m_stride;
+	}
+
+	public String toString(){
+		return getCacheKey();
+	}
+}
@@ -0,0 +1,35 @@
+package gred.nucleus.core;
+
+/**
+ * Search strategy which segments the image with every integer threshold of the interval
+ * 
+ * @author Poulet Axel
+ *
+ */
+public class ExhaustiveThresholdSearch implements ThresholdSearchStrategy{
+	public ExhaustiveThresholdSearch(){	}
+
+	/**
+	 * 
+	 */
+	public void search(int thresholdMin, int thresholdMax, ThresholdEvaluator thresholdEvaluator){
+		if (thresholdMax < thresholdMin)
+			return;
+		int [] tThreshold = new int[thresholdMax-thresholdMin+1];
+		for (int i = 0; i < tThreshold.length; ++i)
+			tThreshold[i] = thresholdMin+i;
+		thresholdEvaluator.evaluate(tThreshold);
+	}
+
+	/**
+	 * 
+	 * @return name and parameters of the strategy, used in the key of the segmentation cache
+	 */
+	public String getCacheKey(){
+		return "ExhaustiveThresholdSearch";
+	}
+
+	public String toString(){
+		return getCacheKey();
+	}
+}
@@ -0,0 +1,330 @@
+package gred.nucleus.core;
+
+import gred.nucleus.utils.StackAccessor;
+import gred.nucleus.utils.VoxelRecord;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Table of the statistics of all the objects of a label image, computed in one scan of the image:
+ * for each label (voxel value > 0), the number of voxels, the sums of the coordinates and of their
+ * products, the sum and the sum of the squares of the intensity of a raw image, and the bounding
+ * box. The statistics are stored in arrays indexed by the rank of the label, the labels being in
+ * increasing order (as Histogram.getLabels()), so the barycenters, volumes and eigen values of all
+ * the objects are computed without one scan of the image per object.
+ *
+ * The barycenters and eigen values have the definitions of Measure3D.computeBarycenter3D and
+ * Measure3D.computeEigenValue3D.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class LabelStatistics{
+	/** Labels with an integer value lower than this are indexed directly, the others with a HashMap*/
+	private static final int MAX_DIRECT_LABEL = 1 << 16;
+	private Calibration m_calibration;
+	private int m_nbLabel = 0;
+	private double [] m_tLabel = new double[16];
+	private long [] m_tNbVoxel = new long[16];
+	private long [] m_tSumI = new long[16], m_tSumJ = new long[16], m_tSumK = new long[16];
+	private long [] m_tSumII = new long[16], m_tSumJJ = new long[16], m_tSumKK = new long[16];
+	private long [] m_tSumIJ = new long[16], m_tSumIK = new long[16], m_tSumJK = new long[16];
+	private double [] m_tSumIntensity = new double[16], m_tSumIntensity2 = new double[16];
+	private int [] m_tMinI = new int[16], m_tMinJ = new int[16], m_tMinK = new int[16];
+	private int [] m_tMaxI = new int[16], m_tMaxJ = new int[16], m_tMaxK = new int[16];
+	/** index + 1 of the integer labels in the arrays, 0 if the label has not been found*/
+	private int [] m_tIndexOfLabel = new int[256];
+	private HashMap<Double, Integer> m_hIndexOfLabel = new HashMap<Double, Integer>();
+
+	/**
+	 *
+	 * @param imagePlusLabel label image, the voxels with value 0 are the background
+	 */
+	public LabelStatistics(ImagePlus imagePlusLabel){
+		this(imagePlusLabel, null);
+	}
+
+	/**
+	 *
+	 * @param imagePlusLabel label image, the voxels with value 0 are the background
+	 * @param imagePlusRaw raw image of the size of the label image, null to not sum the intensity
+	 */
+	public LabelStatistics(ImagePlus imagePlusLabel, ImagePlus imagePlusRaw){
+		m_calibration = imagePlusLabel.getCalibration();
+		StackAccessor stackAccessor = new StackAccessor(imagePlusLabel);
+		StackAccessor stackAccessorRaw = imagePlusRaw == null ? null : new StackAccessor(imagePlusRaw);
+		int width = imagePlusLabel.getWidth();
+		int height = imagePlusLabel.getHeight();
+		int depth = imagePlusLabel.getStackSize();
+		int n = -1;
+		double previousLabel = 0;
+		for (int k = 0; k < depth; ++k)
+			for (int j = 0; j < height; ++j){
+				int index = j*width;
+				for (int i = 0; i < width; ++i, ++index){
+					double label = stackAccessor.getVoxel(index, k);
+					if (label <= 0)
+						continue;
+					if (label != previousLabel || n < 0){
+						n = getIndex(label, i, j, k);
+						previousLabel = label;
+					}
+					++m_tNbVoxel[n];
+					m_tSumI[n] += i;
+					m_tSumJ[n] += j;
+					m_tSumK[n] += k;
+					m_tSumII[n] += (long)i*i;
+					m_tSumJJ[n] += (long)j*j;
+					m_tSumKK[n] += (long)k*k;
+					m_tSumIJ[n] += (long)i*j;
+					m_tSumIK[n] += (long)i*k;
+					m_tSumJK[n] += (long)j*k;
+					if (i < m_tMinI[n]) m_tMinI[n] = i;
+					if (i > m_tMaxI[n]) m_tMaxI[n] = i;
+					if (j < m_tMinJ[n]) m_tMinJ[n] = j;
+					if (j > m_tMaxJ[n]) m_tMaxJ[n] = j;
+					m_tMaxK[n] = k;
+					if (stackAccessorRaw != null){
+						double intensity = stackAccessorRaw.getVoxel(index, k);
+						m_tSumIntensity[n] += intensity;
+						m_tSumIntensity2[n] += intensity*intensity;
+					}
+				}
+			}
+		sortByLabel();
+	}
+
+	/**
+	 *
+	 * @return number of objects in the image
+	 */
+	public int getNbLabel(){
+		return m_nbLabel;
+	}
+
+	/**
+	 *
+	 * @return the labels, in increasing order
+	 */
+	public double [] getLabels(){
+		return Arrays.copyOf(m_tLabel, m_nbLabel);
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return label of rank n
+	 */
+	public double getLabel(int n){
+		return m_tLabel[n];
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return number of voxels of the object
+	 */
+	public long getNbVoxel(int n){
+		return m_tNbVoxel[n];
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return volume of the object
+	 */
+	public double getVolume(int n){
+		return m_tNbVoxel[n]*m_calibration.pixelWidth*m_calibration.pixelHeight*m_calibration.pixelDepth;
+	}
+
+	/**
+	 * Barycenter as Measure3D.computeBarycenter3D: the coordinates are the integer part of the mean
+	 * of the coordinates of the voxels
+	 *
+	 * @param n rank of the label
+	 * @param unit if true the coordinates of barycenter are in µm.
+	 * @return the barycenter
+	 */
+	public VoxelRecord getBarycenter(int n, boolean unit){
+		VoxelRecord voxelRecordBarycenter = new VoxelRecord();
+		voxelRecordBarycenter.setLocation(m_tSumI[n]/m_tNbVoxel[n], m_tSumJ[n]/m_tNbVoxel[n], m_tSumK[n]/m_tNbVoxel[n]);
+		if (unit)
+			voxelRecordBarycenter.Multiplie(m_calibration.pixelWidth, m_calibration.pixelHeight, m_calibration.pixelDepth);
+		return voxelRecordBarycenter;
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return the eigen values of the object in increasing order, as Measure3D.computeEigenValue3D
+	 */
+	public double [] getEigenValues(int n){
+		return ObjectMeasure3D.computeEigenValues(m_tNbVoxel[n], m_tSumI[n], m_tSumJ[n], m_tSumK[n], m_tSumII[n], m_tSumJJ[n],
+				m_tSumKK[n], m_tSumIJ[n], m_tSumIK[n], m_tSumJK[n], m_calibration);
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return sum of the intensity of the raw image in the object, 0 without raw image
+	 */
+	public double getSumIntensity(int n){
+		return m_tSumIntensity[n];
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return mean intensity of the raw image in the object
+	 */
+	public double getMeanIntensity(int n){
+		return m_tSumIntensity[n]/m_tNbVoxel[n];
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return sum of the squares of the intensity of the raw image in the object
+	 */
+	public double getSumIntensity2(int n){
+		return m_tSumIntensity2[n];
+	}
+
+	/**
+	 *
+	 * @param n rank of the label
+	 * @return bounding box of the object in voxels: iMin, jMin, kMin, iMax, jMax, kMax (included)
+	 */
+	public int [] getBoundingBox(int n){
+		return new int[]{m_tMinI[n], m_tMinJ[n], m_tMinK[n], m_tMaxI[n], m_tMaxJ[n], m_tMaxK[n]};
+	}
+
+	/**
+	 * Index of a label in the arrays, a new index is created at the first voxel of the label
+	 *
+	 * @param label label
+	 * @param i coordinate x of the first voxel of the label
+	 * @param j coordinate y of the first voxel of the label
+	 * @param k coordinate z of the first voxel of the label
+	 * @return index of the label
+	 */
+	private int getIndex(double label, int i, int j, int k){
+		int intLabel = (int)label;
+		boolean isDirect = intLabel == label && intLabel < MAX_DIRECT_LABEL;
+		if (isDirect){
+			if (intLabel < m_tIndexOfLabel.length && m_tIndexOfLabel[intLabel] > 0)
+				return m_tIndexOfLabel[intLabel]-1;
+		}
+		else{
+			Integer index = m_hIndexOfLabel.get(label);
+			if (index != null)
+				return index;
+		}
+		if (m_nbLabel == m_tLabel.length)
+			grow(2*m_nbLabel);
+		int n = m_nbLabel++;
+		m_tLabel[n] = label;
+		m_tMinI[n] = i;
+		m_tMaxI[n] = i;
+		m_tMinJ[n] = j;
+		m_tMaxJ[n] = j;
+		m_tMinK[n] = k;
+		m_tMaxK[n] = k;
+		if (isDirect){
+			if (intLabel >= m_tIndexOfLabel.length)
+				m_tIndexOfLabel = Arrays.copyOf(m_tIndexOfLabel, Math.max(intLabel+1, 2*m_tIndexOfLabel.length));
+			m_tIndexOfLabel[intLabel] = n+1;
+		}
+		else
+			m_hIndexOfLabel.put(label, n);
+		return n;
+	}
+
+	/**
+	 *
+	 * @param size new size of the arrays
+	 */
+	private void grow(int size){
+		m_tLabel = Arrays.copyOf(m_tLabel, size);
+		m_tNbVoxel = Arrays.copyOf(m_tNbVoxel, size);
+		m_tSumI = Arrays.copyOf(m_tSumI, size);
+		m_tSumJ = Arrays.copyOf(m_tSumJ, size);
+		m_tSumK = Arrays.copyOf(m_tSumK, size);
+		m_tSumII = Arrays.copyOf(m_tSumII, size);
+		m_tSumJJ = Arrays.copyOf(m_tSumJJ, size);
+		m_tSumKK = Arrays.copyOf(m_tSumKK, size);
+		m_tSumIJ = Arrays.copyOf(m_tSumIJ, size);
+		m_tSumIK = Arrays.copyOf(m_tSumIK, size);
+		m_tSumJK = Arrays.copyOf(m_tSumJK, size);
+		m_tSumIntensity = Arrays.copyOf(m_tSumIntensity, size);
+		m_tSumIntensity2 = Arrays.copyOf(m_tSumIntensity2, size);
+		m_tMinI = Arrays.copyOf(m_tMinI, size);
+		m_tMinJ = Arrays.copyOf(m_tMinJ, size);
+		m_tMinK = Arrays.copyOf(m_tMinK, size);
+		m_tMaxI = Arrays.copyOf(m_tMaxI, size);
+		m_tMaxJ = Arrays.copyOf(m_tMaxJ, size);
+		m_tMaxK = Arrays.copyOf(m_tMaxK, size);
+	}
+
+	/**
+	 * Sort the arrays in the increasing order of the labels (the labels are indexed in the order of
+	 * their first voxel during the scan)
+	 */
+	private void sortByLabel(){
+		Integer [] tOrder = new Integer[m_nbLabel];
+		for (int n = 0; n < m_nbLabel; ++n)
+			tOrder[n] = n;
+		final double [] tLabel = m_tLabel;
+		Arrays.sort(tOrder, new Comparator<Integer>(){
+			public int compare(Integer n1, Integer n2){
+				return Double.compare(tLabel[n1], tLabel[n2]);
+			}
+		});
+		m_tLabel = permute(m_tLabel, tOrder);
+		m_tNbVoxel = permute(m_tNbVoxel, tOrder);
+		m_tSumI = permute(m_tSumI, tOrder);
+		m_tSumJ = permute(m_tSumJ, tOrder);
+		m_tSumK = permute(m_tSumK, tOrder);
+		m_tSumII = permute(m_tSumII, tOrder);
+		m_tSumJJ = permute(m_tSumJJ, tOrder);
+		m_tSumKK = permute(m_tSumKK, tOrder);
+		m_tSumIJ = permute(m_tSumIJ, tOrder);
+		m_tSumIK = permute(m_tSumIK, tOrder);
+		m_tSumJK = permute(m_tSumJK, tOrder);
+		m_tSumIntensity = permute(m_tSumIntensity, tOrder);
+		m_tSumIntensity2 = permute(m_tSumIntensity2, tOrder);
+		m_tMinI = permute(m_tMinI, tOrder);
+		m_tMinJ = permute(m_tMinJ, tOrder);
+		m_tMinK = permute(m_tMinK, tOrder);
+		m_tMaxI = permute(m_tMaxI, tOrder);
+		m_tMaxJ = permute(m_tMaxJ, tOrder);
+		m_tMaxK = permute(m_tMaxK, tOrder);
+		m_tIndexOfLabel = null;
+		m_hIndexOfLabel = null;
+	}
+
+	private double [] permute(double [] tValue, Integer [] tOrder){
+		double [] tPermuted = new double[tOrder.length];
+		for (int n = 0; n < tOrder.length; ++n)
+			tPermuted[n] = tValue[tOrder[n]];
+		return tPermuted;
+	}
+
+	private long [] permute(long [] tValue, Integer [] tOrder){
+		long [] tPermuted = new long[tOrder.length];
+		for (int n = 0; n < tOrder.length; ++n)
+			tPermuted[n] = tValue[tOrder[n]];
+		return tPermuted;
+	}
+
+	private int [] permute(int [] tValue, Integer [] tOrder){
+		int [] tPermuted = new int[tOrder.length];
+		for (int n = 0; n < tOrder.length; ++n)
+			tPermuted[n] = tValue[tOrder[n]];
+		return tPermuted;
+	}
+}
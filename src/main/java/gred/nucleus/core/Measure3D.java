@@ -1,13 +1,16 @@
 package gred.nucleus.core;
+import gred.nucleus.utils.BinaryMask;
 import gred.nucleus.utils.Histogram;
+import gred.nucleus.utils.IntensityStatistics;
+import gred.nucleus.utils.RunLengthObject3D;
+import gred.nucleus.utils.SlabExecutor;
+import gred.nucleus.utils.StackAccessor;
 import gred.nucleus.utils.VoxelRecord;
 import ij.*;
 import ij.measure.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import Jama.EigenvalueDecomposition;
-import Jama.Matrix;
+import java.util.TreeMap;
 
 /**
  * 
@@ -18,13 +21,29 @@ import Jama.Matrix;
 
 
 public class Measure3D{
+	/** number of threads of the scans of the images (SlabExecutor)*/
+	private int m_nbThreads = 1;
+
 	public Measure3D() { }
 
+	/**
+	 * Number of threads used to scan one image, by slabs of slices, in computeSurfaceObject,
+	 * computeEigenValue3D, computeIntensityRHF, computeIntensityParameters and the other measures of
+	 * one object. The results are the same as the sequential scan. 1 (default) when the images are
+	 * already processed in parallel, as in ProcessImageSegmentaion.
+	 *
+	 * @param nbThreads number of threads
+	 */
+	public void setNbThreads(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
 	/**
 	 * Scan of image and if the voxel belong to the object of interest, looking,
 	 * if in his neighborhood there are voxel value == 0 then it is a boundary voxel.
 	 * Adding the surface of the face of the voxel frontier, which are in contact
 	 * with the background of the image, to the surface total.
+	 * The parameters of the same object should be read on one ObjectMeasure3D, computed in one scan.
 	 *
 	 * @param imagePlusInput segmented image
 	 * @param label label of the interest object
@@ -32,38 +51,183 @@ public class Measure3D{
 	 */
 
 	public double computeSurfaceObject(ImagePlus imagePlusInput, double label){
-		Calibration calibration= imagePlusInput.getCalibration();
-		ImageStack imageStackInput = imagePlusInput.getStack();
-		double xCalibration = calibration.pixelWidth;
-		double yCalibration = calibration.pixelHeight;
-		double zCalibration = calibration.pixelDepth;
-		double surfaceArea = 0,voxelValue, neighborVoxelValue;
-		for (int k = 1; k < imagePlusInput.getStackSize()-1; ++k)
-			for (int i = 1; i < imagePlusInput.getWidth()-1; ++i)
-				for (int j = 1; j < imagePlusInput.getHeight()-1; ++j){
-					voxelValue = imageStackInput.getVoxel(i, j, k);
-					if (voxelValue == label){
-						for (int kk = k-1; kk <= k+1; kk += 2){
-							neighborVoxelValue = imageStackInput.getVoxel(i, j, kk);
-							if (voxelValue != neighborVoxelValue)
-								surfaceArea = surfaceArea + xCalibration * yCalibration;
-						}
-						for (int ii=i-1; ii<=i+1; ii+=2){
-							neighborVoxelValue =  imageStackInput.getVoxel(ii, j, k);
-							if (voxelValue != neighborVoxelValue)
-								surfaceArea = surfaceArea + xCalibration * zCalibration;
-						}
-						for (int jj = j-1; jj <= j+1; jj+=2){
-							neighborVoxelValue = imageStackInput.getVoxel(i, jj, k);
-							if (voxelValue != neighborVoxelValue)
-								surfaceArea = surfaceArea + yCalibration * zCalibration;
+		return new ObjectMeasure3D(imagePlusInput, label, null, m_nbThreads).getSurface();
+	}
+
+
+	/**
+	 * Surface of the voxels of a binary mask, computed like computeSurfaceObject on the image of
+	 * the mask: the faces are counted 64 voxels at a time with the longs of the mask.
+	 *
+	 * @param binaryMask mask of the object
+	 * @param calibration calibration of the image
+	 * @return the surface
+	 */
+	public double computeSurfaceObject(BinaryMask binaryMask, Calibration calibration){
+		int width = binaryMask.getWidth();
+		int nbWordsRow = binaryMask.getNbWordsRow();
+		long [] tWords = binaryMask.getWords();
+		long [] tInteriorMask = new long[nbWordsRow];
+		for (int i = 1; i < width-1; ++i)
+			tInteriorMask[i >>> 6] |= 1L << i;
+		long xFaces = 0, yFaces = 0, zFaces = 0;
+		for (int k = 1; k < binaryMask.getDepth()-1; ++k)
+			for (int j = 1; j < binaryMask.getHeight()-1; ++j){
+				int row = binaryMask.getRowIndex(j, k);
+				int rowPreviousSlice = binaryMask.getRowIndex(j, k-1);
+				int rowNextSlice = binaryMask.getRowIndex(j, k+1);
+				int rowPreviousLine = binaryMask.getRowIndex(j-1, k);
+				int rowNextLine = binaryMask.getRowIndex(j+1, k);
+				for (int n = 0; n < nbWordsRow; ++n){
+					long word = tWords[row+n];
+					long wordInterior = word & tInteriorMask[n];
+					if (wordInterior == 0)
+						continue;
+					zFaces += Long.bitCount(wordInterior & ~tWords[rowPreviousSlice+n])+Long.bitCount(wordInterior & ~tWords[rowNextSlice+n]);
+					yFaces += Long.bitCount(wordInterior & ~tWords[rowPreviousLine+n])+Long.bitCount(wordInterior & ~tWords[rowNextLine+n]);
+					long previousVoxels = (word << 1) | (n > 0 ? tWords[row+n-1] >>> 63 : 0);
+					long nextVoxels = (word >>> 1) | (n < nbWordsRow-1 ? tWords[row+n+1] << 63 : 0);
+					xFaces += Long.bitCount(wordInterior & ~previousVoxels)+Long.bitCount(wordInterior & ~nextVoxels);
+				}
+			}
+		return zFaces*calibration.pixelWidth*calibration.pixelHeight+xFaces*calibration.pixelWidth*calibration.pixelDepth
+				+yFaces*calibration.pixelHeight*calibration.pixelDepth;
+	}
+
+	/**
+	 * Volume of the voxels of a binary mask
+	 *
+	 * @param binaryMask mask of the object
+	 * @param calibration calibration of the image
+	 * @return the volume
+	 */
+	public double computeVolumeObject(BinaryMask binaryMask, Calibration calibration){
+		return binaryMask.getNbVoxel()*calibration.pixelWidth*calibration.pixelHeight*calibration.pixelDepth;
+	}
+
+	/**
+	 * Surface of a run length encoded object, computed like computeSurfaceObject on the image of
+	 * the object: on a line the faces in x are the ends of the runs, and the faces in y and z are
+	 * the voxels of the runs which are not in the runs of the neighbour lines.
+	 *
+	 * @param runLengthObject3D object
+	 * @param calibration calibration of the image
+	 * @return the surface
+	 */
+	public double computeSurfaceObject(RunLengthObject3D runLengthObject3D, Calibration calibration){
+		int width = runLengthObject3D.getWidth();
+		int height = runLengthObject3D.getHeight();
+		int depth = runLengthObject3D.getDepth();
+		int nbRun = runLengthObject3D.getNbRun();
+		long xFaces = 0, yFaces = 0, zFaces = 0;
+		int firstRun = 0;
+		while (firstRun < nbRun){
+			int line = runLengthObject3D.getRunLine(firstRun);
+			int lastRun = firstRun+1;
+			while (lastRun < nbRun && runLengthObject3D.getRunLine(lastRun) == line)
+				++lastRun;
+			int j = line%height;
+			int k = line/height;
+			if (j > 0 && j < height-1 && k > 0 && k < depth-1){
+				long nbVoxelInterior = 0;
+				for (int n = firstRun; n < lastRun; ++n){
+					int start = runLengthObject3D.getRunStart(n);
+					int end = runLengthObject3D.getRunEnd(n);
+					nbVoxelInterior += Math.max(0, Math.min(end, width-1)-Math.max(start, 1));
+					if (start > 0 && start < width-1) ++xFaces;
+					if (end-1 > 0 && end-1 < width-1) ++xFaces;
+				}
+				yFaces += 2*nbVoxelInterior-computeInteriorOverlap(runLengthObject3D, firstRun, lastRun, line-1)
+						-computeInteriorOverlap(runLengthObject3D, firstRun, lastRun, line+1);
+				zFaces += 2*nbVoxelInterior-computeInteriorOverlap(runLengthObject3D, firstRun, lastRun, line-height)
+						-computeInteriorOverlap(runLengthObject3D, firstRun, lastRun, line+height);
+			}
+			firstRun = lastRun;
+		}
+		return zFaces*calibration.pixelWidth*calibration.pixelHeight+xFaces*calibration.pixelWidth*calibration.pixelDepth
+				+yFaces*calibration.pixelHeight*calibration.pixelDepth;
+	}
+
+	/**
+	 * Number of voxels of the runs of a line, except the first and last voxels of the line, which
+	 * are also in the runs of an other line
+	 *
+	 * @param runLengthObject3D object
+	 * @param firstRun first run of the line
+	 * @param lastRun run after the last run of the line
+	 * @param lineNeighbour other line
+	 * @return number of voxels in the runs of the two lines
+	 */
+	private long computeInteriorOverlap(RunLengthObject3D runLengthObject3D, int firstRun, int lastRun, int lineNeighbour){
+		int width = runLengthObject3D.getWidth();
+		int nbRun = runLengthObject3D.getNbRun();
+		int m = runLengthObject3D.findFirstRun(lineNeighbour);
+		long nbVoxel = 0;
+		int n = firstRun;
+		while (n < lastRun && m < nbRun && runLengthObject3D.getRunLine(m) == lineNeighbour){
+			int start = Math.max(Math.max(runLengthObject3D.getRunStart(n), runLengthObject3D.getRunStart(m)), 1);
+			int end = Math.min(Math.min(runLengthObject3D.getRunEnd(n), runLengthObject3D.getRunEnd(m)), width-1);
+			if (end > start)
+				nbVoxel += end-start;
+			if (runLengthObject3D.getRunEnd(n) < runLengthObject3D.getRunEnd(m))
+				++n;
+			else
+				++m;
+		}
+		return nbVoxel;
+	}
+
+	/**
+	 * Volume of a run length encoded object
+	 *
+	 * @param runLengthObject3D object
+	 * @param calibration calibration of the image
+	 * @return the volume
+	 */
+	public double computeVolumeObject(RunLengthObject3D runLengthObject3D, Calibration calibration){
+		return runLengthObject3D.getNbVoxel()*calibration.pixelWidth*calibration.pixelHeight*calibration.pixelDepth;
+	}
+
+	/**
+	 * Conversion of all the objects of a label image in run length encoded objects, in one scan of
+	 * the image
+	 *
+	 * @param imagePlusInput label image
+	 * @return table of the objects, in the increasing order of the labels (as computeVolumeofAllObjects)
+	 */
+	public RunLengthObject3D [] computeRunLengthObjects(ImagePlus imagePlusInput){
+		int width = imagePlusInput.getWidth();
+		int height = imagePlusInput.getHeight();
+		int depth = imagePlusInput.getStackSize();
+		TreeMap<Double, RunLengthObject3D> tmObject = new TreeMap<Double, RunLengthObject3D>();
+		StackAccessor stackAccessor = new StackAccessor(imagePlusInput);
+		for (int k = 0; k < depth; ++k)
+			for (int j = 0; j < height; ++j){
+				int index = j*width;
+				int start = 0;
+				double label = stackAccessor.getVoxel(index, k);
+				for (int i = 1; i <= width; ++i){
+					double voxelValue = i < width ? stackAccessor.getVoxel(index+i, k) : 0;
+					if (voxelValue == label)
+						continue;
+					if (label > 0){
+						RunLengthObject3D runLengthObject3D = tmObject.get(label);
+						if (runLengthObject3D == null){
+							runLengthObject3D = new RunLengthObject3D(width, height, depth);
+							tmObject.put(label, runLengthObject3D);
 						}
+						runLengthObject3D.addRun(j, k, start, i);
 					}
+					start = i;
+					label = voxelValue;
 				}
-		return surfaceArea;
+			}
+		RunLengthObject3D [] tRunLengthObject3D = tmObject.values().toArray(new RunLengthObject3D[tmObject.size()]);
+		for (int n = 0; n < tRunLengthObject3D.length; ++n)
+			tRunLengthObject3D[n].trimToSize();
+		return tRunLengthObject3D;
 	}
 
-
 	/**
 	 * Compute volume in each object conatain in an image
 	 * 
@@ -71,19 +235,10 @@ public class Measure3D{
 	 * @return double table containing the volume of each objects
 	 */
 	public double[] computeVolumeofAllObjects(ImagePlus imagePlusInput){
-		Calibration calibration= imagePlusInput.getCalibration();
-		double xCalibration = calibration.pixelWidth;
-		double yCalibration = calibration.pixelHeight;
-		double zCalibration = calibration.pixelDepth;
-		Histogram histogram = new Histogram ();
-		histogram.run(imagePlusInput);
-		double []tlabel = histogram.getLabels();
-		double [] tObjectVolume = new double[tlabel.length];
-		HashMap<Double , Integer> hashHisto = histogram.getHistogram();
-		for(int i=0; i < tlabel.length; ++i){
-	        int nbVoxel = hashHisto.get(tlabel[i]); 
-			tObjectVolume[i] = nbVoxel*xCalibration*yCalibration*zCalibration;
-	    }
+		LabelStatistics labelStatistics = new LabelStatistics(imagePlusInput);
+		double [] tObjectVolume = new double[labelStatistics.getNbLabel()];
+		for(int i=0; i < tObjectVolume.length; ++i)
+			tObjectVolume[i] = labelStatistics.getVolume(i);
 		return tObjectVolume;
 	} 
 
@@ -94,16 +249,7 @@ public class Measure3D{
 	 * @return double volume
 	 */
 	public double computeVolumeObject(ImagePlus imagePlusInput, double label){
-		Calibration calibration= imagePlusInput.getCalibration();
-		double xCalibration = calibration.pixelWidth;
-		double yCalibration = calibration.pixelHeight;
-		double zCalibration = calibration.pixelDepth;
-		double volume = 0;
-		Histogram histogram = new Histogram ();
-		histogram.run(imagePlusInput);
-		HashMap<Double , Integer> hashMapHisto = histogram.getHistogram();
-		volume =  hashMapHisto.get(label) *xCalibration*yCalibration*zCalibration;
-		return volume;
+		return new ObjectMeasure3D(imagePlusInput, label, null, m_nbThreads).getVolume();
 	}
     
 	/**
@@ -147,45 +293,7 @@ public class Measure3D{
 	 */
 
 	public double [] computeEigenValue3D(ImagePlus imagePlusInput, double label){
-		ImageStack imageStackInput = imagePlusInput.getImageStack();
-		VoxelRecord barycenter = computeBarycenter3D (true,imagePlusInput,label);
-		Calibration calibration= imagePlusInput.getCalibration();
-		double xCalibration = calibration.pixelWidth;
-		double yCalibration = calibration.pixelHeight;
-		double zCalibration = calibration.pixelDepth;
-		double xx = 0;
-		double xy = 0;
-		double xz = 0;
-		double yy = 0;
-		double yz = 0;
-		double zz = 0;
-		int compteur = 0;
-		double voxelValue;
-		for (int k = 0; k < imagePlusInput.getStackSize(); ++k){
-			double dz = ((zCalibration * (double) k)-barycenter.getK());
-			for (int i = 0; i < imagePlusInput.getWidth(); ++i){
-				double dx = ((xCalibration * (double) i)-barycenter.getI());
-				for (int j = 0; j < imagePlusInput.getHeight(); ++j){
-					voxelValue = imageStackInput.getVoxel(i,j,k);
-					if (voxelValue == label){ 
-						double dy = ((yCalibration * (double) j)-barycenter.getJ());
-						xx+= dx * dx;
-						yy+= dy * dy;
-						zz+= dz * dz;
-						xy+= dx * dy;
-						xz+= dx * dz;
-						yz+= dy * dz;
-						compteur++;
-					}
-				}
-			}
-		}
-		double [][] tValues = {{xx / compteur, xy / compteur, xz / compteur},
-                      {xy / compteur, yy / compteur, yz / compteur},
-                      {xz / compteur, yz / compteur, zz / compteur}};
-		Matrix matrix = new Matrix (tValues);
-		EigenvalueDecomposition eigenValueDecomposition =  matrix.eig();
-		return eigenValueDecomposition.getRealEigenvalues();
+		return new ObjectMeasure3D(imagePlusInput, label, null, m_nbThreads).getEigenValues();
 	}
 
   
@@ -195,11 +303,7 @@ public class Measure3D{
 	 * @return
 	 */
 	public double [] computeFlatnessAndElongation(ImagePlus imagePlusInput, double label){
-		double [] shapeParameters = new double[2];
-		double [] tEigenValues = computeEigenValue3D (imagePlusInput,label);
-		shapeParameters [0] = Math.sqrt(tEigenValues[1] / tEigenValues[0]);
-		shapeParameters [1] =  Math.sqrt (tEigenValues[2] / tEigenValues[1]);
-		return shapeParameters;
+		return new ObjectMeasure3D(imagePlusInput, label, null, m_nbThreads).getFlatnessAndElongation();
 	}  
 
 	/**
@@ -211,35 +315,8 @@ public class Measure3D{
 	 * @return
 	 */
 	public VoxelRecord computeBarycenter3D(boolean unit,ImagePlus imagePlusInput, double label){
-		ImageStack imageStackInput = imagePlusInput.getImageStack();
-		Calibration calibration= imagePlusInput.getCalibration();
-		double xCalibration = calibration.pixelWidth;
-		double yCalibration = calibration.pixelHeight;
-		double zCalibration = calibration.pixelDepth;
-		VoxelRecord voxelRecordBarycenter = new VoxelRecord ();
-		int count = 0;
-		int sx = 0;
-		int sy = 0;
-		int sz =0;
-		double voxelValue;
-		for (int k = 0; k < imagePlusInput.getStackSize(); ++k)
-			for (int i = 0; i < imagePlusInput.getWidth(); ++i)
-				for (int j = 0; j < imagePlusInput.getHeight(); ++j){
-					voxelValue = imageStackInput.getVoxel(i,j,k);
-					if (voxelValue == label ){
-						sx +=i;
-						sy +=j;
-						sz +=k;
-						++count;
-					}
-				}
-		sx /= count;
-		sy /= count;
-		sz /= count;
-		voxelRecordBarycenter.setLocation(sx, sy, sz);
-		if (unit) voxelRecordBarycenter.Multiplie(xCalibration, yCalibration,zCalibration);
-		return voxelRecordBarycenter;
-  	}
+		return new ObjectMeasure3D(imagePlusInput, label, null, m_nbThreads).getBarycenter(unit);
+	}
 	
 	/**
 	 * Method which compute the barycenter of each objects and return the result
@@ -250,14 +327,27 @@ public class Measure3D{
 	 * @return
 	 */
 	public VoxelRecord[] computeObjectBarycenter(ImagePlus imagePlusInput, boolean unit){
-		Histogram histogram = new Histogram();
-		histogram.run(imagePlusInput);
-		double []tlabel = histogram.getLabels();
-		VoxelRecord [] tVoxelRecord = new VoxelRecord [ tlabel.length];
-		for(int i = 0; i < tlabel.length; ++i)
-			tVoxelRecord[i] = computeBarycenter3D(unit, imagePlusInput,tlabel[i] );
+		LabelStatistics labelStatistics = new LabelStatistics(imagePlusInput);
+		VoxelRecord [] tVoxelRecord = new VoxelRecord [labelStatistics.getNbLabel()];
+		for(int i = 0; i < tVoxelRecord.length; ++i)
+			tVoxelRecord[i] = labelStatistics.getBarycenter(i, unit);
 		return tVoxelRecord;
 	}
+
+	/**
+	 * Method which compute the eigen values of each objects (as computeEigenValue3D), in the
+	 * increasing order of the labels
+	 *
+	 * @param imagePlusInput
+	 * @return table of the eigen values of each objects
+	 */
+	public double[][] computeEigenValueOfAllObjects(ImagePlus imagePlusInput){
+		LabelStatistics labelStatistics = new LabelStatistics(imagePlusInput);
+		double [][] tEigenValues = new double [labelStatistics.getNbLabel()][];
+		for(int i = 0; i < tEigenValues.length; ++i)
+			tEigenValues[i] = labelStatistics.getEigenValues(i);
+		return tEigenValues;
+	}
 	
 	/**
 	 * Intensity of chromocenters/ intensity of the nucleus
@@ -268,31 +358,41 @@ public class Measure3D{
 	 * @return
 	 */
 	public double computeIntensityRHF(ImagePlus imagePlusInput, ImagePlus imagePlusSegmented, ImagePlus imagePlusChromocenter ){
-		double chromocenterIntensity = 0;
-	    double nucleusIntensity = 0;
-	    double voxelValueChromocenter;
-	    double voxelValueInput;
-	    double voxelValueSegmented;
-	    ImageStack imageStackChromocenter =  imagePlusChromocenter.getStack();
-	    ImageStack imageStackSegmented = imagePlusSegmented.getStack();
-	    ImageStack imageStackInput = imagePlusInput.getStack();
-	    for (int k = 0; k < imagePlusInput.getNSlices(); ++k)
-	    	for (int i = 0; i < imagePlusInput.getWidth(); ++i )
-	    		for (int j = 0; j < imagePlusInput.getHeight(); ++j ){
-	    			voxelValueSegmented = imageStackSegmented.getVoxel(i, j, k);
-	    			voxelValueInput = imageStackInput.getVoxel(i, j, k);
-	    			voxelValueChromocenter = imageStackChromocenter.getVoxel(i,j,k);  
-	    			if (voxelValueSegmented > 0){
-	    				if (voxelValueChromocenter > 0)
-	    					chromocenterIntensity+=voxelValueInput;
-	    				nucleusIntensity += voxelValueInput;
-	    			}
+	    final StackAccessor stackAccessorChromocenter = new StackAccessor(imagePlusChromocenter);
+	    final StackAccessor stackAccessorSegmented = new StackAccessor(imagePlusSegmented);
+	    final StackAccessor stackAccessorInput = new StackAccessor(imagePlusInput);
+	    final int sliceSize = imagePlusInput.getWidth()*imagePlusInput.getHeight();
+	    ArrayList<double []> arrayListSlab = new SlabExecutor(m_nbThreads).run(imagePlusInput.getNSlices(),
+	    	new SlabExecutor.SlabTask<double []>(){
+	    		public double [] compute(int kMin, int kMax){
+	    			double chromocenterIntensity = 0;
+	    			double nucleusIntensity = 0;
+	    			for (int k = kMin; k < kMax; ++k)
+	    				for (int index = 0; index < sliceSize; ++index){
+	    					double voxelValueSegmented = stackAccessorSegmented.getVoxel(index, k);
+	    					double voxelValueInput = stackAccessorInput.getVoxel(index, k);
+	    					double voxelValueChromocenter = stackAccessorChromocenter.getVoxel(index, k);
+	    					if (voxelValueSegmented > 0){
+	    						if (voxelValueChromocenter > 0)
+	    							chromocenterIntensity+=voxelValueInput;
+	    						nucleusIntensity += voxelValueInput;
+	    					}
+	    				}
+	    			return new double[]{chromocenterIntensity, nucleusIntensity};
 	    		}
+	    	});
+	    double chromocenterIntensity = 0;
+	    double nucleusIntensity = 0;
+	    for (int n = 0; n < arrayListSlab.size(); ++n){
+	    	chromocenterIntensity += arrayListSlab.get(n)[0];
+	    	nucleusIntensity += arrayListSlab.get(n)[1];
+	    }
 	    return chromocenterIntensity / nucleusIntensity;
 	}
 	
 	/**
-	 * intensity stat
+	 * intensity stat, computed in one pass (IntensityStatistics), the statistics of the slabs being
+	 * merged with IntensityStatistics.merge when several threads are used
 	 * 0: min
 	 * 1: max
 	 * 2: avg
@@ -304,42 +404,24 @@ public class Measure3D{
 	 * @return
 	 */
 	public ArrayList<Double> computeIntensityParameters(ImagePlus imagePlusInput, ImagePlus imagePlusSegmented){
-		double min =3000;
-		double max = 0;
-		double sum = 0;
-		int nbPixel = 0;
-		double std = 0;
-	    double smec =0;
-	    ArrayList<Double> list= new ArrayList<Double>();
-	    ImageStack imageStackSegmented = imagePlusSegmented.getStack();
-	    ImageStack imageStackInput = imagePlusInput.getStack();
-	    for (int k = 0; k < imagePlusInput.getNSlices(); ++k){
-	    	for (int i = 0; i < imagePlusInput.getWidth(); ++i ){
-	    		for (int j = 0; j < imagePlusInput.getHeight(); ++j){
-	    			if (imageStackSegmented.getVoxel(i, j, k) > 0){
-	    				double current = imageStackInput.getVoxel(i, j, k); 
-	    				sum += current;
-	    				if ( current < min) min = current;
-	    				if ( current > max) max = current;
-	    				nbPixel++;
-	    			}
-	    		}
-	    	}
-	    }
-	    sum =sum/nbPixel;
-	    for (int k = 0; k < imagePlusInput.getNSlices(); ++k){
-	    	for (int i = 0; i < imagePlusInput.getWidth(); ++i ){
-	    		for (int j = 0; j < imagePlusInput.getHeight(); ++j){
-	    			if (imageStackSegmented.getVoxel(i, j, k) > 0) smec += (imageStackInput.getVoxel(i, j, k)-sum)*(imageStackInput.getVoxel(i, j, k)-sum); 
+	    final StackAccessor stackAccessorSegmented = new StackAccessor(imagePlusSegmented);
+	    final StackAccessor stackAccessorInput = new StackAccessor(imagePlusInput);
+	    final int sliceSize = imagePlusInput.getWidth()*imagePlusInput.getHeight();
+	    ArrayList<IntensityStatistics> arrayListSlab = new SlabExecutor(m_nbThreads).run(imagePlusInput.getNSlices(),
+	    	new SlabExecutor.SlabTask<IntensityStatistics>(){
+	    		public IntensityStatistics compute(int kMin, int kMax){
+	    			IntensityStatistics intensityStatistics = new IntensityStatistics();
+	    			for (int k = kMin; k < kMax; ++k)
+	    				for (int index = 0; index < sliceSize; ++index)
+	    					if (stackAccessorSegmented.getVoxel(index, k) > 0)
+	    						intensityStatistics.add(stackAccessorInput.getVoxel(index, k));
+	    			return intensityStatistics;
 	    		}
-	    	}
-	    }
-	    std = Math.sqrt(smec/(nbPixel-1));
-	    list.add(min);
-	    list.add(max);
-	    list.add(sum);
-	    list.add(std);
-	    return list;
+	    	});
+	    IntensityStatistics intensityStatistics = arrayListSlab.get(0);
+	    for (int n = 1; n < arrayListSlab.size(); ++n)
+	    	intensityStatistics.merge(arrayListSlab.get(n));
+	    return intensityStatistics.getParameters();
 	}
 
 
@@ -0,0 +1,289 @@
+package gred.nucleus.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gred.nucleus.utils.BinaryMask;
+import gred.nucleus.utils.BoundingBoxCrop;
+import gred.nucleus.utils.StackAccessor;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.AutoThresholder;
+import ij.process.AutoThresholder.Method;
+import ij.process.ShortProcessor;
+import ij.process.StackStatistics;
+import inra.ijpb.binary.ConnectedComponents;
+
+/**
+ * Segmentation of the nuclei of a field of view with several nuclei (tile scan): the candidate
+ * nuclei are the objects (26-connexity) of the image thresholded with the Otsu threshold of the
+ * stack, with a volume near the volume range. Each candidate is cropped to its bounding box
+ * enlarged by a padding, the voxels of all the other objects of the thresholded image (the other
+ * candidates, and the objects rejected by their volume) are set to 0 in the crop, and the crop is
+ * segmented with NucleusSegmentation (search of the threshold maximizing the sphericity). The
+ * crops are segmented in parallel, one crop by thread.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class MultiNucleusSegmentation{
+	/** Factor applied on the volume range to keep the candidates of the coarse threshold*/
+	private static final double CANDIDATE_VOLUME_TOLERANCE = 2;
+	private double m_volumeMin;
+	private double m_volumeMax;
+	/** Number of voxels added around the bounding box of each candidate*/
+	private int m_padding = 5;
+	/** Number of crops segmented in parallel*/
+	private int m_nbThreads = 1;
+
+	public MultiNucleusSegmentation(){ }
+
+	/**
+	 * Detect the candidate nuclei, then segment each candidate in its crop
+	 *
+	 * @param imagePlusInput raw image with several nuclei
+	 * @return the nuclei segmented, in the order of the labelling of the candidates
+	 */
+	public ArrayList<SegmentedNucleus> run(ImagePlus imagePlusInput){
+		ArrayList<int []> arrayListBoundingBox = new ArrayList<int []>();
+		ImagePlus imagePlusLabels = computeCandidates(imagePlusInput, arrayListBoundingBox);
+		IJ.log("Number of candidate nuclei: "+arrayListBoundingBox.size()+" "+imagePlusInput.getTitle());
+		ArrayList<SegmentedNucleus> arrayListNucleus = new ArrayList<SegmentedNucleus>();
+		if (arrayListBoundingBox.isEmpty())
+			return arrayListNucleus;
+		ExecutorService executorService = Executors.newFixedThreadPool(Math.min(m_nbThreads, arrayListBoundingBox.size()));
+		try{
+			ArrayList<Future<SegmentedNucleus>> arrayListFuture = new ArrayList<Future<SegmentedNucleus>>();
+			for (int n = 0; n < arrayListBoundingBox.size(); ++n){
+				if (arrayListBoundingBox.get(n) == null)
+					continue;
+				final int label = n+1;
+				final int [] tBoundingBox = arrayListBoundingBox.get(n);
+				final ImagePlus imagePlusCropped = cropCandidate(imagePlusInput, imagePlusLabels, label, tBoundingBox);
+				arrayListFuture.add(executorService.submit(new Callable<SegmentedNucleus>(){
+					public SegmentedNucleus call(){
+						return segmentCandidate(imagePlusCropped, tBoundingBox);
+					}
+				}));
+			}
+			for (int n = 0; n < arrayListFuture.size(); ++n){
+				SegmentedNucleus segmentedNucleus = arrayListFuture.get(n).get();
+				if (segmentedNucleus != null)
+					arrayListNucleus.add(segmentedNucleus);
+			}
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e){
+			throw new IllegalStateException(e.getCause());
+		}
+		finally{ executorService.shutdown(); }
+		IJ.log("Number of nuclei segmented: "+arrayListNucleus.size()+" "+imagePlusInput.getTitle());
+		return arrayListNucleus;
+	}
+
+	/**
+	 * Label image of the nuclei segmented: the voxels of the nucleus n of the list have the value n+1
+	 *
+	 * @param arrayListNucleus nuclei segmented by run
+	 * @param imagePlusInput image given to run
+	 * @return 16 bits image of the size of the input image
+	 */
+	public ImagePlus computeLabelImage(ArrayList<SegmentedNucleus> arrayListNucleus, ImagePlus imagePlusInput){
+		int width = imagePlusInput.getWidth();
+		int height = imagePlusInput.getHeight();
+		ImageStack imageStackLabels = new ImageStack(width, height);
+		for (int k = 0; k < imagePlusInput.getStackSize(); ++k)
+			imageStackLabels.addSlice(new ShortProcessor(width, height));
+		StackAccessor stackAccessorLabels = new StackAccessor(imageStackLabels);
+		for (int n = 0; n < arrayListNucleus.size(); ++n){
+			SegmentedNucleus segmentedNucleus = arrayListNucleus.get(n);
+			int [] tBoundingBox = segmentedNucleus.m_tBoundingBox;
+			StackAccessor stackAccessorSegmented = new StackAccessor(segmentedNucleus.m_imagePlusSegmented);
+			for (int k = 0; k < stackAccessorSegmented.getDepth(); ++k)
+				for (int j = 0; j < stackAccessorSegmented.getHeight(); ++j)
+					for (int i = 0; i < stackAccessorSegmented.getWidth(); ++i)
+						if (stackAccessorSegmented.getVoxel(i, j, k) > 0)
+							stackAccessorLabels.setVoxel(i+tBoundingBox[0], j+tBoundingBox[1], k+tBoundingBox[2], n+1);
+		}
+		ImagePlus imagePlusLabels = new ImagePlus(imagePlusInput.getTitle(), imageStackLabels);
+		imagePlusLabels.setCalibration(imagePlusInput.getCalibration());
+		return imagePlusLabels;
+	}
+
+	/**
+	 * Label the objects of the image thresholded with the Otsu threshold, and compute the bounding
+	 * box of the objects with a volume near the volume range
+	 *
+	 * @param imagePlusInput raw image
+	 * @param arrayListBoundingBox filled with the bounding box of each label (index label-1), enlarged
+	 * by the padding, null for the objects which are not candidates
+	 * @return image of the labels
+	 */
+	private ImagePlus computeCandidates(ImagePlus imagePlusInput, ArrayList<int []> arrayListBoundingBox){
+		Calibration calibration = imagePlusInput.getCalibration();
+		double voxelVolume = calibration.pixelWidth*calibration.pixelHeight*calibration.pixelDepth;
+		int width = imagePlusInput.getWidth();
+		int height = imagePlusInput.getHeight();
+		int depth = imagePlusInput.getStackSize();
+		StackStatistics stackStatistics = new StackStatistics(imagePlusInput);
+		int threshold = new AutoThresholder().getThreshold(Method.Otsu, stackStatistics.histogram);
+		BinaryMask binaryMask = new BinaryMask(imagePlusInput, threshold);
+		ImagePlus imagePlusLabels = ConnectedComponents.computeLabels(binaryMask.toImagePlus("", null), 26, 32);
+		StackAccessor stackAccessorLabels = new StackAccessor(imagePlusLabels);
+		ArrayList<long []> arrayListNbVoxel = new ArrayList<long []>();
+		for (int k = 0; k < depth; ++k)
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i){
+					int label = (int)stackAccessorLabels.getVoxel(i, j, k);
+					if (label == 0)
+						continue;
+					while (arrayListBoundingBox.size() < label){
+						arrayListBoundingBox.add(new int[]{width, height, depth, -1, -1, -1});
+						arrayListNbVoxel.add(new long[1]);
+					}
+					int [] tBoundingBox = arrayListBoundingBox.get(label-1);
+					if (i < tBoundingBox[0]) tBoundingBox[0] = i;
+					if (j < tBoundingBox[1]) tBoundingBox[1] = j;
+					if (k < tBoundingBox[2]) tBoundingBox[2] = k;
+					if (i > tBoundingBox[3]) tBoundingBox[3] = i;
+					if (j > tBoundingBox[4]) tBoundingBox[4] = j;
+					if (k > tBoundingBox[5]) tBoundingBox[5] = k;
+					++arrayListNbVoxel.get(label-1)[0];
+				}
+		for (int n = 0; n < arrayListBoundingBox.size(); ++n){
+			int [] tBoundingBox = arrayListBoundingBox.get(n);
+			double volume = arrayListNbVoxel.get(n)[0]*voxelVolume;
+			if (tBoundingBox[3] < 0 || volume < m_volumeMin/CANDIDATE_VOLUME_TOLERANCE || volume > m_volumeMax*CANDIDATE_VOLUME_TOLERANCE){
+				arrayListBoundingBox.set(n, null);
+				continue;
+			}
+			tBoundingBox[0] = Math.max(tBoundingBox[0]-m_padding, 0);
+			tBoundingBox[1] = Math.max(tBoundingBox[1]-m_padding, 0);
+			tBoundingBox[2] = Math.max(tBoundingBox[2]-m_padding, 0);
+			tBoundingBox[3] = Math.min(tBoundingBox[3]+m_padding, width-1);
+			tBoundingBox[4] = Math.min(tBoundingBox[4]+m_padding, height-1);
+			tBoundingBox[5] = Math.min(tBoundingBox[5]+m_padding, depth-1);
+		}
+		return imagePlusLabels;
+	}
+
+	/**
+	 * Crop of a candidate, the voxels of the other objects of the labelling are set to 0
+	 *
+	 * @param imagePlusInput raw image
+	 * @param imagePlusLabels image of the labels
+	 * @param label label of the candidate
+	 * @param tBoundingBox bounding box of the candidate
+	 * @return cropped image, with the title of the input image followed by the label
+	 */
+	private ImagePlus cropCandidate(ImagePlus imagePlusInput, ImagePlus imagePlusLabels, int label, int [] tBoundingBox){
+		ImagePlus imagePlusCropped = new BoundingBoxCrop().crop(imagePlusInput, tBoundingBox);
+		imagePlusCropped.setTitle(imagePlusInput.getTitle()+"_"+label);
+		StackAccessor stackAccessorCropped = new StackAccessor(imagePlusCropped);
+		StackAccessor stackAccessorLabels = new StackAccessor(imagePlusLabels);
+		for (int k = 0; k < stackAccessorCropped.getDepth(); ++k)
+			for (int j = 0; j < stackAccessorCropped.getHeight(); ++j)
+				for (int i = 0; i < stackAccessorCropped.getWidth(); ++i){
+					double voxelLabel = stackAccessorLabels.getVoxel(i+tBoundingBox[0], j+tBoundingBox[1], k+tBoundingBox[2]);
+					if (voxelLabel != 0 && voxelLabel != label)
+						stackAccessorCropped.setVoxel(i, j, k, 0);
+				}
+		return imagePlusCropped;
+	}
+
+	/**
+	 * Segmentation of a crop with NucleusSegmentation
+	 *
+	 * @param imagePlusCropped crop of a candidate
+	 * @param tBoundingBox bounding box of the crop
+	 * @return the nucleus segmented, null if no threshold is validated
+	 */
+	private SegmentedNucleus segmentCandidate(ImagePlus imagePlusCropped, int [] tBoundingBox){
+		NucleusSegmentation nucleusSegmentation = new NucleusSegmentation();
+		nucleusSegmentation.setVolumeRange(m_volumeMin, m_volumeMax);
+		nucleusSegmentation.setBoundingBoxCropping(true);
+		ImagePlus imagePlusSegmented = nucleusSegmentation.applySegmentation(imagePlusCropped);
+		if (nucleusSegmentation.getBestThreshold() == 0)
+			return null;
+		imagePlusSegmented.setTitle(imagePlusCropped.getTitle());
+		return new SegmentedNucleus(tBoundingBox, nucleusSegmentation.getBestThreshold(), imagePlusCropped, imagePlusSegmented);
+	}
+
+	/**
+	 *
+	 * @param volumeMin
+	 * @param volumeMax
+	 */
+	public void setVolumeRange(double volumeMin, double volumeMax){
+		m_volumeMin = volumeMin;
+		m_volumeMax = volumeMax;
+	}
+
+	/**
+	 *
+	 * @param padding number of voxels added around the bounding box of each candidate, larger than
+	 * the growth of the nucleus between the Otsu threshold and the lower threshold of the sweep
+	 */
+	public void setPadding(int padding){
+		m_padding = Math.max(padding, 0);
+	}
+
+	/**
+	 *
+	 * @param nbThreads number of crops segmented in parallel
+	 */
+	public void setNbThreads(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
+	/**
+	 * Nucleus segmented in the crop of a candidate
+	 */
+	public static class SegmentedNucleus{
+		/** bounding box of the crop in the input image {xMin, yMin, zMin, xMax, yMax, zMax}*/
+		private int [] m_tBoundingBox;
+		private int m_threshold;
+		private ImagePlus m_imagePlusCropped;
+		private ImagePlus m_imagePlusSegmented;
+
+		private SegmentedNucleus(int [] tBoundingBox, int threshold, ImagePlus imagePlusCropped, ImagePlus imagePlusSegmented){
+			m_tBoundingBox = tBoundingBox;
+			m_threshold = threshold;
+			m_imagePlusCropped = imagePlusCropped;
+			m_imagePlusSegmented = imagePlusSegmented;
+		}
+
+		public int [] getBoundingBox(){
+			return m_tBoundingBox;
+		}
+
+		public int getThreshold(){
+			return m_threshold;
+		}
+
+		/**
+		 *
+		 * @return raw crop of the nucleus
+		 */
+		public ImagePlus getImagePlusCropped(){
+			return m_imagePlusCropped;
+		}
+
+		/**
+		 *
+		 * @return segmented nucleus in the crop (8 bits, 255 in the nucleus)
+		 */
+		public ImagePlus getImagePlusSegmented(){
+			return m_imagePlusSegmented;
+		}
+	}
+}
@@ -18,6 +18,7 @@ import ij.ImagePlus;
 public class NucleusAnalysis{
 	
 	private ImagePlus _raw;
+	private int _nbThreads = 1;
 	 @SuppressWarnings("unused")
 	 private static class IOEception{  public IOEception() { } }
 	 public NucleusAnalysis (){}
@@ -25,6 +26,15 @@ public class NucleusAnalysis{
 		 _raw = rawImage;
 	 }
 
+	 /**
+	  * Number of threads used to scan the images of the 3D parameters (ObjectMeasure3D), 1 by default
+	  *
+	  * @param nbThreads
+	  */
+	 public void setNbThreads(int nbThreads){
+		 _nbThreads = Math.max(nbThreads, 1);
+	 }
+
 	 /**
 	  * this method compute severals parameters of shape (sphericity, flataness and
 	  * elongation) and parameters of lenght (volume and equivalent spherique radius)
@@ -39,14 +49,17 @@ public class NucleusAnalysis{
 		  File fileResults = new File(pathResultsFile);
 		  boolean exist = fileResults.exists();
 		  BufferedWriter bufferedWriterOutput;
+		  measure3D.setNbThreads(_nbThreads);
+		  ObjectMeasure3D objectMeasure3D = new ObjectMeasure3D(imagePlusInput, 255, null, _nbThreads);
 		  ArrayList<Double> list = measure3D.computeIntensityParameters(imagePlusInput, _raw);
-		  double volume = measure3D.computeVolumeObject(imagePlusInput,255);
-		  double surfaceArea = measure3D.computeSurfaceObject(imagePlusInput,255);
+		  double volume = objectMeasure3D.getVolume();
+		  double surfaceArea = objectMeasure3D.getSurface();
+		  double [] tFlatnessAndElongation = objectMeasure3D.getFlatnessAndElongation();
 		  if (exist){
 			  FileWriter fileWriter = new FileWriter(fileResults, true);
 		      bufferedWriterOutput = new BufferedWriter(fileWriter);
-		      bufferedWriterOutput.write(  imagePlusInput.getTitle()+"\t"+measure3D.computeVolumeObject(imagePlusInput,255)+"\t"
-		    		  +measure3D.computeFlatnessAndElongation(imagePlusInput,255)[0]+"\t" +measure3D.computeFlatnessAndElongation(imagePlusInput,255)[1]+"\t"
+		      bufferedWriterOutput.write(  imagePlusInput.getTitle()+"\t"+volume+"\t"
+		    		  +tFlatnessAndElongation[0]+"\t" +tFlatnessAndElongation[1]+"\t"
 		    		  +measure3D.computeSphericity(volume, surfaceArea)+"\t"+measure3D.equivalentSphericalRadius(volume)+"\t"
 		    		  +surfaceArea+"\t"+list.get(0)+"\t"+list.get(1)+"\t"+list.get(2)+"\t"+list.get(3)+"\n"
 		     );
@@ -57,9 +70,9 @@ public class NucleusAnalysis{
 		      bufferedWriterOutput.write(
 		    		  "NucleusFileName\tVolume\tFlatness\tElongation\tSphericity\tEsr\tSurfaceArea\tminIntensity\tMaxIntensity\tMeanIntensity\tstd\n"+
 		    		  imagePlusInput.getTitle()+"\t"
-		    		  +measure3D.computeVolumeObject(imagePlusInput,255)+"\t"
-		    		  +measure3D.computeFlatnessAndElongation(imagePlusInput,255)[0]+"\t"
-		    		  +measure3D.computeFlatnessAndElongation(imagePlusInput,255)[1]+"\t"
+		    		  +volume+"\t"
+		    		  +tFlatnessAndElongation[0]+"\t"
+		    		  +tFlatnessAndElongation[1]+"\t"
 		    		  +measure3D.computeSphericity(volume, surfaceArea)+"\t"
 		    		  +measure3D.equivalentSphericalRadius(volume)+"\t"
 		    		  +surfaceArea+"\t"+list.get(0)+"\t"+list.get(1)+"\t"+list.get(2)+"\t"+list.get(3)+"\n"
@@ -78,16 +91,19 @@ public class NucleusAnalysis{
 	   */
 	  public void nucleusParameter3D(ImagePlus imagePlusInput){
 		  Measure3D measure3D = new Measure3D();
-		  double volume = measure3D.computeVolumeObject(imagePlusInput,255);
-		  double surfaceArea = measure3D.computeSurfaceObject(imagePlusInput,255);
+		  measure3D.setNbThreads(_nbThreads);
+		  ObjectMeasure3D objectMeasure3D = new ObjectMeasure3D(imagePlusInput, 255, null, _nbThreads);
+		  double volume = objectMeasure3D.getVolume();
+		  double surfaceArea = objectMeasure3D.getSurface();
+		  double [] tFlatnessAndElongation = objectMeasure3D.getFlatnessAndElongation();
 		  ArrayList<Double> list = measure3D.computeIntensityParameters(imagePlusInput, _raw);
 		  IJ.log("3D parameters");
 		  IJ.log("NucleusFileName Volume Flatness Elongation Sphericity Esr SurfaceArea minIntensity MaxIntensity MeanIntensity std");
 		  IJ.log(
 				  imagePlusInput.getTitle()+" "
-				  +measure3D.computeVolumeObject(imagePlusInput,255)+" "
-				  +measure3D.computeFlatnessAndElongation(imagePlusInput,255)[0]+" "
-	    		  +measure3D.computeFlatnessAndElongation(imagePlusInput,255)[1]+" "
+				  +volume+" "
+				  +tFlatnessAndElongation[0]+" "
+	    		  +tFlatnessAndElongation[1]+" "
 				  +measure3D.computeSphericity(volume, surfaceArea)+" "
 				  +measure3D.equivalentSphericalRadius(volume)+" "
 				  +surfaceArea+list.get(0)+"\t"+list.get(1)+"\t"+list.get(2)+"\t"+list.get(3)+"\n"
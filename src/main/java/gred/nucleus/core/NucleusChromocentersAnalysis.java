@@ -18,8 +18,19 @@ import ij.measure.Calibration;
  *
  */
 public class NucleusChromocentersAnalysis{
+	private int m_nbThreads = 1;
+
 	public NucleusChromocentersAnalysis(){ }
 
+	/**
+	 * Number of threads used to scan the images of the nucleus parameters (Measure3D), 1 by default
+	 *
+	 * @param nbThreads
+	 */
+	public void setNbThreads(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
 	/**
 	 * Analysis for one nucleus, the results are stock on the IJ log windows
 	 * 
@@ -35,14 +46,17 @@ public class NucleusChromocentersAnalysis{
 		Calibration calibration = imagePlusInput.getCalibration();
 		double voxelVolume = calibration.pixelDepth*calibration.pixelHeight*calibration.pixelWidth;
 		Measure3D measure3D = new Measure3D();
-		double volume = measure3D.computeVolumeObject(imagePlusSegmented,255);
-		double surfaceArea = measure3D.computeSurfaceObject(imagePlusSegmented,255);
-		ArrayList<Double> list = measure3D.computeIntensityParameters(imagePlusInput, imagePlusSegmented);
+		measure3D.setNbThreads(m_nbThreads);
+		ObjectMeasure3D objectMeasure3D = new ObjectMeasure3D(imagePlusSegmented, 255, imagePlusInput, m_nbThreads);
+		double volume = objectMeasure3D.getVolume();
+		double surfaceArea = objectMeasure3D.getSurface();
+		double [] tFlatnessAndElongation = objectMeasure3D.getFlatnessAndElongation();
+		ArrayList<Double> list = objectMeasure3D.getIntensityParameters();
 		String text = imagePlusSegmented.getTitle()+" "+volume+" "
 				+measure3D.equivalentSphericalRadius(volume)+" "
 				+surfaceArea +" "
-				+measure3D.computeFlatnessAndElongation(imagePlusSegmented,255)[0]+" "
-	    		+measure3D.computeFlatnessAndElongation(imagePlusSegmented,255)[1]+" "
+				+tFlatnessAndElongation[0]+" "
+	    		+tFlatnessAndElongation[1]+" "
 				+measure3D.computeSphericity(volume,surfaceArea);
 		if(rhfChoice.equals("Volume and intensity")){	
 			IJ.log("ImageTitle Volume ESR SurfaceArea Flatness Elongation Sphericity IntensityRHF VolumeRHF NbCc VCcMean VCcTotal DistanceBorderToBorderMean DistanceBarycenterToBorderMean VoxelVolume MinIntensityNuc MaxIntensityNuc AvgIntensityNuc StdIntensityNuc");
@@ -59,11 +73,11 @@ public class NucleusChromocentersAnalysis{
 		}
 		if (histogram.getNbLabels() > 0){
 			double [] tVolumesObjects =  measure3D.computeVolumeofAllObjects(imagePlusChromocenter);
-			RadialDistance radialDistance = new RadialDistance();
-			double [] tBorderToBorderDistance = radialDistance.computeBorderToBorderDistances(imagePlusSegmented,imagePlusChromocenter);
-			double [] tBarycenterToBorderDistance = radialDistance.computeBarycenterToBorderDistances (imagePlusSegmented,imagePlusChromocenter);
+			RadialDistanceContext radialDistanceContext = new RadialDistance().createContext(imagePlusSegmented);
+			double [] tBorderToBorderDistance = radialDistanceContext.computeBorderToBorderDistances(imagePlusChromocenter);
+			double [] tBarycenterToBorderDistance = radialDistanceContext.computeBarycenterToBorderDistances(imagePlusChromocenter);
 			double volumeCcMean = computeMeanOfTable(tVolumesObjects);
-			int nbCc = measure3D.getNumberOfObject(imagePlusChromocenter);
+			int nbCc = tVolumesObjects.length;
 			text += nbCc+" "
 				+volumeCcMean+" "
 				+volumeCcMean*nbCc+" "
@@ -95,14 +109,17 @@ public class NucleusChromocentersAnalysis{
 		Calibration calibration = imagePlusInput.getCalibration();
 		double voxelVolume = calibration.pixelDepth*calibration.pixelHeight*calibration.pixelWidth;
 		Measure3D measure3D = new Measure3D();
+		measure3D.setNbThreads(m_nbThreads);
 		Measure2D measure2D = new Measure2D();
 		measure2D.run(imagePlusSegmented);
-		double volume = measure3D.computeVolumeObject(imagePlusSegmented,255);
-		double surfaceArea = measure3D.computeSurfaceObject(imagePlusSegmented,255);
+		ObjectMeasure3D objectMeasure3D = new ObjectMeasure3D(imagePlusSegmented, 255, imagePlusInput, m_nbThreads);
+		double volume = objectMeasure3D.getVolume();
+		double surfaceArea = objectMeasure3D.getSurface();
+		double [] tFlatnessAndElongation = objectMeasure3D.getFlatnessAndElongation();
 		File fileResults = new File(pathResultsFile);
 		boolean exist = fileResults.exists();
 		BufferedWriter bufferedWriterOutput;	
-		ArrayList<Double> list = measure3D.computeIntensityParameters(imagePlusInput, imagePlusSegmented);
+		ArrayList<Double> list = objectMeasure3D.getIntensityParameters();
 		FileWriter fileWriter = new FileWriter(fileResults, true);
 		bufferedWriterOutput = new BufferedWriter(fileWriter);
 		String text = "";
@@ -118,8 +135,8 @@ public class NucleusChromocentersAnalysis{
 			 +volume+"\t"
 			 +measure3D.equivalentSphericalRadius(volume)+"\t"
 			 +surfaceArea+"\t"
-			 +measure3D.computeFlatnessAndElongation(imagePlusSegmented,255)[0]+"\t"
-			 +measure3D.computeFlatnessAndElongation(imagePlusSegmented,255)[1]+"\t"
+			 +tFlatnessAndElongation[0]+"\t"
+			 +tFlatnessAndElongation[1]+"\t"
 			 +measure3D.computeSphericity(volume,surfaceArea)+"\t";	
 		if(rhfChoice.equals("Volume and intensity")){
 			text +=  measure3D.computeIntensityRHF(imagePlusInput,imagePlusSegmented, imagePlusChromocenter)+"\t";
@@ -132,10 +149,10 @@ public class NucleusChromocentersAnalysis{
 		if (histogram.getNbLabels() > 0){
 			double [] tVolumesObjects =  measure3D.computeVolumeofAllObjects(imagePlusChromocenter);
 			double volumeCcMean = computeMeanOfTable(tVolumesObjects);
-			int nbCc = measure3D.getNumberOfObject(imagePlusChromocenter);
-			RadialDistance radialDistance = new RadialDistance();
-			double [] tBorderToBorderDistance = radialDistance.computeBorderToBorderDistances(imagePlusSegmented,imagePlusChromocenter);
-			double [] tBarycenterToBorderDistance = radialDistance.computeBarycenterToBorderDistances (imagePlusSegmented,imagePlusChromocenter);
+			int nbCc = tVolumesObjects.length;
+			RadialDistanceContext radialDistanceContext = new RadialDistance().createContext(imagePlusSegmented);
+			double [] tBorderToBorderDistance = radialDistanceContext.computeBorderToBorderDistances(imagePlusChromocenter);
+			double [] tBarycenterToBorderDistance = radialDistanceContext.computeBarycenterToBorderDistances(imagePlusChromocenter);
 			text += nbCc+"\t"+volumeCcMean+"\t"
 					 +volumeCcMean*nbCc+"\t"+computeMeanOfTable(tBorderToBorderDistance)+"\t"
 					 +computeMeanOfTable(tBarycenterToBorderDistance)+"\t";
@@ -4,17 +4,28 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import gred.nucleus.utils.BinaryMask;
+import gred.nucleus.utils.BinaryMorphology;
+import gred.nucleus.utils.BoundingBoxCrop;
+import gred.nucleus.utils.ComponentTree;
 import gred.nucleus.utils.FillingHoles;
 import gred.nucleus.utils.Histogram;
+import gred.nucleus.utils.LargestComponent;
+import gred.nucleus.utils.SegmentationCache;
+import gred.nucleus.utils.StackAccessor;
+import gred.nucleus.utils.StackDownsampling;
 import ij.*;
 import ij.plugin.ContrastEnhancer;
-import ij.plugin.Filters3D;
 import ij.plugin.GaussianBlur3D;
 import ij.process.*;
 import ij.measure.*;
 import ij.process.AutoThresholder.Method;
-import inra.ijpb.binary.ConnectedComponents;
 
 /**
  * this class allows the realization of segmention method in the image in input. This segmentation
@@ -27,12 +38,46 @@ import inra.ijpb.binary.ConnectedComponents;
 @SuppressWarnings("deprecation")
 public class NucleusSegmentation{
 	private int m_bestThreshold = 0;
+	/** true if the last call of applySegmentation found an object*/
+	private boolean m_objectFound = false;
 	/** Segmentation parameters*/
 	private double m_volumeMin;
 	/** */
 	private double m_volumeMax;
 	/** */
 	private String m_logErrorSeg = "";
+	/** Pruning of the threshold interval with the cumulative histogram of the stack*/
+	private boolean m_histogramPruning = false;
+	/** Factor applied on the minimum volume to prune the upper thresholds with the raw object volume*/
+	private static final double VOLUME_PRUNING_TOLERANCE = 2;
+	/** Search of the threshold with the component tree of the image*/
+	private boolean m_componentTreeEngine = false;
+	/** Number of thresholds of the component tree segmented before the exhaustive search*/
+	private static final int NB_COMPONENT_TREE_CANDIDATES = 5;
+	/** Number of threads used to evaluate the thresholds of one image*/
+	private int m_nbThreadsSweep = 1;
+	/** Strategy of search of the threshold in the threshold interval*/
+	private ThresholdSearchStrategy m_thresholdSearchStrategy = new ExhaustiveThresholdSearch();
+	/** Segmentation in the bounding box of the voxels higher or equal to the lower threshold*/
+	private boolean m_boundingBoxCropping = false;
+	/** Number of voxels added around the bounding box, larger than the radius of the morphological correction*/
+	private static final int CROP_PADDING = 2;
+	/** Factor of reduction in x and y of the image of the pre-pass, 1 without pre-pass*/
+	private int m_downsamplingFactor = 1;
+	/** Half width of the threshold interval kept after the pre-pass, 0 for the square root of the interval*/
+	private int m_downsamplingWindow = 0;
+	/** Cache on disk of the results of run, null without cache*/
+	private SegmentationCache m_segmentationCache = null;
+	/** File of the trace of the thresholds evaluated, empty without trace*/
+	private String m_traceFile = "";
+	/** Lines of the trace of the current segmentation, null without trace*/
+	private List<String> m_listTrace = null;
+	/** Lock of the trace files, shared by the segmentation threads*/
+	private static final Object TRACE_LOCK = new Object();
+	/** Index of the time of the steps of the segmentation of one threshold*/
+	private static final int TIME_THRESHOLD = 0, TIME_MORPHOLOGY = 1, TIME_LABELLING = 2, TIME_MEASURE = 3;
+	/** Buffers of the segmentation of the thresholds, one workspace by thread of the sweep*/
+	private ThreadLocal<SegmentationWorkspace> m_workspace = new ThreadLocal<SegmentationWorkspace>();
   
 	/**
 	 * Constructor
@@ -49,8 +94,24 @@ public class NucleusSegmentation{
 	 */
 	public ImagePlus run(ImagePlus imagePlusInput){
 		IJ.log("Begin segmentation"+imagePlusInput.getTitle());
-			
-		ImagePlus imagePlusSegmented = applySegmentation (imagePlusInput);
+		m_bestThreshold = 0;
+		ImagePlus imagePlusSegmented = null;
+		String key = null;
+		if (m_segmentationCache != null){
+			key = m_segmentationCache.computeKey(imagePlusInput, m_volumeMin, m_volumeMax,
+					m_thresholdSearchStrategy.getCacheKey()+" "+m_componentTreeEngine+" "+m_histogramPruning+" "+m_downsamplingFactor+" "+m_downsamplingWindow);
+			SegmentationCache.CachedSegmentation cachedSegmentation = m_segmentationCache.get(key);
+			if (cachedSegmentation != null){
+				IJ.log("Segmentation read in the cache "+imagePlusInput.getTitle());
+				m_bestThreshold = cachedSegmentation.getThreshold();
+				imagePlusSegmented = cachedSegmentation.getBinaryMask().toImagePlus(imagePlusInput.getTitle(), imagePlusInput.getCalibration());
+			}
+		}
+		if (imagePlusSegmented == null){
+			imagePlusSegmented = applySegmentation (imagePlusInput);
+			if (m_segmentationCache != null && m_objectFound)
+				m_segmentationCache.put(key, m_bestThreshold, new BinaryMask(imagePlusSegmented, 255));
+		}
 		IJ.log("End segmentation "+imagePlusInput.getTitle()+" "+m_bestThreshold);
 		if(m_bestThreshold == 0){
 			if(m_logErrorSeg.length()==0){
@@ -91,9 +152,6 @@ public class NucleusSegmentation{
 	 */
 
 	public ImagePlus applySegmentation(ImagePlus imagePlusInput){
-		double sphericityMax = -1.0;
-		double sphericity;
-		double volume;
 		Calibration calibration = imagePlusInput.getCalibration();
 		final double xCalibration = calibration.pixelWidth;
 		final double yCalibration = calibration.pixelHeight;
@@ -101,72 +159,274 @@ public class NucleusSegmentation{
 		final double imageVolume = xCalibration*imagePlusInput.getWidth()*yCalibration*imagePlusInput.getHeight()*zCalibration*imagePlusInput.getStackSize();
 		IJ.log("new "+xCalibration+" "+yCalibration+" "+zCalibration+"  volume image :"+imageVolume);
 		ImagePlus imagePlusSegmented = new ImagePlus();
+		m_bestThreshold = 0;
+		m_objectFound = false;
+		if (m_traceFile.length() > 0)
+			m_listTrace = Collections.synchronizedList(new ArrayList<String>());
 		ArrayList<Integer> arrayListThreshold = computeMinMaxThreshold(imagePlusInput);	
 		IJ.log("Lower limit: "+arrayListThreshold.get(0)+" Upper limit "+arrayListThreshold.get(1));
-		for (int t = arrayListThreshold.get(0) ; t <= arrayListThreshold.get(1); ++t){
-			ImagePlus imagePlusSegmentedTemp = generateSegmentedImage(imagePlusInput,t);
-			Measure3D measure3D = new Measure3D();
-			volume = measure3D.computeVolumeObject(imagePlusSegmentedTemp,255);
-			if (testRelativeObjectVolume(volume,imageVolume)){	
-				morphologicalCorrection (imagePlusSegmentedTemp);
-				imagePlusSegmentedTemp = ConnectedComponents.computeLabels(imagePlusSegmentedTemp, 26, 32);
-				deleteArtefact(imagePlusSegmentedTemp);
-				imagePlusSegmentedTemp.setCalibration(calibration);
-				
-				if (isVoxelThresholded(imagePlusSegmentedTemp, 255,0) == false && 
-						isVoxelThresholded(imagePlusSegmentedTemp, 255,imagePlusSegmentedTemp.getStackSize()-1) == false){
-					volume = measure3D.computeVolumeObject(imagePlusSegmentedTemp,255);
-					sphericity = measure3D.computeSphericity(volume,measure3D.computeSurfaceObject(imagePlusSegmentedTemp, 255));
-					
-					if (sphericity > sphericityMax && volume >= m_volumeMin && volume <= m_volumeMax){
-						m_bestThreshold=t;
-						sphericityMax = sphericity;
-						StackConverter stackConverter = new StackConverter( imagePlusSegmentedTemp );
-						stackConverter.convertToGray8();
-						imagePlusSegmented= imagePlusSegmentedTemp.duplicate();			
-					}
-				}
+		boolean isIntegerImage = imagePlusInput.getType() == ImagePlus.GRAY8 || imagePlusInput.getType() == ImagePlus.GRAY16;
+		if (m_histogramPruning && isIntegerImage){
+			arrayListThreshold = pruneThresholdInterval(imagePlusInput, arrayListThreshold, imageVolume);
+			IJ.log("Pruned lower limit: "+arrayListThreshold.get(0)+" Pruned upper limit "+arrayListThreshold.get(1));
+		}
+		int [] tBoundingBox = null;
+		ImagePlus imagePlusSearch = imagePlusInput;
+		if (m_boundingBoxCropping){
+			BoundingBoxCrop boundingBoxCrop = new BoundingBoxCrop();
+			tBoundingBox = boundingBoxCrop.computeBoundingBox(imagePlusInput, arrayListThreshold.get(0), CROP_PADDING);
+			if (tBoundingBox != null && boundingBoxCrop.isWholeImage(tBoundingBox, imagePlusInput) == false){
+				imagePlusSearch = boundingBoxCrop.crop(imagePlusInput, tBoundingBox);
+				IJ.log("Cropped image: "+imagePlusSearch.getWidth()+" "+imagePlusSearch.getHeight()+" "+imagePlusSearch.getStackSize());
 			}
+			else
+				tBoundingBox = null;
+		}
+		if (m_downsamplingFactor > 1){
+			arrayListThreshold = narrowThresholdInterval(imagePlusSearch, arrayListThreshold, imageVolume);
+			IJ.log("Lower limit after the pre-pass: "+arrayListThreshold.get(0)+" Upper limit "+arrayListThreshold.get(1));
+		}
+		SegmentationCandidate bestCandidate = null;
+		if (m_componentTreeEngine && isIntegerImage){
+			bestCandidate = applyComponentTreeSegmentation(imagePlusSearch, arrayListThreshold, imageVolume);
+			if (bestCandidate == null)
+				IJ.log("No threshold validated with the component tree, exhaustive search");
+		}
+		if (bestCandidate == null){
+			SweepEvaluator sweepEvaluator = new SweepEvaluator(imagePlusSearch, imageVolume);
+			m_thresholdSearchStrategy.search(arrayListThreshold.get(0), arrayListThreshold.get(1), sweepEvaluator);
+			IJ.log("Number of thresholds evaluated: "+sweepEvaluator.getNbThresholdEvaluated());
+			bestCandidate = sweepEvaluator.getBestCandidate();
+		}
+		if (bestCandidate != null){
+			m_bestThreshold = bestCandidate.m_threshold;
+			m_objectFound = true;
+			BinaryMask binaryMask = segmentThreshold(imagePlusSearch, m_bestThreshold, imageVolume, getWorkspace(imagePlusSearch));
+			imagePlusSegmented = binaryMask.toImagePlus(imagePlusSearch.getTitle(), calibration);
+			if (tBoundingBox != null)
+				imagePlusSegmented = new BoundingBoxCrop().paste(imagePlusSegmented, tBoundingBox,
+						imagePlusInput.getWidth(), imagePlusInput.getHeight(), imagePlusInput.getStackSize());
 		}
 		imagePlusSegmented.setCalibration(calibration);
+		m_workspace.remove();
+		if (m_listTrace != null){
+			writeTrace();
+			m_listTrace = null;
+		}
 		return imagePlusSegmented;
 	}
 
-	
 	/**
-	 * Compute the beginig threshold value
+	 * Shape parameters of the segmented object of one threshold value. The segmentation is done in the
+	 * workspace of the current thread, so no mask is kept: the mask of the best threshold is
+	 * computed again at the end of applySegmentation.
 	 * 
 	 * @param imagePlusInput raw image
-	 * @return
+	 * @param threshold threshold value for the segmentation
+	 * @param imageVolume volume of the image
+	 * @return the shape parameters of the segmented object, null if the threshold is rejected
 	 */
-	private int computeThreshold(ImagePlus imagePlusInput){
-		AutoThresholder autoThresholder = new AutoThresholder();
-		ImageStatistics imageStatistics = new StackStatistics(imagePlusInput);
-		int [] tHisto = imageStatistics.histogram;
-		return autoThresholder.getThreshold(Method.Otsu,tHisto);
+	private SegmentationCandidate evaluateThreshold(ImagePlus imagePlusInput, int threshold, double imageVolume){
+		Calibration calibration = imagePlusInput.getCalibration();
+		SegmentationWorkspace workspace = getWorkspace(imagePlusInput);
+		BinaryMask binaryMask = segmentThreshold(imagePlusInput, threshold, imageVolume, workspace);
+		SegmentationCandidate candidate = null;
+		double surface = 0;
+		if (binaryMask != null){
+			long time = System.nanoTime();
+			Measure3D measure3D = new Measure3D();
+			double volume = measure3D.computeVolumeObject(binaryMask, calibration);
+			surface = measure3D.computeSurfaceObject(binaryMask, calibration);
+			double sphericity = measure3D.computeSphericity(volume,surface);
+			workspace.m_tTime[TIME_MEASURE] = System.nanoTime()-time;
+			candidate = new SegmentationCandidate(threshold, volume, sphericity);
+			if (isValidCandidate(candidate) == false)
+				workspace.m_rejection = "volume range";
+		}
+		if (m_listTrace != null)
+			m_listTrace.add(toCsvField(imagePlusInput.getTitle())+","+imagePlusInput.getWidth()+","+imagePlusInput.getHeight()+","+imagePlusInput.getStackSize()
+					+","+threshold+","+(candidate == null ? "" : candidate.m_volume)+","+(candidate == null ? "" : surface)
+					+","+(candidate == null ? "" : candidate.m_sphericity)+","+toCsvField(workspace.m_rejection)
+					+","+workspace.m_tTime[TIME_THRESHOLD]+","+workspace.m_tTime[TIME_MORPHOLOGY]
+					+","+workspace.m_tTime[TIME_LABELLING]+","+workspace.m_tTime[TIME_MEASURE]);
+		return candidate;
 	}
 
 	/**
-	 * Creation of the nucleus segmented image
+	 * Segmentation of the input image with one threshold value: threshold, morphological correction,
+	 * extraction of the largest object. The threshold is rejected (null returned) if the
+	 * thresholded object is superior or equal at 70% of the image, if there is no object, or if the
+	 * segmented object is in the first or the last slice of the image. The intermediate masks are the
+	 * masks of the workspace, which also receives the time of each step and the reason of the
+	 * rejection.
 	 * 
 	 * @param imagePlusInput raw image
 	 * @param threshold threshold value for the segmentation
-	 * @return segmented image of the nucleus
+	 * @param imageVolume volume of the image
+	 * @param workspace buffers of the current thread
+	 * @return the mask of the workspace with the segmented object, null if the threshold is rejected
 	 */
-	private ImagePlus generateSegmentedImage (ImagePlus imagePlusInput, int threshold){
-		ImageStack imageStackInput = imagePlusInput.getStack();
-		ImagePlus imagePlusSegmented = imagePlusInput.duplicate();
-		ImageStack imageStackSegmented = imagePlusSegmented.getStack();
-		for(int k = 0; k < imagePlusInput.getStackSize(); ++k)
-			for (int i = 0; i < imagePlusInput.getWidth(); ++i )
-				for (int j = 0; j < imagePlusInput.getHeight(); ++j){
-					double voxelValue = imageStackInput.getVoxel(i,j,k);
-					if (voxelValue >= threshold)
-						imageStackSegmented.setVoxel(i,j,k,255);
-					else
-						imageStackSegmented.setVoxel(i,j,k,0);
-				}
-		return imagePlusSegmented;
+	private BinaryMask segmentThreshold(ImagePlus imagePlusInput, int threshold, double imageVolume, SegmentationWorkspace workspace){
+		BinaryMask binaryMask = workspace.m_binaryMask;
+		Arrays.fill(workspace.m_tTime, 0);
+		long time = System.nanoTime();
+		binaryMask.threshold(imagePlusInput, threshold);
+		boolean isRelativeVolumeValid = testRelativeObjectVolume(new Measure3D().computeVolumeObject(binaryMask, imagePlusInput.getCalibration()),imageVolume);
+		workspace.m_tTime[TIME_THRESHOLD] = System.nanoTime()-time;
+		if (isRelativeVolumeValid == false){
+			workspace.m_rejection = "relative volume";
+			return null;
+		}
+		time = System.nanoTime();
+		morphologicalCorrection(workspace);
+		workspace.m_tTime[TIME_MORPHOLOGY] = System.nanoTime()-time;
+		time = System.nanoTime();
+		LargestComponent largestComponent = workspace.m_largestComponent;
+		largestComponent.apply(binaryMask);
+		workspace.m_tTime[TIME_LABELLING] = System.nanoTime()-time;
+		if (largestComponent.getNbVoxelLargestObject() == 0)
+			workspace.m_rejection = "no object";
+		else if (largestComponent.isFirstSliceTouched())
+			workspace.m_rejection = "first slice";
+		else if (largestComponent.isLastSliceTouched())
+			workspace.m_rejection = "last slice";
+		else{
+			workspace.m_rejection = "";
+			return binaryMask;
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @param imagePlusInput image segmented
+	 * @return the workspace of the current thread, allocated at the first call or if the size of the
+	 * image changes
+	 */
+	private SegmentationWorkspace getWorkspace(ImagePlus imagePlusInput){
+		SegmentationWorkspace workspace = m_workspace.get();
+		if (workspace == null || workspace.hasSize(imagePlusInput) == false){
+			workspace = new SegmentationWorkspace(imagePlusInput.getWidth(), imagePlusInput.getHeight(), imagePlusInput.getStackSize());
+			m_workspace.set(workspace);
+		}
+		return workspace;
+	}
+
+	/**
+	 * Search the threshold with the component tree of the image: the largest component of each
+	 * threshold and its sphericity are read on the tree, without morphological correction. The
+	 * NB_COMPONENT_TREE_CANDIDATES thresholds with the best sphericity on the tree are then segmented
+	 * with evaluateThreshold, and reduced with selectBestCandidate like the other searches.
+	 * 
+	 * @param imagePlusInput raw image (8 or 16 bits)
+	 * @param arrayListThreshold min and max threshold values
+	 * @param imageVolume volume of the image
+	 * @return the segmented object, null if any threshold is validated
+	 */
+	private SegmentationCandidate applyComponentTreeSegmentation(ImagePlus imagePlusInput, ArrayList<Integer> arrayListThreshold, double imageVolume){
+		Calibration calibration = imagePlusInput.getCalibration();
+		final double xCalibration = calibration.pixelWidth;
+		final double yCalibration = calibration.pixelHeight;
+		final double zCalibration = calibration.pixelDepth;
+		final double voxelVolume = xCalibration*yCalibration*zCalibration;
+		int thresholdMin = Math.max(arrayListThreshold.get(0), 0);
+		int thresholdMax = arrayListThreshold.get(1);
+		if (thresholdMax < thresholdMin)
+			return null;
+		ComponentTree componentTree = new ComponentTree();
+		componentTree.run(imagePlusInput, thresholdMin, thresholdMax);
+		Measure3D measure3D = new Measure3D();
+		double [] tSphericity = new double[thresholdMax-thresholdMin+1];
+		for (int t = thresholdMin; t <= thresholdMax; ++t){
+			tSphericity[t-thresholdMin] = -1;
+			double volume = componentTree.getNbVoxelLargestComponent(t)*voxelVolume;
+			int [] tBoundingBox = componentTree.getBoundingBoxLargestComponent(t);
+			if (volume > 0 && volume >= m_volumeMin && volume <= m_volumeMax
+					&& testRelativeObjectVolume(componentTree.getNbVoxelForeground(t)*voxelVolume, imageVolume)
+					&& tBoundingBox[2] > 0 && tBoundingBox[5] < imagePlusInput.getStackSize()-1){
+				long [] tFaces = componentTree.getFacesLargestComponent(t);
+				double surfaceArea = tFaces[0]*xCalibration*zCalibration+tFaces[1]*yCalibration*zCalibration+tFaces[2]*xCalibration*yCalibration;
+				tSphericity[t-thresholdMin] = measure3D.computeSphericity(volume, surfaceArea);
+			}
+		}
+		SegmentationCandidate bestCandidate = null;
+		for (int n = 0; n < NB_COMPONENT_TREE_CANDIDATES; ++n){
+			int indexMax = -1;
+			for (int index = 0; index < tSphericity.length; ++index)
+				if (tSphericity[index] >= 0 && (indexMax < 0 || tSphericity[index] > tSphericity[indexMax]))
+					indexMax = index;
+			if (indexMax < 0)
+				break;
+			tSphericity[indexMax] = -1;
+			bestCandidate = selectBestCandidate(bestCandidate, evaluateThreshold(imagePlusInput, thresholdMin+indexMax, imageVolume));
+		}
+		if (bestCandidate != null)
+			IJ.log("Component tree: threshold "+bestCandidate.m_threshold+" chosen among the candidates");
+		return bestCandidate;
+	}
+
+	/**
+	 * Evaluate the thresholds in parallel, with a fork/join pool of m_nbThreadsSweep threads. The
+	 * candidates are reduced with selectBestCandidate, so the result is the same as the sequential
+	 * sweep.
+	 * 
+	 * @param imagePlusInput raw image
+	 * @param tThreshold threshold values
+	 * @param tSphericity sphericity of the segmented object for each threshold, -1 if rejected
+	 * @param imageVolume volume of the image
+	 * @return the best segmented object, null if any threshold is validated
+	 */
+	private SegmentationCandidate applyParallelSweep(ImagePlus imagePlusInput, int [] tThreshold, double [] tSphericity, double imageVolume){
+		if (tThreshold.length == 0)
+			return null;
+		ForkJoinPool forkJoinPool = new ForkJoinPool(m_nbThreadsSweep);
+		try{
+			return forkJoinPool.invoke(new SweepTask(imagePlusInput, tThreshold, tSphericity, 0, tThreshold.length-1, imageVolume));
+		}
+		finally{ forkJoinPool.shutdown(); }
+	}
+
+	/**
+	 * Return the best of two segmented objects: the objects must have a volume in the volume
+	 * range, then the one with the higher sphericity is chosen, and for the same sphericity the one
+	 * with the lower threshold.
+	 * 
+	 * @param candidate1
+	 * @param candidate2
+	 * @return the best segmented object, null if both are not valid
+	 */
+	private SegmentationCandidate selectBestCandidate(SegmentationCandidate candidate1, SegmentationCandidate candidate2){
+		if (isValidCandidate(candidate2) == false)
+			return isValidCandidate(candidate1) ? candidate1 : null;
+		if (isValidCandidate(candidate1) == false)
+			return candidate2;
+		if (candidate2.m_sphericity > candidate1.m_sphericity ||
+				(candidate2.m_sphericity == candidate1.m_sphericity && candidate2.m_threshold < candidate1.m_threshold))
+			return candidate2;
+		return candidate1;
+	}
+
+	/**
+	 * 
+	 * @param candidate
+	 * @return true if the segmented object exists, has a volume in the volume range and a sphericity
+	 */
+	private boolean isValidCandidate(SegmentationCandidate candidate){
+		return candidate != null && candidate.m_sphericity > -1.0 
+				&& candidate.m_volume >= m_volumeMin && candidate.m_volume <= m_volumeMax;
+	}
+
+	/**
+	 * Compute the beginig threshold value
+	 * 
+	 * @param imagePlusInput raw image
+	 * @return
+	 */
+	private int computeThreshold(ImagePlus imagePlusInput){
+		AutoThresholder autoThresholder = new AutoThresholder();
+		ImageStatistics imageStatistics = new StackStatistics(imagePlusInput);
+		int [] tHisto = imageStatistics.histogram;
+		return autoThresholder.getThreshold(Method.Otsu,tHisto);
 	}
 
 	/**
@@ -192,67 +452,187 @@ public class NucleusSegmentation{
 	}
 	
 	/**
-	 * Determines there 
+	 * Pre-pass on the image reduced by m_downsamplingFactor in x and y: the thresholds of the interval
+	 * are searched on the reduced image with the search strategy, and the interval is narrowed to
+	 * the window around the best threshold. The slices are not reduced, so the objects touching the
+	 * first or the last slice are rejected like on the image.
 	 * 
-	 * @param imagePlusSegmented
-	 * @param threshold
-	 * @param stackIndice
-	 * @return
+	 * @param imagePlusInput raw image
+	 * @param arrayListThreshold min and max threshold values
+	 * @param imageVolume volume of the image
+	 * @return array list which contain at the index 0 the min value and index 1 the max value, not
+	 * changed if no threshold is validated on the reduced image
 	 */
-	private boolean isVoxelThresholded(ImagePlus imagePlusSegmented, int threshold, int stackIndice){
-		boolean voxelThresolded = false;
-		int nbVoxelThresholded = 0;
-		ImageStack imageStackSegmented = imagePlusSegmented.getStack();
-		for (int i = 0; i < imagePlusSegmented.getWidth(); ++i){	
-			for (int j = 0; j < imagePlusSegmented.getHeight(); ++j){
-				//IJ.log("i "+i+" j"+j+" stackIndice "+stackIndice);
-				if(imageStackSegmented.getVoxel(i,j,stackIndice) >= threshold)
-					nbVoxelThresholded++;
-			}
+	private ArrayList<Integer> narrowThresholdInterval(ImagePlus imagePlusInput, ArrayList<Integer> arrayListThreshold, double imageVolume){
+		int thresholdMin = arrayListThreshold.get(0);
+		int thresholdMax = arrayListThreshold.get(1);
+		ImagePlus imagePlusDownsampled = new StackDownsampling().downsampleXY(imagePlusInput, m_downsamplingFactor);
+		SweepEvaluator sweepEvaluator = new SweepEvaluator(imagePlusDownsampled, imageVolume);
+		m_thresholdSearchStrategy.search(thresholdMin, thresholdMax, sweepEvaluator);
+		SegmentationCandidate candidate = sweepEvaluator.getBestCandidate();
+		if (candidate == null){
+			IJ.log("Pre-pass: no threshold validated on the reduced image");
+			return arrayListThreshold;
 		}
-		if (nbVoxelThresholded > 0)
-			voxelThresolded = true;
-		return voxelThresolded;
+		int window = m_downsamplingWindow;
+		if (window == 0)
+			window = (int)Math.sqrt(thresholdMax-thresholdMin+1);
+		IJ.log("Pre-pass: threshold "+candidate.m_threshold+" on the reduced image");
+		ArrayList<Integer> arrayListNarrowedThreshold = new ArrayList<Integer>();
+		arrayListNarrowedThreshold.add(Math.max(candidate.m_threshold-window, thresholdMin));
+		arrayListNarrowedThreshold.add(Math.min(candidate.m_threshold+window, thresholdMax));
+		return arrayListNarrowedThreshold;
+	}
+
+	/**
+	 * Compute the number of voxels higher or equal to each value, with the histograms of the
+	 * slices of the stack (8 or 16 bits image). The table has one more cell than the histogram,
+	 * which is always 0.
+	 * 
+	 * @param imagePlusInput raw image
+	 * @return table of the number of voxels higher or equal to the index value
+	 */
+	private long[] computeCumulativeHistogram(ImagePlus imagePlusInput){
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		long [] tCumulativeHistogram = null;
+		for (int k = 1; k <= imageStackInput.getSize(); ++k){
+			int [] tHistogram = imageStackInput.getProcessor(k).getHistogram();
+			if (tCumulativeHistogram == null)
+				tCumulativeHistogram = new long[tHistogram.length+1];
+			for (int i = 0; i < tHistogram.length; ++i)
+				tCumulativeHistogram[i] += tHistogram[i];
+		}
+		for (int i = tCumulativeHistogram.length-2; i >= 0; --i)
+			tCumulativeHistogram[i] += tCumulativeHistogram[i+1];
+		return tCumulativeHistogram;
+	}
+
+	/**
+	 * Reduce the interval of threshold values with the raw object volume (voxels higher or equal to
+	 * the threshold, before the morphological correction), read for every threshold at once on the
+	 * cumulative histogram. This volume decreases with the threshold, so the rejected values are at
+	 * the ends of the interval:
+	 *  - the lower thresholds giving an object of 70% of the image or more (the same test as
+	 *    testRelativeObjectVolume on the raw volume)
+	 *  - the upper thresholds giving an empty object, or an object far smaller than the minimum volume
+	 * The maximum volume is not used for the lower thresholds: it is tested on the largest object after
+	 * the deletion of the artefacts, which can be much smaller than the raw volume when the image has
+	 * debris or other nuclei. The raw volume is an upper bound of the largest object, up to the growth
+	 * of the closing and of the filling of the holes, so the minimum volume is widened by
+	 * VOLUME_PRUNING_TOLERANCE.
+	 * 
+	 * @param imagePlusInput raw image
+	 * @param arrayListThreshold min and max threshold values
+	 * @param imageVolume volume of the image
+	 * @return array list which contain at the index 0 the min value and index 1 the max value
+	 */
+	private ArrayList<Integer> pruneThresholdInterval(ImagePlus imagePlusInput, ArrayList<Integer> arrayListThreshold, double imageVolume){
+		Calibration calibration = imagePlusInput.getCalibration();
+		final double voxelVolume = calibration.pixelWidth*calibration.pixelHeight*calibration.pixelDepth;
+		long [] tCumulativeHistogram = computeCumulativeHistogram(imagePlusInput);
+		int min = arrayListThreshold.get(0);
+		int max = arrayListThreshold.get(1);
+		while (min <= max){
+			double volume = getNbVoxelThresholded(tCumulativeHistogram, min)*voxelVolume;
+			if (testRelativeObjectVolume(volume, imageVolume))
+				break;
+			++min;
+		}
+		while (max >= min){
+			long nbVoxel = getNbVoxelThresholded(tCumulativeHistogram, max);
+			if (nbVoxel > 0 && nbVoxel*voxelVolume >= m_volumeMin/VOLUME_PRUNING_TOLERANCE)
+				break;
+			--max;
+		}
+		ArrayList<Integer> arrayListPrunedThreshold = new ArrayList<Integer>();
+		arrayListPrunedThreshold.add(min);
+		arrayListPrunedThreshold.add(max);
+		return arrayListPrunedThreshold;
+	}
+
+	/**
+	 * Return the number of voxels higher or equal to the threshold
+	 * 
+	 * @param tCumulativeHistogram cumulative histogram of the image
+	 * @param threshold threshold value
+	 * @return number of voxels
+	 */
+	private long getNbVoxelThresholded(long [] tCumulativeHistogram, int threshold){
+		if (threshold >= tCumulativeHistogram.length)
+			return 0;
+		return tCumulativeHistogram[Math.max(threshold, 0)];
 	}
-	
 	
 	/**
 	 * 	 method to realise sevral morphological correction ( filling holes and top hat)
+	 * on the mask of the workspace
 	 * 
-	 * @param imagePlusSegmented image to be correct
+	 * @param workspace buffers of the current thread
 	 */
-	private void morphologicalCorrection(ImagePlus imagePlusSegmented){
-		FillingHoles holesFilling = new FillingHoles();
-		computeOpening(imagePlusSegmented);
-		computeClosing(imagePlusSegmented);
-		imagePlusSegmented = holesFilling.apply2D(imagePlusSegmented);
+	private void morphologicalCorrection(SegmentationWorkspace workspace){
+		computeOpening(workspace);
+		computeClosing(workspace);
+		workspace.m_fillingHoles.apply2D(workspace.m_binaryMask);
 	}
 
+	/**
+	 * compute closing with the segmented mask, same result as Filters3D MAX then MIN (1, 1, 0.5)
+	 * 
+	 * @param workspace buffers of the current thread
+	 */
+	private void computeClosing(SegmentationWorkspace workspace){
+		new BinaryMorphology().close(workspace.m_binaryMask, workspace.m_binaryMaskBuffer);
+	}
 
 	/**
-	 * compute closing with the segmented image
+	 * compute opening with the segmented mask, same result as Filters3D MIN then MAX (1, 1, 0.5)
 	 * 
-	 * @param imagePlusInput image segmented
+	 * @param workspace buffers of the current thread
 	 */
-	private void computeClosing(ImagePlus imagePlusInput){
-		ImageStack imageStackInput = imagePlusInput.getImageStack();
-		imageStackInput = Filters3D.filter(imageStackInput, Filters3D.MAX,1,1,(float)0.5);
-		imageStackInput = Filters3D.filter(imageStackInput, Filters3D.MIN,1,1,(float)0.5);
-		imagePlusInput.setStack(imageStackInput);
+	private void computeOpening(SegmentationWorkspace workspace){
+		new BinaryMorphology().open(workspace.m_binaryMask, workspace.m_binaryMaskBuffer);
 	}
 
+
+
 	/**
-	 * compute opening with the segmented image 
+	 * Add the lines of the trace at the end of the trace file, with a header if the file is new
+	 */
+	private void writeTrace(){
+		synchronized (TRACE_LOCK){
+			File fileTrace = new File(m_traceFile);
+			boolean isNewFile = fileTrace.exists() == false || fileTrace.length() == 0;
+			BufferedWriter bufferedWriterTrace = null;
+			try{
+				bufferedWriterTrace = new BufferedWriter(new FileWriter(fileTrace, true));
+				if (isNewFile)
+					bufferedWriterTrace.write("Image,Width,Height,Depth,Threshold,Volume,Surface,Sphericity,Rejection"
+							+",ThresholdTime,MorphologyTime,LabellingTime,MeasureTime\n");
+				for (String line : m_listTrace)
+					bufferedWriterTrace.write(line+"\n");
+				bufferedWriterTrace.flush();
+			}
+			catch(IOException e) { e.printStackTrace(); }
+			finally{
+				if (bufferedWriterTrace != null)
+					try{ bufferedWriterTrace.close(); }
+					catch(IOException e) { e.printStackTrace(); }
+			}
+		}
+	}
+
+	/**
+	 * Field of a line of the CSV trace: the text is quoted if it contains a comma, a quote or a line
+	 * break, and its quotes are doubled
 	 * 
-	 * @param imagePlusInput image segmented
+	 * @param text
+	 * @return field of the CSV line
 	 */
-	private void computeOpening(ImagePlus imagePlusInput){
-		ImageStack imageStackInput = imagePlusInput.getImageStack();
-		imageStackInput = Filters3D.filter(imageStackInput, Filters3D.MIN,1,1,(float)0.5);
-		imageStackInput = Filters3D.filter(imageStackInput, Filters3D.MAX,1,1,(float)0.5);
-		imagePlusInput.setStack(imageStackInput);
+	private String toCsvField(String text){
+		if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+			return text;
+		return "\""+text.replace("\"", "\"\"")+"\"";
 	}
-  
 
 	/**
 	 * getter to retun the chosen threshold value
@@ -286,7 +666,105 @@ public class NucleusSegmentation{
 		m_volumeMin = volumeMin;
 		m_volumeMax = volumeMax;
 	}
+
+	/**
+	 * Strategy of search of the threshold in the threshold interval, ExhaustiveThresholdSearch by
+	 * default
+	 * 
+	 * @param thresholdSearchStrategy
+	 */
+	public void setThresholdSearchStrategy(ThresholdSearchStrategy thresholdSearchStrategy){
+		m_thresholdSearchStrategy = thresholdSearchStrategy;
+	}
+
+	/**
+	 * Activate the segmentation in the bounding box of the voxels higher or equal to the lower
+	 * threshold, enlarged by CROP_PADDING voxels: the voxels out of the box are not thresholded by
+	 * any threshold of the interval, so the segmented object is the same as in the whole image, and
+	 * is pasted back in an image of the size of the input image. The volume of the image used to
+	 * reject the thresholds stays the volume of the whole image.
+	 * 
+	 * @param boundingBoxCropping
+	 */
+	public void setBoundingBoxCropping(boolean boundingBoxCropping){
+		m_boundingBoxCropping = boundingBoxCropping;
+	}
 	 
+	/**
+	 * Activate the pruning of the threshold interval with the cumulative histogram of the
+	 * stack (8 or 16 bits image), before any segmented image is computed
+	 * 
+	 * @param histogramPruning
+	 */
+	public void setHistogramPruning(boolean histogramPruning){
+		m_histogramPruning = histogramPruning;
+	}
+	
+	/**
+	 * Activate a pre-pass on the image reduced in x and y: the search strategy is run on the reduced
+	 * image, then only the thresholds around the best threshold of the reduced image are searched on
+	 * the image. The morphological correction has a larger radius on the reduced image, so the best
+	 * threshold can be out of the window: the window must be larger for higher factors.
+	 * 
+	 * @param downsamplingFactor factor of reduction in x and y (2 or 4), 1 without pre-pass
+	 * @param downsamplingWindow half width of the threshold interval kept, 0 for the square root of the
+	 * interval
+	 */
+	public void setDownsampledPrePass(int downsamplingFactor, int downsamplingWindow){
+		m_downsamplingFactor = Math.max(downsamplingFactor, 1);
+		m_downsamplingWindow = Math.max(downsamplingWindow, 0);
+	}
+
+	/**
+	 * Activate the search of the threshold with the component tree of the image (8 or 16 bits):
+	 * all the thresholds are measured in one pass on the image, and only the NB_COMPONENT_TREE_CANDIDATES
+	 * thresholds with the best sphericity on the tree are segmented, the best of them being chosen
+	 * like in the exhaustive search. The sphericity of the tree is measured without the morphological
+	 * correction, so the best threshold of the exhaustive search may not be one of the candidates:
+	 * this engine can choose a different threshold than the exhaustive search.
+	 * 
+	 * @param componentTreeEngine
+	 */
+	public void setComponentTreeEngine(boolean componentTreeEngine){
+		m_componentTreeEngine = componentTreeEngine;
+	}
+	
+	/**
+	 * Number of threads used to evaluate in parallel the thresholds of one image (fork/join pool),
+	 * 1 for the sequential sweep. To use when one large image is processed, rather than a batch
+	 * of images processed in parallel.
+	 * 
+	 * @param nbThreadsSweep
+	 */
+	public void setParallelSweep(int nbThreadsSweep){
+		m_nbThreadsSweep = Math.max(nbThreadsSweep, 1);
+	}
+	
+	/**
+	 * Cache of the segmentations on disk: run reads the result in the cache if the image was already
+	 * segmented with the same calibration and parameters, and saves the new results in the cache.
+	 * 
+	 * @param segmentationCache cache, null to always segment the image
+	 */
+	public void setSegmentationCache(SegmentationCache segmentationCache){
+		m_segmentationCache = segmentationCache;
+	}
+
+	/**
+	 * Trace of the thresholds evaluated: for each threshold a line with the image (title and size, to
+	 * distinguish the pre-pass and the crop), the threshold, the volume, the surface and the
+	 * sphericity of the object, the reason of the rejection (empty if the threshold is valid), and the
+	 * time in nanoseconds of the threshold, the morphological correction, the labelling and the
+	 * measure. The lines of each image are added at the end of the file in CSV format (fields
+	 * separated by commas, with a header line when the file is created, the image titles and the
+	 * rejections are quoted if they contain a comma or a quote).
+	 * 
+	 * @param traceFile path of the trace file, empty without trace
+	 */
+	public void setTraceFile(String traceFile){
+		m_traceFile = traceFile;
+	}
+
 	/**
 	 * 
 	 * @param logErrorSeg
@@ -304,16 +782,16 @@ public class NucleusSegmentation{
 	public void deleteArtefact(ImagePlus imagePlusInput){
 	    double voxelValue;
 	    double mode = getLabelOfLargestObject(imagePlusInput);
-	    ImageStack imageStackInput = imagePlusInput.getStack();
+	    StackAccessor stackAccessorInput = new StackAccessor(imagePlusInput);
+	    int sliceSize = imagePlusInput.getWidth()*imagePlusInput.getHeight();
 	    for(int k = 0; k < imagePlusInput.getNSlices(); ++k)
-	    	for (int i = 0; i < imagePlusInput.getWidth(); ++i)
-	    		for (int j = 0; j < imagePlusInput.getHeight(); ++j){
-	    			voxelValue = imageStackInput.getVoxel(i,j,k);
-	    			if (voxelValue == mode)
-	    				imageStackInput.setVoxel(i,j,k,255);
-	    			else
-	    				imageStackInput.setVoxel(i,j,k,0);
-	    		}
+	    	for (int index = 0; index < sliceSize; ++index){
+	    		voxelValue = stackAccessorInput.getVoxel(index, k);
+	    		if (voxelValue == mode)
+	    			stackAccessorInput.setVoxel(index, k, 255);
+	    		else
+	    			stackAccessorInput.setVoxel(index, k, 0);
+	    	}
 	}
 
 	/**
@@ -327,14 +805,150 @@ public class NucleusSegmentation{
 		histogram.run(imagePlusInput);
 	    double indiceNbVoxelMax = 0;
 	    double nbVoxelMax = -1;
-	    for(Entry<Double, Integer> entry : histogram.getHistogram().entrySet()){
-	    	double label = entry.getKey();
-	        int nbVoxel = entry.getValue();
-	        if (nbVoxel > nbVoxelMax){
-	        	nbVoxelMax = nbVoxel;
-	        	indiceNbVoxelMax = label;
+	    double [] tLabel = histogram.getLabels();
+	    int [] tNbVoxel = histogram.getNbVoxels();
+	    for(int i = 0; i < tLabel.length; ++i){
+	        if (tNbVoxel[i] > nbVoxelMax){
+	        	nbVoxelMax = tNbVoxel[i];
+	        	indiceNbVoxelMax = tLabel[i];
 	        }
 	    }
 	    return indiceNbVoxelMax;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Shape parameters of the object segmented with one threshold value
+	 */
+	private static class SegmentationCandidate{
+		private int m_threshold;
+		private double m_volume;
+		private double m_sphericity;
+
+		private SegmentationCandidate(int threshold, double volume, double sphericity){
+			m_threshold = threshold;
+			m_volume = volume;
+			m_sphericity = sphericity;
+		}
+	}
+
+	/**
+	 * Buffers of the segmentation of one threshold, one workspace for each thread of the sweep: the
+	 * mask of the segmented object, the intermediate mask of the opening and the closing, the
+	 * buffers of the hole filling and of the extraction of the largest object. The thresholds of a
+	 * sweep are segmented without new mask or label image.
+	 */
+	private static class SegmentationWorkspace{
+		private BinaryMask m_binaryMask;
+		private BinaryMask m_binaryMaskBuffer;
+		private FillingHoles m_fillingHoles = new FillingHoles();
+		private LargestComponent m_largestComponent = new LargestComponent();
+		/** time in nanoseconds of the steps of the last threshold, and reason of its rejection*/
+		private long [] m_tTime = new long[4];
+		private String m_rejection = "";
+
+		private SegmentationWorkspace(int width, int height, int depth){
+			m_binaryMask = new BinaryMask(width, height, depth);
+			m_binaryMaskBuffer = new BinaryMask(width, height, depth);
+		}
+
+		private boolean hasSize(ImagePlus imagePlusInput){
+			return m_binaryMask.getWidth() == imagePlusInput.getWidth() && m_binaryMask.getHeight() == imagePlusInput.getHeight()
+					&& m_binaryMask.getDepth() == imagePlusInput.getStackSize();
+		}
+	}
+
+	/**
+	 * Fork/join task evaluating a part of a table of thresholds: the part is split in two halves
+	 * until one threshold remains, and the results are reduced with selectBestCandidate
+	 */
+	private class SweepTask extends RecursiveTask<SegmentationCandidate>{
+		private static final long serialVersionUID = 1L;
+		private ImagePlus m_imagePlusInput;
+		private int [] m_tThreshold;
+		private double [] m_tSphericity;
+		private int m_indexMin;
+		private int m_indexMax;
+		private double m_imageVolume;
+
+		private SweepTask(ImagePlus imagePlusInput, int [] tThreshold, double [] tSphericity, int indexMin, int indexMax, double imageVolume){
+			m_imagePlusInput = imagePlusInput;
+			m_tThreshold = tThreshold;
+			m_tSphericity = tSphericity;
+			m_indexMin = indexMin;
+			m_indexMax = indexMax;
+			m_imageVolume = imageVolume;
+		}
+
+		protected SegmentationCandidate compute(){
+			if (m_indexMin == m_indexMax){
+				SegmentationCandidate candidate = selectBestCandidate(null, evaluateThreshold(m_imagePlusInput, m_tThreshold[m_indexMin], m_imageVolume));
+				m_tSphericity[m_indexMin] = candidate == null ? -1 : candidate.m_sphericity;
+				return candidate;
+			}
+			int indexMiddle = (m_indexMin+m_indexMax)/2;
+			SweepTask sweepTaskLower = new SweepTask(m_imagePlusInput, m_tThreshold, m_tSphericity, m_indexMin, indexMiddle, m_imageVolume);
+			SweepTask sweepTaskUpper = new SweepTask(m_imagePlusInput, m_tThreshold, m_tSphericity, indexMiddle+1, m_indexMax, m_imageVolume);
+			sweepTaskLower.fork();
+			SegmentationCandidate candidateUpper = sweepTaskUpper.compute();
+			return selectBestCandidate(sweepTaskLower.join(), candidateUpper);
+		}
+	}
+
+	/**
+	 * Evaluator given to the search strategy: the thresholds are segmented with evaluateThreshold,
+	 * sequentially or with the parallel sweep, the sphericity of each threshold is kept to not
+	 * segment it twice, and the best segmented object is kept.
+	 */
+	private class SweepEvaluator implements ThresholdEvaluator{
+		private ImagePlus m_imagePlusInput;
+		private double m_imageVolume;
+		private HashMap<Integer, Double> m_sphericityEvaluated = new HashMap<Integer, Double>();
+		private SegmentationCandidate m_bestCandidate = null;
+
+		private SweepEvaluator(ImagePlus imagePlusInput, double imageVolume){
+			m_imagePlusInput = imagePlusInput;
+			m_imageVolume = imageVolume;
+		}
+
+		public double [] evaluate(int [] tThreshold){
+			ArrayList<Integer> arrayListNewThreshold = new ArrayList<Integer>();
+			for (int i = 0; i < tThreshold.length; ++i)
+				if (m_sphericityEvaluated.containsKey(tThreshold[i]) == false && arrayListNewThreshold.contains(tThreshold[i]) == false)
+					arrayListNewThreshold.add(tThreshold[i]);
+			int [] tNewThreshold = new int[arrayListNewThreshold.size()];
+			double [] tNewSphericity = new double[tNewThreshold.length];
+			for (int i = 0; i < tNewThreshold.length; ++i)
+				tNewThreshold[i] = arrayListNewThreshold.get(i);
+			if (m_nbThreadsSweep > 1)
+				m_bestCandidate = selectBestCandidate(m_bestCandidate, applyParallelSweep(m_imagePlusInput, tNewThreshold, tNewSphericity, m_imageVolume));
+			else
+				for (int i = 0; i < tNewThreshold.length; ++i){
+					SegmentationCandidate candidate = selectBestCandidate(null, evaluateThreshold(m_imagePlusInput, tNewThreshold[i], m_imageVolume));
+					tNewSphericity[i] = candidate == null ? -1 : candidate.m_sphericity;
+					m_bestCandidate = selectBestCandidate(m_bestCandidate, candidate);
+				}
+			for (int i = 0; i < tNewThreshold.length; ++i)
+				m_sphericityEvaluated.put(tNewThreshold[i], tNewSphericity[i]);
+			double [] tSphericity = new double[tThreshold.length];
+			for (int i = 0; i < tThreshold.length; ++i)
+				tSphericity[i] = m_sphericityEvaluated.get(tThreshold[i]);
+			return tSphericity;
+		}
+
+		public ImagePlus getImagePlusInput(){
+			return m_imagePlusInput;
+		}
+
+		public double getImageVolume(){
+			return m_imageVolume;
+		}
+
+		private int getNbThresholdEvaluated(){
+			return m_sphericityEvaluated.size();
+		}
+
+		private SegmentationCandidate getBestCandidate(){
+			return m_bestCandidate;
+		}
+	}
+}
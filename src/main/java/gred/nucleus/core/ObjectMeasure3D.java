@@ -0,0 +1,297 @@
+package gred.nucleus.core;
+
+import gred.nucleus.utils.IntensityStatistics;
+import gred.nucleus.utils.SlabExecutor;
+import gred.nucleus.utils.StackAccessor;
+import gred.nucleus.utils.VoxelRecord;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+import java.util.ArrayList;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Measures of one object of a segmented image computed in one scan of the image: number of voxels,
+ * faces in contact with the background, sums of the coordinates and of their products (in long, so
+ * they are exact), and intensity of the raw image in the object. The parameters of Measure3D
+ * (volume, surface, barycenter, eigen values, flatness, elongation, intensity parameters) are then
+ * computed from these sums without new scan, with the same definitions as Measure3D.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class ObjectMeasure3D{
+	private Calibration m_calibration;
+	private long m_nbVoxel = 0;
+	private long m_xFaces = 0, m_yFaces = 0, m_zFaces = 0;
+	/** sums of the coordinates i, j, k of the voxels, and of their products*/
+	private long m_sumI = 0, m_sumJ = 0, m_sumK = 0;
+	private long m_sumII = 0, m_sumJJ = 0, m_sumKK = 0, m_sumIJ = 0, m_sumIK = 0, m_sumJK = 0;
+	/** intensity of the raw image in the object, null without raw image*/
+	private IntensityStatistics m_intensityStatistics = null;
+
+	/**
+	 * Measures of the shape of the object
+	 *
+	 * @param imagePlusSegmented segmented image
+	 * @param label label of the object
+	 */
+	public ObjectMeasure3D(ImagePlus imagePlusSegmented, double label){
+		this(imagePlusSegmented, label, null);
+	}
+
+	/**
+	 * Measures of the shape of the object and of its intensity in the raw image
+	 *
+	 * @param imagePlusSegmented segmented image
+	 * @param label label of the object
+	 * @param imagePlusRaw raw image of the size of the segmented image, null to not measure the intensity
+	 */
+	public ObjectMeasure3D(ImagePlus imagePlusSegmented, double label, ImagePlus imagePlusRaw){
+		this(imagePlusSegmented, label, imagePlusRaw, 1);
+	}
+
+	/**
+	 * Measures of the shape of the object and of its intensity in the raw image, the image being
+	 * scanned in parallel by slabs of slices (SlabExecutor). The sums of the slabs are exact, so the
+	 * measures are the same as the sequential scan, except the last bits of the mean and standard
+	 * deviation of the intensity (merge of the IntensityStatistics).
+	 *
+	 * @param imagePlusSegmented segmented image
+	 * @param label label of the object
+	 * @param imagePlusRaw raw image of the size of the segmented image, null to not measure the intensity
+	 * @param nbThreads number of threads, 1 for the sequential scan
+	 */
+	public ObjectMeasure3D(final ImagePlus imagePlusSegmented, final double label, final ImagePlus imagePlusRaw, int nbThreads){
+		this(imagePlusSegmented.getCalibration(), imagePlusRaw != null);
+		final StackAccessor stackAccessor = new StackAccessor(imagePlusSegmented);
+		final StackAccessor stackAccessorRaw = imagePlusRaw == null ? null : new StackAccessor(imagePlusRaw);
+		if (nbThreads <= 1){
+			scan(stackAccessor, stackAccessorRaw, label, 0, stackAccessor.getDepth());
+			return;
+		}
+		ArrayList<ObjectMeasure3D> arrayListSlab = new SlabExecutor(nbThreads).run(stackAccessor.getDepth(),
+			new SlabExecutor.SlabTask<ObjectMeasure3D>(){
+				public ObjectMeasure3D compute(int kMin, int kMax){
+					ObjectMeasure3D objectMeasure3DSlab = new ObjectMeasure3D(imagePlusSegmented.getCalibration(), imagePlusRaw != null);
+					objectMeasure3DSlab.scan(stackAccessor, stackAccessorRaw, label, kMin, kMax);
+					return objectMeasure3DSlab;
+				}
+			});
+		for (int n = 0; n < arrayListSlab.size(); ++n)
+			add(arrayListSlab.get(n));
+	}
+
+	/**
+	 * Empty measures
+	 *
+	 * @param calibration calibration of the image
+	 * @param isIntensity true if the intensity is measured
+	 */
+	private ObjectMeasure3D(Calibration calibration, boolean isIntensity){
+		m_calibration = calibration;
+		if (isIntensity)
+			m_intensityStatistics = new IntensityStatistics();
+	}
+
+	/**
+	 * Add the voxels of the object in the slices kMin to kMax-1 to the measures
+	 *
+	 * @param stackAccessor segmented image
+	 * @param stackAccessorRaw raw image, null to not measure the intensity
+	 * @param label label of the object
+	 * @param kMin first slice
+	 * @param kMax slice after the last slice
+	 */
+	private void scan(StackAccessor stackAccessor, StackAccessor stackAccessorRaw, double label, int kMin, int kMax){
+		int width = stackAccessor.getWidth();
+		int height = stackAccessor.getHeight();
+		int depth = stackAccessor.getDepth();
+		for (int k = kMin; k < kMax; ++k)
+			for (int j = 0; j < height; ++j){
+				boolean isInteriorLine = k > 0 && k < depth-1 && j > 0 && j < height-1;
+				int index = j*width;
+				for (int i = 0; i < width; ++i, ++index){
+					if (stackAccessor.getVoxel(index, k) != label)
+						continue;
+					++m_nbVoxel;
+					m_sumI += i;
+					m_sumJ += j;
+					m_sumK += k;
+					m_sumII += (long)i*i;
+					m_sumJJ += (long)j*j;
+					m_sumKK += (long)k*k;
+					m_sumIJ += (long)i*j;
+					m_sumIK += (long)i*k;
+					m_sumJK += (long)j*k;
+					if (isInteriorLine && i > 0 && i < width-1){
+						if (stackAccessor.getVoxel(index, k-1) != label) ++m_zFaces;
+						if (stackAccessor.getVoxel(index, k+1) != label) ++m_zFaces;
+						if (stackAccessor.getVoxel(index-1, k) != label) ++m_xFaces;
+						if (stackAccessor.getVoxel(index+1, k) != label) ++m_xFaces;
+						if (stackAccessor.getVoxel(index-width, k) != label) ++m_yFaces;
+						if (stackAccessor.getVoxel(index+width, k) != label) ++m_yFaces;
+					}
+					if (stackAccessorRaw != null)
+						m_intensityStatistics.add(stackAccessorRaw.getVoxel(index, k));
+				}
+			}
+	}
+
+	/**
+	 * Add the measures of an other part of the image
+	 *
+	 * @param objectMeasure3D measures of the slab
+	 */
+	private void add(ObjectMeasure3D objectMeasure3D){
+		m_nbVoxel += objectMeasure3D.m_nbVoxel;
+		m_xFaces += objectMeasure3D.m_xFaces;
+		m_yFaces += objectMeasure3D.m_yFaces;
+		m_zFaces += objectMeasure3D.m_zFaces;
+		m_sumI += objectMeasure3D.m_sumI;
+		m_sumJ += objectMeasure3D.m_sumJ;
+		m_sumK += objectMeasure3D.m_sumK;
+		m_sumII += objectMeasure3D.m_sumII;
+		m_sumJJ += objectMeasure3D.m_sumJJ;
+		m_sumKK += objectMeasure3D.m_sumKK;
+		m_sumIJ += objectMeasure3D.m_sumIJ;
+		m_sumIK += objectMeasure3D.m_sumIK;
+		m_sumJK += objectMeasure3D.m_sumJK;
+		if (m_intensityStatistics != null)
+			m_intensityStatistics.merge(objectMeasure3D.m_intensityStatistics);
+	}
+
+	public long getNbVoxel(){
+		return m_nbVoxel;
+	}
+
+	/**
+	 *
+	 * @return volume of the object, as Measure3D.computeVolumeObject
+	 */
+	public double getVolume(){
+		return m_nbVoxel*m_calibration.pixelWidth*m_calibration.pixelHeight*m_calibration.pixelDepth;
+	}
+
+	/**
+	 *
+	 * @return surface of the object, as Measure3D.computeSurfaceObject
+	 */
+	public double getSurface(){
+		return m_zFaces*m_calibration.pixelWidth*m_calibration.pixelHeight+m_xFaces*m_calibration.pixelWidth*m_calibration.pixelDepth
+				+m_yFaces*m_calibration.pixelHeight*m_calibration.pixelDepth;
+	}
+
+	/**
+	 *
+	 * @return sphericity of the object, as Measure3D.computeSphericity
+	 */
+	public double getSphericity(){
+		return new Measure3D().computeSphericity(getVolume(), getSurface());
+	}
+
+	/**
+	 *
+	 * @return equivalent spherical radius of the object
+	 */
+	public double getEquivalentSphericalRadius(){
+		return new Measure3D().equivalentSphericalRadius(getVolume());
+	}
+
+	/**
+	 * Barycenter as Measure3D.computeBarycenter3D: the coordinates are the integer part of the mean
+	 * of the coordinates of the voxels
+	 *
+	 * @param unit if true the coordinates of barycenter are in µm.
+	 * @return the barycenter
+	 */
+	public VoxelRecord getBarycenter(boolean unit){
+		VoxelRecord voxelRecordBarycenter = new VoxelRecord();
+		voxelRecordBarycenter.setLocation(m_sumI/m_nbVoxel, m_sumJ/m_nbVoxel, m_sumK/m_nbVoxel);
+		if (unit)
+			voxelRecordBarycenter.Multiplie(m_calibration.pixelWidth, m_calibration.pixelHeight, m_calibration.pixelDepth);
+		return voxelRecordBarycenter;
+	}
+
+	/**
+	 * Eigen values of the matrix of the moments of the voxels around the barycenter of
+	 * getBarycenter, as Measure3D.computeEigenValue3D. The sums of the differences to the barycenter
+	 * are computed exactly from the sums of the coordinates.
+	 *
+	 * @return the eigen values in increasing order
+	 */
+	public double [] getEigenValues(){
+		return computeEigenValues(m_nbVoxel, m_sumI, m_sumJ, m_sumK, m_sumII, m_sumJJ, m_sumKK, m_sumIJ, m_sumIK, m_sumJK, m_calibration);
+	}
+
+	/**
+	 * Eigen values of the matrix of the moments of an object around its barycenter (integer part of
+	 * the mean of the coordinates), from the sums of the coordinates of its voxels and of their
+	 * products. Shared with LabelStatistics.
+	 *
+	 * @return the eigen values in increasing order
+	 */
+	static double [] computeEigenValues(long nbVoxel, long sumI, long sumJ, long sumK, long sumII, long sumJJ, long sumKK,
+			long sumIJ, long sumIK, long sumJK, Calibration calibration){
+		long bi = sumI/nbVoxel;
+		long bj = sumJ/nbVoxel;
+		long bk = sumK/nbVoxel;
+		double xCalibration = calibration.pixelWidth;
+		double yCalibration = calibration.pixelHeight;
+		double zCalibration = calibration.pixelDepth;
+		double xx = centeredMoment(nbVoxel, sumII, sumI, sumI, bi, bi)*xCalibration*xCalibration;
+		double yy = centeredMoment(nbVoxel, sumJJ, sumJ, sumJ, bj, bj)*yCalibration*yCalibration;
+		double zz = centeredMoment(nbVoxel, sumKK, sumK, sumK, bk, bk)*zCalibration*zCalibration;
+		double xy = centeredMoment(nbVoxel, sumIJ, sumI, sumJ, bi, bj)*xCalibration*yCalibration;
+		double xz = centeredMoment(nbVoxel, sumIK, sumI, sumK, bi, bk)*xCalibration*zCalibration;
+		double yz = centeredMoment(nbVoxel, sumJK, sumJ, sumK, bj, bk)*yCalibration*zCalibration;
+		double [][] tValues = {{xx / nbVoxel, xy / nbVoxel, xz / nbVoxel},
+				{xy / nbVoxel, yy / nbVoxel, yz / nbVoxel},
+				{xz / nbVoxel, yz / nbVoxel, zz / nbVoxel}};
+		Matrix matrix = new Matrix(tValues);
+		EigenvalueDecomposition eigenValueDecomposition = matrix.eig();
+		return eigenValueDecomposition.getRealEigenvalues();
+	}
+
+	/**
+	 *
+	 * @return flatness (index 0) and elongation (index 1), as Measure3D.computeFlatnessAndElongation
+	 */
+	public double [] getFlatnessAndElongation(){
+		double [] shapeParameters = new double[2];
+		double [] tEigenValues = getEigenValues();
+		shapeParameters[0] = Math.sqrt(tEigenValues[1] / tEigenValues[0]);
+		shapeParameters[1] = Math.sqrt(tEigenValues[2] / tEigenValues[1]);
+		return shapeParameters;
+	}
+
+	/**
+	 * intensity stat of the raw image in the object, as Measure3D.computeIntensityParameters
+	 * 0: min
+	 * 1: max
+	 * 2: avg
+	 * 3: std
+	 *
+	 * @return the list of the parameters, null if the raw image was not given
+	 */
+	public ArrayList<Double> getIntensityParameters(){
+		return m_intensityStatistics == null ? null : m_intensityStatistics.getParameters();
+	}
+
+	/**
+	 * Sum of (a-ca)*(b-cb) on the voxels, from the sums of a*b, a and b
+	 *
+	 * @param nbVoxel number of voxels
+	 * @param sumAB sum of the products
+	 * @param sumA sum of the first coordinate
+	 * @param sumB sum of the second coordinate
+	 * @param ca center of the first coordinate
+	 * @param cb center of the second coordinate
+	 * @return the centered moment, in voxels
+	 */
+	private static double centeredMoment(long nbVoxel, long sumAB, long sumA, long sumB, long ca, long cb){
+		return sumAB-cb*sumA-ca*sumB+nbVoxel*ca*cb;
+	}
+}
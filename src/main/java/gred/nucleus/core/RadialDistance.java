@@ -1,9 +1,6 @@
 package gred.nucleus.core;
 import gred.nucleus.utils.Distance_Map;
-import gred.nucleus.utils.Histogram;
-import gred.nucleus.utils.VoxelRecord;
 import ij.ImagePlus;
-import ij.ImageStack;
 import ij.measure.Calibration;
 import ij.plugin.Resizer;
 
@@ -18,9 +15,49 @@ import ij.plugin.Resizer;
  */
 public class RadialDistance
 {
+	/** true to compute the distance map on the original grid (CalibratedDistanceMap)*/
+	private boolean m_calibratedDistanceMap = false;
+	/** true to compute Distance_Map with the linear time transformations*/
+	private boolean m_linearTimeDistanceMap = true;
+	/** number of tasks of Distance_Map, run by SlabExecutor*/
+	private int m_nbThreads = Runtime.getRuntime().availableProcessors();
+
   	public RadialDistance(){	}
 
+	/**
+	 * Compute the distance map of the nucleus with CalibratedDistanceMap, on the original stacks with
+	 * the calibration of each axis, instead of Distance_Map on the stacks rescaled to cubic voxels
+	 * (false by default). The rescaled stacks use zCalibration/xCalibration more memory and are
+	 * interpolated, so the distances are slightly different.
+	 *
+	 * @param calibratedDistanceMap
+	 */
+	public void setCalibratedDistanceMap(boolean calibratedDistanceMap){
+		m_calibratedDistanceMap = calibratedDistanceMap;
+	}
+
    
+	/**
+	 * Compute Distance_Map with the lower envelope of parabolas (Distance_Map.linearTime), in linear
+	 * time instead of the quadratic passes in y and z. The distances are the same. True by default.
+	 *
+	 * @param linearTimeDistanceMap
+	 */
+	public void setLinearTimeDistanceMap(boolean linearTimeDistanceMap){
+		m_linearTimeDistanceMap = linearTimeDistanceMap;
+	}
+
+	/**
+	 * Number of tasks of each transformation of Distance_Map (availableProcessors() by default),
+	 * 1 to compute the distance map in the calling thread. The tasks of all the distance maps run
+	 * on the threads of SlabExecutor.
+	 *
+	 * @param nbThreads
+	 */
+	public void setNbThreads(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
 	/**
 	 * Method which compute the distance map of binary nucleus
 	 * Rescale the voxel to obtain cubic voxel
@@ -30,10 +67,23 @@ public class RadialDistance
   	 */
   	public ImagePlus computeDistanceMap (ImagePlus imagePlusSegmentedRescaled){
 		Distance_Map distanceMap = new Distance_Map();
+		distanceMap.linearTime = m_linearTimeDistanceMap;
+		distanceMap.nThreads = m_nbThreads;
 		distanceMap.apply(imagePlusSegmentedRescaled);
 		return imagePlusSegmentedRescaled;
 	}
 
+	/**
+	 * Context of the radial distances of one nucleus: the distance map of the nucleus and the
+	 * rescaled stacks are computed once for all the distances asked to the context.
+	 * 
+	 * @param imagePlusSegmented image of the segmented nucleus, not modified
+	 * @return the context of the nucleus, with the options of this RadialDistance
+	 */
+	public RadialDistanceContext createContext(ImagePlus imagePlusSegmented){
+		return new RadialDistanceContext(this, imagePlusSegmented, m_calibratedDistanceMap);
+	}
+
 	/**
 	 * Compute the shortest distance between the chromocenter periphery and the
 	 * nuclear envelope
@@ -44,31 +94,7 @@ public class RadialDistance
 	 * @return
 	 */
 	public double[] computeBorderToBorderDistances(ImagePlus imagePlusSegmented,ImagePlus imagePlusChromocenter){
-		Histogram histogram = new Histogram ();
-		histogram.run(imagePlusChromocenter);
-		double [] tLabel = histogram.getLabels();
-		Calibration calibration = imagePlusSegmented.getCalibration();
-		double xCalibration = calibration.pixelWidth;
-		
-		imagePlusChromocenter = resizeImage(imagePlusChromocenter);
-		ImageStack imageStackChromocenter = imagePlusChromocenter.getStack();
-		imagePlusSegmented = resizeImage(imagePlusSegmented);
-		ImagePlus imagePlusDistanceMap =  computeDistanceMap(imagePlusSegmented);
-		ImageStack imageStackDistanceMap = imagePlusDistanceMap.getStack();
-		double voxelValueMin, voxelValue;
-		double [] tDistanceRadial = new double [tLabel.length];
-		for (int l = 0; l < tLabel.length; ++l){
-			voxelValueMin = Double.MAX_VALUE;
-			for (int k = 0; k < imagePlusChromocenter.getNSlices(); ++k)
-				for (int i = 0; i < imagePlusChromocenter.getWidth(); ++i)
-					for (int j = 0; j < imagePlusChromocenter.getHeight(); ++j){
-						voxelValue = imageStackDistanceMap.getVoxel(i, j, k);
-						if (voxelValue < voxelValueMin && tLabel[l] == imageStackChromocenter.getVoxel(i, j, k))
-							voxelValueMin = voxelValue;
-					}
-			tDistanceRadial[l] = voxelValueMin*xCalibration;
-		}
-		return   tDistanceRadial;
+		return createContext(imagePlusSegmented).computeBorderToBorderDistances(imagePlusChromocenter);
 	}
 	
 	/**
@@ -82,29 +108,14 @@ public class RadialDistance
 	 */
 	
 	public double[] computeBarycenterToBorderDistances(ImagePlus imagePlusSegmented,ImagePlus imagePlusChromocenter){
-		Calibration calibration = imagePlusSegmented.getCalibration();
-		double xCalibration = calibration.pixelWidth;
-		ImagePlus imagePlusChromocenterRescale = resizeImage(imagePlusChromocenter);
-		imagePlusSegmented = resizeImage (imagePlusSegmented);
-	    ImagePlus imagePlusDistanceMap =  computeDistanceMap(imagePlusSegmented);
-	    ImageStack imageStackDistanceMap = imagePlusDistanceMap.getStack();
-	    Measure3D measure3D = new Measure3D();
-	    VoxelRecord [] tVoxelRecord = measure3D.computeObjectBarycenter(imagePlusChromocenterRescale,false);
-	    double [] tRadialDistance = new double[tVoxelRecord.length];
-	    double distance =-50;
-	    for (int i = 0; i < tVoxelRecord.length; ++i){
-	    	VoxelRecord voxelRecord = tVoxelRecord[i];
-	    	distance = imageStackDistanceMap.getVoxel((int)voxelRecord._i,(int)voxelRecord._j,(int)voxelRecord._k);
-	    	tRadialDistance[i] = xCalibration * distance;
-	    }
-	    return tRadialDistance;
+		return createContext(imagePlusSegmented).computeBarycenterToBorderDistances(imagePlusChromocenter);
 	}
 	/**
 	 * Resize the input image to obtain isotropic voxel
 	 * @param imagePlus 
 	 * @return resized image
 	 */
-	private ImagePlus resizeImage (ImagePlus imagePlus){
+	ImagePlus resizeImage (ImagePlus imagePlus){
 		Resizer resizer = new Resizer();
 		Calibration calibration = imagePlus.getCalibration();
 		double xCalibration = calibration.pixelWidth;
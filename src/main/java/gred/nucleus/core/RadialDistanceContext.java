@@ -0,0 +1,140 @@
+package gred.nucleus.core;
+
+import gred.nucleus.utils.CalibratedDistanceMap;
+import gred.nucleus.utils.Histogram;
+import gred.nucleus.utils.StackAccessor;
+import gred.nucleus.utils.VoxelRecord;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Radial distances of the chromocenters of one nucleus (RadialDistance.createContext): the nucleus
+ * rescaled to cubic voxels, its distance map and the rescaled chromocenter images are computed at
+ * the first distance which needs them, and reused by the next distances of the same nucleus, so
+ * the border to border and barycenter to border distances of an analysis compute one distance map.
+ * The border to border distances of all the chromocenters are computed in one scan of the image.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class RadialDistanceContext{
+	private RadialDistance m_radialDistance;
+	private ImagePlus m_imagePlusSegmented;
+	private boolean m_calibratedDistanceMap;
+	/** distance map of the nucleus, null before the first distance*/
+	private ImageStack m_imageStackDistanceMap = null;
+	/** factor from the values of the distance map to the calibrated distance*/
+	private double m_scale;
+	/** rescaled images of the nucleus and of the chromocenters, by original image*/
+	private IdentityHashMap<ImagePlus, ImagePlus> m_hRescaled = new IdentityHashMap<ImagePlus, ImagePlus>();
+
+	/**
+	 *
+	 * @param radialDistance RadialDistance of the distance map
+	 * @param imagePlusSegmented image of the segmented nucleus
+	 * @param calibratedDistanceMap true to compute the distances on the original grid
+	 */
+	RadialDistanceContext(RadialDistance radialDistance, ImagePlus imagePlusSegmented, boolean calibratedDistanceMap){
+		m_radialDistance = radialDistance;
+		m_imagePlusSegmented = imagePlusSegmented;
+		m_calibratedDistanceMap = calibratedDistanceMap;
+	}
+
+	/**
+	 * Compute the shortest distance between the chromocenter periphery and the
+	 * nuclear envelope, as RadialDistance.computeBorderToBorderDistances
+	 *
+	 * @param imagePlusChromocenter image of the chromocenters of the nucleus
+	 * @return Table of radial distance for each chromocenter
+	 */
+	public double[] computeBorderToBorderDistances(ImagePlus imagePlusChromocenter){
+		Histogram histogram = new Histogram ();
+		histogram.run(imagePlusChromocenter);
+		double [] tLabel = histogram.getLabels();
+		StackAccessor stackAccessorDistanceMap = new StackAccessor(getDistanceMap());
+		ImagePlus imagePlusChromocenterRescale = getRescaledImage(imagePlusChromocenter);
+		StackAccessor stackAccessorChromocenter = new StackAccessor(imagePlusChromocenterRescale);
+		double [] tDistanceRadial = new double [tLabel.length];
+		Arrays.fill(tDistanceRadial, Double.MAX_VALUE);
+		int sliceSize = imagePlusChromocenterRescale.getWidth()*imagePlusChromocenterRescale.getHeight();
+		double previousLabel = 0;
+		int l = -1;
+		for (int k = 0; k < imagePlusChromocenterRescale.getNSlices(); ++k)
+			for (int index = 0; index < sliceSize; ++index){
+				double label = stackAccessorChromocenter.getVoxel(index, k);
+				if (label <= 0)
+					continue;
+				if (label != previousLabel){
+					l = Arrays.binarySearch(tLabel, label);
+					previousLabel = label;
+				}
+				if (l < 0)
+					continue;
+				double voxelValue = stackAccessorDistanceMap.getVoxel(index, k);
+				if (voxelValue < tDistanceRadial[l])
+					tDistanceRadial[l] = voxelValue;
+			}
+		for (l = 0; l < tLabel.length; ++l)
+			tDistanceRadial[l] *= m_scale;
+		return tDistanceRadial;
+	}
+
+	/**
+	 * Distance between the barycenter of each chromocenter and the nuclear envelope, as
+	 * RadialDistance.computeBarycenterToBorderDistances
+	 *
+	 * @param imagePlusChromocenter image of the chromocenters of the nucleus, or of the nucleus
+	 * @return Table of radial distance for each chromocenter
+	 */
+	public double[] computeBarycenterToBorderDistances(ImagePlus imagePlusChromocenter){
+		ImageStack imageStackDistanceMap = getDistanceMap();
+		Measure3D measure3D = new Measure3D();
+		VoxelRecord [] tVoxelRecord = measure3D.computeObjectBarycenter(getRescaledImage(imagePlusChromocenter), false);
+		double [] tRadialDistance = new double[tVoxelRecord.length];
+		for (int i = 0; i < tVoxelRecord.length; ++i){
+			VoxelRecord voxelRecord = tVoxelRecord[i];
+			double distance = imageStackDistanceMap.getVoxel((int)voxelRecord._i,(int)voxelRecord._j,(int)voxelRecord._k);
+			tRadialDistance[i] = m_scale * distance;
+		}
+		return tRadialDistance;
+	}
+
+	/**
+	 *
+	 * @return distance map of the nucleus, computed at the first call
+	 */
+	private ImageStack getDistanceMap(){
+		if (m_imageStackDistanceMap == null){
+			if (m_calibratedDistanceMap){
+				m_scale = 1;
+				m_imageStackDistanceMap = new CalibratedDistanceMap().apply(m_imagePlusSegmented).getStack();
+			}
+			else{
+				m_scale = m_imagePlusSegmented.getCalibration().pixelWidth;
+				ImagePlus imagePlusDistanceMap = getRescaledImage(m_imagePlusSegmented).duplicate();
+				m_imageStackDistanceMap = m_radialDistance.computeDistanceMap(imagePlusDistanceMap).getStack();
+			}
+		}
+		return m_imageStackDistanceMap;
+	}
+
+	/**
+	 *
+	 * @param imagePlus image of the nucleus or of the chromocenters
+	 * @return the image rescaled to cubic voxels (the image itself on the original grid), computed
+	 * at the first call for each image
+	 */
+	private ImagePlus getRescaledImage(ImagePlus imagePlus){
+		if (m_calibratedDistanceMap)
+			return imagePlus;
+		ImagePlus imagePlusRescale = m_hRescaled.get(imagePlus);
+		if (imagePlusRescale == null){
+			imagePlusRescale = m_radialDistance.resizeImage(imagePlus);
+			m_hRescaled.put(imagePlus, imagePlusRescale);
+		}
+		return imagePlusRescale;
+	}
+}
@@ -0,0 +1,119 @@
+package gred.nucleus.core;
+
+import gred.nucleus.utils.IncrementalSurfaceAccumulator;
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Search strategy guided by the sphericity curve of the thresholded voxels: the volume and the
+ * surface area of the voxels higher or equal to each threshold of the interval are computed with
+ * an IncrementalSurfaceAccumulator, in about one pass on the image. Then every threshold is
+ * evaluated around the maximum of this curve. If no threshold is validated, or if the image is
+ * not in 8 or 16 bits, the interval is evaluated with the exhaustive search.
+ * 
+ * The curve is computed without the morphological correction and the deletion of the artefacts,
+ * so its maximum is only an estimation of the threshold chosen by the exhaustive search.
+ * 
+ * @author Poulet Axel
+ *
+ */
+public class SphericityCurveThresholdSearch implements ThresholdSearchStrategy{
+	/** Number of thresholds evaluated on each side of the maximum, 0 for a number computed with the size of the interval*/
+	private int m_radius;
+
+	/**
+	 * Evaluation around the maximum of the curve with a radius equal to the square root of the
+	 * number of thresholds
+	 */
+	public SphericityCurveThresholdSearch(){
+		this(0);
+	}
+
+	/**
+	 * 
+	 * @param radius number of thresholds evaluated on each side of the maximum of the curve, 0 for a
+	 * radius computed with the size of the interval
+	 */
+	public SphericityCurveThresholdSearch(int radius){
+		m_radius = Math.max(radius, 0);
+	}
+
+	/**
+	 * 
+	 */
+	public void search(int thresholdMin, int thresholdMax, ThresholdEvaluator thresholdEvaluator){
+		if (thresholdMax < thresholdMin)
+			return;
+		ImagePlus imagePlusInput = thresholdEvaluator.getImagePlusInput();
+		if (imagePlusInput.getType() != ImagePlus.GRAY8 && imagePlusInput.getType() != ImagePlus.GRAY16){
+			new ExhaustiveThresholdSearch().search(thresholdMin, thresholdMax, thresholdEvaluator);
+			return;
+		}
+		int radius = m_radius;
+		if (radius == 0)
+			radius = Math.max((int)Math.sqrt(thresholdMax-thresholdMin+1), 1);
+		int thresholdPeak = computeThresholdPeak(imagePlusInput, thresholdMin, thresholdMax, thresholdEvaluator.getImageVolume());
+		if (thresholdPeak >= thresholdMin){
+			IJ.log("Maximum of the sphericity curve: "+thresholdPeak);
+			ExhaustiveThresholdSearch exhaustiveThresholdSearch = new ExhaustiveThresholdSearch();
+			int thresholdWindowMin = Math.max(thresholdPeak-radius, thresholdMin);
+			int thresholdWindowMax = Math.min(thresholdPeak+radius, thresholdMax);
+			int [] tThreshold = new int[thresholdWindowMax-thresholdWindowMin+1];
+			for (int i = 0; i < tThreshold.length; ++i)
+				tThreshold[i] = thresholdWindowMin+i;
+			double [] tSphericity = thresholdEvaluator.evaluate(tThreshold);
+			for (int i = 0; i < tSphericity.length; ++i)
+				if (tSphericity[i] > -1)
+					return;
+			IJ.log("Sphericity curve: no threshold validated around the maximum, exhaustive search");
+			exhaustiveThresholdSearch.search(thresholdMin, thresholdMax, thresholdEvaluator);
+			return;
+		}
+		new ExhaustiveThresholdSearch().search(thresholdMin, thresholdMax, thresholdEvaluator);
+	}
+
+	/**
+	 * Compute the sphericity of the voxels higher or equal to each threshold, from the upper to the
+	 * lower threshold, and return the threshold of the maximum. The thresholds giving an object of
+	 * 70% of the image or more are not considered.
+	 * 
+	 * @param imagePlusInput image 8 or 16 bits
+	 * @param thresholdMin lower threshold value
+	 * @param thresholdMax upper threshold value
+	 * @param imageVolume volume of the whole image
+	 * @return threshold of the maximum of the curve, thresholdMin-1 if no threshold is considered
+	 */
+	private int computeThresholdPeak(ImagePlus imagePlusInput, int thresholdMin, int thresholdMax, double imageVolume){
+		IncrementalSurfaceAccumulator incrementalSurfaceAccumulator = new IncrementalSurfaceAccumulator(imagePlusInput);
+		Measure3D measure3D = new Measure3D();
+		int thresholdPeak = thresholdMin-1;
+		double sphericityPeak = -1;
+		for (int t = thresholdMax; t >= thresholdMin; --t){
+			incrementalSurfaceAccumulator.setThreshold(t);
+			double volume = incrementalSurfaceAccumulator.getVolume();
+			double surfaceArea = incrementalSurfaceAccumulator.getSurfaceArea();
+			if (volume/imageVolume >= 0.7)
+				break;
+			if (surfaceArea > 0){
+				double sphericity = measure3D.computeSphericity(volume, surfaceArea);
+				if (sphericity > sphericityPeak){
+					sphericityPeak = sphericity;
+					thresholdPeak = t;
+				}
+			}
+		}
+		return thresholdPeak;
+	}
+
+	/**
+	 * 
+	 * @return name and parameters of the strategy, used in the key of the segmentation cache
+	 */
+	public String getCacheKey(){
+		return "SphericityCurveThresholdSearch "+m_radius;
+	}
+
+	public String toString(){
+		return getCacheKey();
+	}
+}
@@ -0,0 +1,34 @@
+package gred.nucleus.core;
+
+import ij.ImagePlus;
+
+/**
+ * Segmentation of the image with a list of threshold values, used by the strategies of search of
+ * the threshold. The evaluator keeps the best segmented object of all the evaluated thresholds.
+ * 
+ * @author Poulet Axel
+ *
+ */
+public interface ThresholdEvaluator{
+	/**
+	 * Segment the image with each threshold value, the thresholds already evaluated are not
+	 * segmented again.
+	 * 
+	 * @param tThreshold threshold values
+	 * @return sphericity of the segmented object for each threshold, -1 if the threshold is rejected
+	 */
+	public double [] evaluate(int [] tThreshold);
+
+	/**
+	 * 
+	 * @return the image to be segmented
+	 */
+	public ImagePlus getImagePlusInput();
+
+	/**
+	 * 
+	 * @return the volume of the whole image, used to reject the thresholds giving an object of 70%
+	 * of the image or more
+	 */
+	public double getImageVolume();
+}
@@ -0,0 +1,29 @@
+package gred.nucleus.core;
+
+/**
+ * Strategy of search of the threshold maximizing the sphericity of the segmented object, in the
+ * interval of threshold values computed by NucleusSegmentation
+ * 
+ * @author Poulet Axel
+ *
+ */
+public interface ThresholdSearchStrategy{
+	/**
+	 * Choose the thresholds to segment between thresholdMin and thresholdMax, the best segmented
+	 * object is kept by the evaluator
+	 * 
+	 * @param thresholdMin lower threshold value
+	 * @param thresholdMax upper threshold value
+	 * @param thresholdEvaluator segmentation of the image for a list of thresholds
+	 */
+	public void search(int thresholdMin, int thresholdMax, ThresholdEvaluator thresholdEvaluator);
+
+	/**
+	 * Name and parameters of the strategy, in the key of the segmentation cache: two strategies which
+	 * can choose different thresholds must return different keys, and the same strategy must return
+	 * the same key at each run (not a key based on the identity of the object)
+	 * 
+	 * @return key of the strategy
+	 */
+	public String getCacheKey();
+}
@@ -18,10 +18,45 @@ public class ProcessImageSegmentaion{
 	static int m_nbLance = 0;
 	static boolean m_continuer;
 	static int m_indiceImage = 0;
+	/** segmentation in the bounding box of the lower threshold, false by default*/
+	private boolean m_boundingBoxCropping = false;
+	/** directory of the cache of the segmentations, null for no cache*/
+	private String m_segmentationCacheDirectory = null;
 
 
 	public ProcessImageSegmentaion(){}
 
+	/**
+	 * Segment each nucleus in the bounding box of the voxels higher than the lower threshold
+	 * (NucleusSegmentation.setBoundingBoxCropping), false by default
+	 *
+	 * @param boundingBoxCropping
+	 */
+	public void setBoundingBoxCropping(boolean boundingBoxCropping){
+		m_boundingBoxCropping = boundingBoxCropping;
+	}
+
+	/**
+	 * Directory of the cache on disk of the segmentations (SegmentationCache, at most
+	 * SegmentationCache.DEFAULT_MAX_SIZE bytes), null by default for no cache
+	 *
+	 * @param segmentationCacheDirectory
+	 */
+	public void setSegmentationCacheDirectory(String segmentationCacheDirectory){
+		m_segmentationCacheDirectory = segmentationCacheDirectory;
+	}
+
+	/**
+	 * Number of threads of the analysis of each image: the processors not used by the images
+	 * processed in parallel are shared between them
+	 *
+	 * @param nbCpu number of images processed in parallel
+	 * @return number of threads of the analysis of one image
+	 */
+	private int computeNbThreadsAnalysis(int nbCpu){
+		return Math.max(1, Runtime.getRuntime().availableProcessors()/Math.max(nbCpu, 1));
+	}
+
 	/**
 	 * method to run the segmentation and analysis with the features chosen by the user
 	 * 
@@ -39,6 +74,7 @@ public class ProcessImageSegmentaion{
 		m_nbLance = 0;
 		ArrayList<Thread> arrayListImageThread = new ArrayList<Thread>() ;
 		int nbCpu = nuc.getNbCpu();
+		int nbThreadsAnalysis = computeNbThreadsAnalysis(nbCpu);
 		
 		for (int i = 0; i < tInputFile.length; ++i){
 			IJ.log("Image processed "+tInputFile[i] +" "+i);
@@ -47,14 +83,16 @@ public class ProcessImageSegmentaion{
 			IJ.log("image"+(i+1)+" / "+tInputFile.length);
 			ImagePlus imagePlusInput = IJ.openImage(tInputFile[i].toString());
 			imagePlusInput.setCalibration(calibration);
-			arrayListImageThread.add(
-				new RunnableImageSegmentation(
-						 imagePlusInput, nuc.getMinVolume(),
-						 nuc.getMaxVolume(), nuc.getWorkDirectory(),
-						 nuc.is2D3DAnalysis(), nuc.is3DAnalysis(),
-						 doAnalysis
-				)
+			RunnableImageSegmentation runnableImageSegmentation = new RunnableImageSegmentation(
+					 imagePlusInput, nuc.getMinVolume(),
+					 nuc.getMaxVolume(), nuc.getWorkDirectory(),
+					 nuc.is2D3DAnalysis(), nuc.is3DAnalysis(),
+					 doAnalysis
 			);
+			runnableImageSegmentation.setNbThreadsAnalysis(nbThreadsAnalysis);
+			runnableImageSegmentation.setBoundingBoxCropping(m_boundingBoxCropping);
+			runnableImageSegmentation.setSegmentationCacheDirectory(m_segmentationCacheDirectory);
+			arrayListImageThread.add(runnableImageSegmentation);
 			arrayListImageThread.get(i).start();
 			
 			while (m_continuer == false)
@@ -92,14 +130,15 @@ public class ProcessImageSegmentaion{
 			IJ.log("image"+(i+1)+" / "+tInputFile.length);
 			ImagePlus imagePlusInput = IJ.openImage(tInputFile[i].toString());
 			imagePlusInput.setCalibration(calibration);
-			arrayListImageThread.add(
-				new RunnableImageSegmentation(
-						imagePlusInput, nuc.getMinVolume(),
-						nuc.getMaxVolume(), nuc.getWorkDirectory(),
-							false, false,
-							doAnalysis
-					)
+			RunnableImageSegmentation runnableImageSegmentation = new RunnableImageSegmentation(
+					imagePlusInput, nuc.getMinVolume(),
+					nuc.getMaxVolume(), nuc.getWorkDirectory(),
+					false, false,
+					doAnalysis
 			);
+			runnableImageSegmentation.setBoundingBoxCropping(m_boundingBoxCropping);
+			runnableImageSegmentation.setSegmentationCacheDirectory(m_segmentationCacheDirectory);
+			arrayListImageThread.add(runnableImageSegmentation);
 			arrayListImageThread.get(i).start();
 			while (m_continuer == false)
 				Thread.sleep(10);
@@ -4,6 +4,7 @@ package gred.nucleus.multiThread;
 
 import gred.nucleus.core.NucleusAnalysis;
 import gred.nucleus.core.NucleusSegmentation;
+import gred.nucleus.utils.SegmentationCache;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
@@ -24,6 +25,9 @@ public class RunnableImageSegmentation extends Thread implements Runnable{
 	ImagePlus _imagePlusInput;
 	double _volumeMin, _volumeMax;
 	boolean _isanalysis3D, _isanalysis2D3D, _doAnalysis;
+	int _nbThreadsAnalysis = 1;
+	boolean _boundingBoxCropping = false;
+	String _segmentationCacheDirectory = null;
 
 	/**
 	 * 
@@ -48,6 +52,36 @@ public class RunnableImageSegmentation extends Thread implements Runnable{
 		_isanalysis2D3D = analysis3D2D;
 	}
 	
+	/**
+	 * Number of threads used by the analysis of this image, to use the processors which are not
+	 * used by the other images of the batch
+	 *
+	 * @param nbThreadsAnalysis
+	 */
+	public void setNbThreadsAnalysis(int nbThreadsAnalysis){
+		_nbThreadsAnalysis = Math.max(nbThreadsAnalysis, 1);
+	}
+
+	/**
+	 * Segment the nucleus in the bounding box of the lower threshold (NucleusSegmentation.setBoundingBoxCropping),
+	 * false by default
+	 *
+	 * @param boundingBoxCropping
+	 */
+	public void setBoundingBoxCropping(boolean boundingBoxCropping){
+		_boundingBoxCropping = boundingBoxCropping;
+	}
+
+	/**
+	 * Directory of the cache of the segmentations (SegmentationCache), null (default) to segment
+	 * every image without cache
+	 *
+	 * @param segmentationCacheDirectory
+	 */
+	public void setSegmentationCacheDirectory(String segmentationCacheDirectory){
+		_segmentationCacheDirectory = segmentationCacheDirectory;
+	}
+
 	/**
 	 * Run parallel compute in function of the number of CPU chose by the user, and call the class ProcessImageSgmentation
 	 */
@@ -57,6 +91,9 @@ public class RunnableImageSegmentation extends Thread implements Runnable{
 		NucleusSegmentation nucleusSegmentation = new NucleusSegmentation();
 		nucleusSegmentation.setLogErrorSegmentationFile(_workDirectory+File.separator+"logErrorSegmentation.txt");
 		nucleusSegmentation.setVolumeRange(_volumeMin, _volumeMax);
+		nucleusSegmentation.setBoundingBoxCropping(_boundingBoxCropping);
+		if (_segmentationCacheDirectory != null)
+			nucleusSegmentation.setSegmentationCache(new SegmentationCache(_segmentationCacheDirectory, SegmentationCache.DEFAULT_MAX_SIZE));
 		GaussianBlur3D.blur(_imagePlusInput,0.25,0.25,1);
 		ImageStack imageStack= _imagePlusInput.getStack();
 		int max = 0;
@@ -74,6 +111,7 @@ public class RunnableImageSegmentation extends Thread implements Runnable{
 			impagePlusSegmented.setTitle(_imagePlusInput.getTitle());
 			saveFile(impagePlusSegmented,_workDirectory+File.separator+"SegmentedDataNucleus");
 			NucleusAnalysis nucleusAnalysis = new NucleusAnalysis(_imagePlusInput);
+			nucleusAnalysis.setNbThreads(_nbThreadsAnalysis);
 			if(_doAnalysis){
 				try{
 					if(_isanalysis2D3D){
@@ -0,0 +1,219 @@
+package gred.nucleus.utils;
+
+import java.util.Arrays;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+
+/**
+ * Binary 3D image stored with one bit per voxel, 64 voxels in each long. Each line of the image
+ * (fixed j and k) starts on a new long, so the line (j, k) is stored in the longs from
+ * getRowIndex(j, k) to getRowIndex(j, k)+getNbWordsRow()-1, the voxel i in the bit i%64 of the long
+ * i/64. The bits after the end of the line are always 0.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class BinaryMask{
+	private int m_width, m_height, m_depth;
+	private int m_nbWordsRow;
+	private long [] m_tWords;
+
+	/**
+	 * Empty mask
+	 *
+	 * @param width
+	 * @param height
+	 * @param depth
+	 */
+	public BinaryMask(int width, int height, int depth){
+		m_width = width;
+		m_height = height;
+		m_depth = depth;
+		m_nbWordsRow = (width+63) >>> 6;
+		m_tWords = new long[m_nbWordsRow*height*depth];
+	}
+
+	/**
+	 * Mask of the voxels higher or equal to the threshold
+	 *
+	 * @param imagePlusInput image
+	 * @param threshold threshold value
+	 */
+	public BinaryMask(ImagePlus imagePlusInput, double threshold){
+		this(imagePlusInput.getWidth(), imagePlusInput.getHeight(), imagePlusInput.getStackSize());
+		threshold(imagePlusInput, threshold);
+	}
+
+	/**
+	 * Replace the mask by the voxels higher or equal to the threshold, without new allocation
+	 *
+	 * @param imagePlusInput image of the size of the mask
+	 * @param threshold threshold value
+	 */
+	public void threshold(ImagePlus imagePlusInput, double threshold){
+		StackAccessor stackAccessor = new StackAccessor(imagePlusInput);
+		for (int k = 0; k < m_depth; ++k)
+			for (int j = 0; j < m_height; ++j){
+				int rowIndex = getRowIndex(j, k);
+				int index = j*m_width;
+				for (int n = 0; n < m_nbWordsRow; ++n){
+					long word = 0;
+					int end = Math.min(m_width-(n << 6), 64);
+					for (int bit = 0; bit < end; ++bit, ++index)
+						if (stackAccessor.getVoxel(index, k) >= threshold)
+							word |= 1L << bit;
+					m_tWords[rowIndex+n] = word;
+				}
+			}
+	}
+
+	/**
+	 * Remove all the voxels from the mask
+	 */
+	public void clear(){
+		Arrays.fill(m_tWords, 0);
+	}
+
+	/**
+	 *
+	 * @param binaryMask mask of the same size
+	 * @return true if the mask has the size of binaryMask
+	 */
+	public boolean hasSameSize(BinaryMask binaryMask){
+		return m_width == binaryMask.m_width && m_height == binaryMask.m_height && m_depth == binaryMask.m_depth;
+	}
+
+	public int getWidth(){
+		return m_width;
+	}
+
+	public int getHeight(){
+		return m_height;
+	}
+
+	public int getDepth(){
+		return m_depth;
+	}
+
+	/**
+	 *
+	 * @return number of longs of each line
+	 */
+	public int getNbWordsRow(){
+		return m_nbWordsRow;
+	}
+
+	/**
+	 *
+	 * @param j
+	 * @param k
+	 * @return index of the first long of the line (j, k)
+	 */
+	public int getRowIndex(int j, int k){
+		return (k*m_height+j)*m_nbWordsRow;
+	}
+
+	/**
+	 *
+	 * @return the table of the longs of the mask, modified by the changes of the mask
+	 */
+	public long [] getWords(){
+		return m_tWords;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return true if the voxel is in the mask
+	 */
+	public boolean get(int i, int j, int k){
+		return (m_tWords[getRowIndex(j, k)+(i >>> 6)] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Add the voxel in the mask
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 */
+	public void set(int i, int j, int k){
+		m_tWords[getRowIndex(j, k)+(i >>> 6)] |= 1L << i;
+	}
+
+	/**
+	 * Remove the voxel from the mask
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 */
+	public void clear(int i, int j, int k){
+		m_tWords[getRowIndex(j, k)+(i >>> 6)] &= ~(1L << i);
+	}
+
+	/**
+	 *
+	 * @return number of voxels in the mask
+	 */
+	public long getNbVoxel(){
+		long nbVoxel = 0;
+		for (int n = 0; n < m_tWords.length; ++n)
+			nbVoxel += Long.bitCount(m_tWords[n]);
+		return nbVoxel;
+	}
+
+	/**
+	 *
+	 * @param k slice from 0
+	 * @return true if no voxel of the slice is in the mask
+	 */
+	public boolean isSliceEmpty(int k){
+		int end = getRowIndex(0, k+1);
+		for (int n = getRowIndex(0, k); n < end; ++n)
+			if (m_tWords[n] != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 *
+	 * @return copy of the mask
+	 */
+	public BinaryMask duplicate(){
+		BinaryMask binaryMask = new BinaryMask(m_width, m_height, m_depth);
+		System.arraycopy(m_tWords, 0, binaryMask.m_tWords, 0, m_tWords.length);
+		return binaryMask;
+	}
+
+	/**
+	 * Conversion in a 8 bits image, 255 for the voxels of the mask and 0 for the others
+	 *
+	 * @param title title of the image
+	 * @param calibration calibration of the image
+	 * @return image of the mask
+	 */
+	public ImagePlus toImagePlus(String title, Calibration calibration){
+		ImageStack imageStack = new ImageStack(m_width, m_height);
+		for (int k = 0; k < m_depth; ++k){
+			byte [] tPixels = new byte[m_width*m_height];
+			for (int j = 0; j < m_height; ++j){
+				int rowIndex = getRowIndex(j, k);
+				int index = j*m_width;
+				for (int i = 0; i < m_width; ++i, ++index)
+					if ((m_tWords[rowIndex+(i >>> 6)] & (1L << i)) != 0)
+						tPixels[index] = (byte)255;
+			}
+			imageStack.addSlice(new ByteProcessor(m_width, m_height, tPixels, null));
+		}
+		ImagePlus imagePlusMask = new ImagePlus(title, imageStack);
+		if (calibration != null)
+			imagePlusMask.setCalibration(calibration);
+		return imagePlusMask;
+	}
+}
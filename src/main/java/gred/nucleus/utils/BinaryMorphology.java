@@ -0,0 +1,186 @@
+package gred.nucleus.utils;
+
+/**
+ * Erosion and dilation of a binary mask with the structuring element of
+ * Filters3D.filter(stack, MIN or MAX, 1, 1, 0.5): the voxel and its four neighbors in the plan
+ * (i-1, i+1, j-1, j+1). The neighbors out of the image are ignored, like in Filters3D, so the result
+ * is the same as the filters on the image of the mask.
+ *
+ * The lines of the mask are processed 64 voxels at a time with the longs of the mask, and the plans
+ * are independent, so they can be split in slabs computed on the threads of SlabExecutor.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class BinaryMorphology{
+	private int m_nbThreads;
+
+	/**
+	 * Morphology in the current thread
+	 */
+	public BinaryMorphology(){
+		this(1);
+	}
+
+	/**
+	 *
+	 * @param nbThreads number of slabs of plans computed in parallel on the threads of SlabExecutor
+	 */
+	public BinaryMorphology(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
+	/**
+	 * Filter min
+	 *
+	 * @param binaryMask mask
+	 * @return eroded mask
+	 */
+	public BinaryMask erode(BinaryMask binaryMask){
+		return erode(binaryMask, new BinaryMask(binaryMask.getWidth(), binaryMask.getHeight(), binaryMask.getDepth()));
+	}
+
+	/**
+	 * Filter min in an existing mask
+	 *
+	 * @param binaryMask mask
+	 * @param binaryMaskOutput mask of the same size, different from binaryMask, replaced by the result
+	 * @return binaryMaskOutput
+	 */
+	public BinaryMask erode(BinaryMask binaryMask, BinaryMask binaryMaskOutput){
+		return filter(binaryMask, binaryMaskOutput, true);
+	}
+
+	/**
+	 * Filter max
+	 *
+	 * @param binaryMask mask
+	 * @return dilated mask
+	 */
+	public BinaryMask dilate(BinaryMask binaryMask){
+		return dilate(binaryMask, new BinaryMask(binaryMask.getWidth(), binaryMask.getHeight(), binaryMask.getDepth()));
+	}
+
+	/**
+	 * Filter max in an existing mask
+	 *
+	 * @param binaryMask mask
+	 * @param binaryMaskOutput mask of the same size, different from binaryMask, replaced by the result
+	 * @return binaryMaskOutput
+	 */
+	public BinaryMask dilate(BinaryMask binaryMask, BinaryMask binaryMaskOutput){
+		return filter(binaryMask, binaryMaskOutput, false);
+	}
+
+	/**
+	 * Erosion then dilation
+	 *
+	 * @param binaryMask mask
+	 * @return opened mask
+	 */
+	public BinaryMask open(BinaryMask binaryMask){
+		return dilate(erode(binaryMask));
+	}
+
+	/**
+	 * Erosion then dilation, without new allocation
+	 *
+	 * @param binaryMask mask, replaced by the result
+	 * @param binaryMaskBuffer mask of the same size used for the intermediate result
+	 * @return binaryMask
+	 */
+	public BinaryMask open(BinaryMask binaryMask, BinaryMask binaryMaskBuffer){
+		return dilate(erode(binaryMask, binaryMaskBuffer), binaryMask);
+	}
+
+	/**
+	 * Dilation then erosion
+	 *
+	 * @param binaryMask mask
+	 * @return closed mask
+	 */
+	public BinaryMask close(BinaryMask binaryMask){
+		return erode(dilate(binaryMask));
+	}
+
+	/**
+	 * Dilation then erosion, without new allocation
+	 *
+	 * @param binaryMask mask, replaced by the result
+	 * @param binaryMaskBuffer mask of the same size used for the intermediate result
+	 * @return binaryMask
+	 */
+	public BinaryMask close(BinaryMask binaryMask, BinaryMask binaryMaskBuffer){
+		return erode(dilate(binaryMask, binaryMaskBuffer), binaryMask);
+	}
+
+	/**
+	 * Apply the filter on all the plans, split in slabs between the threads (SlabExecutor)
+	 *
+	 * @param binaryMask mask
+	 * @param binaryMaskOutput mask of the same size, different from binaryMask
+	 * @param erosion true for the filter min, false for the filter max
+	 * @return filtered mask
+	 */
+	private BinaryMask filter(final BinaryMask binaryMask, final BinaryMask binaryMaskOutput, final boolean erosion){
+		if (binaryMask == binaryMaskOutput || binaryMask.hasSameSize(binaryMaskOutput) == false)
+			throw new IllegalArgumentException("The output mask must be a different mask of the same size");
+		new SlabExecutor(m_nbThreads).run(binaryMask.getDepth(), new SlabExecutor.SlabTask<Object>(){
+			public Object compute(int kMin, int kMax){
+				for (int k = kMin; k < kMax; ++k)
+					filterPlan(binaryMask, binaryMaskOutput, k, erosion);
+				return null;
+			}
+		});
+		return binaryMaskOutput;
+	}
+
+	/**
+	 * Filter of one plan: for each long of a line, the neighbors i-1 and i+1 are obtained by shifting
+	 * the long with the bits of the previous and next longs, the neighbors j-1 and j+1 are the longs of
+	 * the previous and next lines. The neighbors out of the image are considered in the mask for the
+	 * erosion and out of the mask for the dilation, so they do not change the result.
+	 *
+	 * @param binaryMask input mask
+	 * @param binaryMaskOutput output mask
+	 * @param k plan
+	 * @param erosion true for the filter min, false for the filter max
+	 */
+	private void filterPlan(BinaryMask binaryMask, BinaryMask binaryMaskOutput, int k, boolean erosion){
+		int width = binaryMask.getWidth();
+		int height = binaryMask.getHeight();
+		int nbWordsRow = binaryMask.getNbWordsRow();
+		long [] tWords = binaryMask.getWords();
+		long [] tWordsOutput = binaryMaskOutput.getWords();
+		long lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63))-1;
+		long lastVoxelBit = 1L << ((width-1) & 63);
+		for (int j = 0; j < height; ++j){
+			int row = binaryMask.getRowIndex(j, k);
+			int rowPrevious = j > 0 ? binaryMask.getRowIndex(j-1, k) : -1;
+			int rowNext = j < height-1 ? binaryMask.getRowIndex(j+1, k) : -1;
+			for (int n = 0; n < nbWordsRow; ++n){
+				long word = tWords[row+n];
+				long previousVoxels = (word << 1) | (n > 0 ? tWords[row+n-1] >>> 63 : 0);
+				long nextVoxels = (word >>> 1) | (n < nbWordsRow-1 ? tWords[row+n+1] << 63 : 0);
+				long result;
+				if (erosion){
+					if (n == 0)
+						previousVoxels |= 1L;
+					if (n == nbWordsRow-1)
+						nextVoxels |= lastVoxelBit;
+					long upperVoxels = rowPrevious >= 0 ? tWords[rowPrevious+n] : -1L;
+					long lowerVoxels = rowNext >= 0 ? tWords[rowNext+n] : -1L;
+					result = word & previousVoxels & nextVoxels & upperVoxels & lowerVoxels;
+				}
+				else{
+					long upperVoxels = rowPrevious >= 0 ? tWords[rowPrevious+n] : 0;
+					long lowerVoxels = rowNext >= 0 ? tWords[rowNext+n] : 0;
+					result = word | previousVoxels | nextVoxels | upperVoxels | lowerVoxels;
+				}
+				if (n == nbWordsRow-1)
+					result &= lastWordMask;
+				tWordsOutput[row+n] = result;
+			}
+		}
+	}
+}
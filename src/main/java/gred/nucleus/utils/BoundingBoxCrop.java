@@ -0,0 +1,122 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Crop of an image to the bounding box of the voxels higher or equal to a threshold, and paste of
+ * a cropped image in an image of the original size. The bounding box is a table
+ * {xMin, yMin, zMin, xMax, yMax, zMax} (bounds included, z from 0).
+ *
+ * @author Poulet Axel
+ *
+ */
+public class BoundingBoxCrop{
+	public BoundingBoxCrop(){}
+
+	/**
+	 * Compute the bounding box of the voxels higher or equal to the threshold, enlarged by padding
+	 * voxels in each direction and limited to the image
+	 *
+	 * @param imagePlusInput image
+	 * @param threshold threshold value
+	 * @param padding number of voxels added around the voxels thresholded
+	 * @return the bounding box, null if no voxel is higher or equal to the threshold
+	 */
+	public int [] computeBoundingBox(ImagePlus imagePlusInput, double threshold, int padding){
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		int width = imagePlusInput.getWidth();
+		int height = imagePlusInput.getHeight();
+		int depth = imagePlusInput.getStackSize();
+		int [] tBoundingBox = {width, height, depth, -1, -1, -1};
+		for (int k = 0; k < depth; ++k){
+			ImageProcessor imageProcessor = imageStackInput.getProcessor(k+1);
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i)
+					if (imageProcessor.getf(i, j) >= threshold){
+						if (i < tBoundingBox[0]) tBoundingBox[0] = i;
+						if (j < tBoundingBox[1]) tBoundingBox[1] = j;
+						if (k < tBoundingBox[2]) tBoundingBox[2] = k;
+						if (i > tBoundingBox[3]) tBoundingBox[3] = i;
+						if (j > tBoundingBox[4]) tBoundingBox[4] = j;
+						if (k > tBoundingBox[5]) tBoundingBox[5] = k;
+					}
+		}
+		if (tBoundingBox[3] < 0)
+			return null;
+		tBoundingBox[0] = Math.max(tBoundingBox[0]-padding, 0);
+		tBoundingBox[1] = Math.max(tBoundingBox[1]-padding, 0);
+		tBoundingBox[2] = Math.max(tBoundingBox[2]-padding, 0);
+		tBoundingBox[3] = Math.min(tBoundingBox[3]+padding, width-1);
+		tBoundingBox[4] = Math.min(tBoundingBox[4]+padding, height-1);
+		tBoundingBox[5] = Math.min(tBoundingBox[5]+padding, depth-1);
+		return tBoundingBox;
+	}
+
+	/**
+	 *
+	 * @param tBoundingBox bounding box
+	 * @param imagePlusInput image
+	 * @return true if the bounding box is the whole image
+	 */
+	public boolean isWholeImage(int [] tBoundingBox, ImagePlus imagePlusInput){
+		return tBoundingBox[0] == 0 && tBoundingBox[1] == 0 && tBoundingBox[2] == 0
+				&& tBoundingBox[3] == imagePlusInput.getWidth()-1 && tBoundingBox[4] == imagePlusInput.getHeight()-1
+				&& tBoundingBox[5] == imagePlusInput.getStackSize()-1;
+	}
+
+	/**
+	 * Crop the image to the bounding box, the title and the calibration are kept
+	 *
+	 * @param imagePlusInput image
+	 * @param tBoundingBox bounding box
+	 * @return cropped image
+	 */
+	public ImagePlus crop(ImagePlus imagePlusInput, int [] tBoundingBox){
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		int width = tBoundingBox[3]-tBoundingBox[0]+1;
+		int height = tBoundingBox[4]-tBoundingBox[1]+1;
+		ImageStack imageStackCropped = new ImageStack(width, height);
+		for (int k = tBoundingBox[2]; k <= tBoundingBox[5]; ++k){
+			ImageProcessor imageProcessorInput = imageStackInput.getProcessor(k+1);
+			ImageProcessor imageProcessorCropped = imageProcessorInput.createProcessor(width, height);
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i)
+					imageProcessorCropped.setf(i, j, imageProcessorInput.getf(i+tBoundingBox[0], j+tBoundingBox[1]));
+			imageStackCropped.addSlice(imageProcessorCropped);
+		}
+		ImagePlus imagePlusCropped = new ImagePlus(imagePlusInput.getTitle(), imageStackCropped);
+		imagePlusCropped.setCalibration(imagePlusInput.getCalibration());
+		return imagePlusCropped;
+	}
+
+	/**
+	 * Paste a cropped image at the position of the bounding box in an image of the original size,
+	 * filled with 0 outside the bounding box. The title and the calibration are kept.
+	 *
+	 * @param imagePlusCropped cropped image
+	 * @param tBoundingBox bounding box of the cropped image
+	 * @param width width of the original image
+	 * @param height height of the original image
+	 * @param depth number of slices of the original image
+	 * @return image of the original size
+	 */
+	public ImagePlus paste(ImagePlus imagePlusCropped, int [] tBoundingBox, int width, int height, int depth){
+		ImageStack imageStackCropped = imagePlusCropped.getStack();
+		ImageStack imageStackOutput = new ImageStack(width, height);
+		for (int k = 0; k < depth; ++k){
+			ImageProcessor imageProcessorOutput = imageStackCropped.getProcessor(1).createProcessor(width, height);
+			if (k >= tBoundingBox[2] && k <= tBoundingBox[5]){
+				ImageProcessor imageProcessorCropped = imageStackCropped.getProcessor(k-tBoundingBox[2]+1);
+				for (int j = 0; j < imagePlusCropped.getHeight(); ++j)
+					for (int i = 0; i < imagePlusCropped.getWidth(); ++i)
+						imageProcessorOutput.setf(i+tBoundingBox[0], j+tBoundingBox[1], imageProcessorCropped.getf(i, j));
+			}
+			imageStackOutput.addSlice(imageProcessorOutput);
+		}
+		ImagePlus imagePlusOutput = new ImagePlus(imagePlusCropped.getTitle(), imageStackOutput);
+		imagePlusOutput.setCalibration(imagePlusCropped.getCalibration());
+		return imagePlusOutput;
+	}
+}
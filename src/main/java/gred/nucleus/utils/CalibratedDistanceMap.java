@@ -0,0 +1,161 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.FloatProcessor;
+
+/**
+ * Euclidean distance map of a binary image computed on its own grid, with the calibration of each
+ * axis: the distance between two voxels is
+ * sqrt((pixelWidth*di)^2+(pixelHeight*dj)^2+(pixelDepth*dk)^2), so the anisotropic stacks do not
+ * need to be rescaled in z (as for Distance_Map) before the computation.
+ *
+ * The squared distances are computed axis by axis with the lower envelope of parabolas of
+ * Felzenszwalb and Huttenlocher, in a time linear in the number of voxels. The voxels of the
+ * object (value > 0) get the distance to the nearest voxel of the background (value 0), the
+ * voxels of the background get 0. As for Distance_Map, the outside of the image is not background.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class CalibratedDistanceMap{
+	private int m_nbThreads = 1;
+
+	public CalibratedDistanceMap(){ }
+
+	/**
+	 *
+	 * @param nbThreads number of threads (SlabExecutor), 1 by default
+	 */
+	public void setNbThreads(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
+	/**
+	 *
+	 * @param imagePlusInput binary image, the object is the voxels > 0
+	 * @return 32 bits image of the distances in the unit of the calibration, with the calibration
+	 * of the input image
+	 */
+	public ImagePlus apply(ImagePlus imagePlusInput){
+		final int width = imagePlusInput.getWidth();
+		final int height = imagePlusInput.getHeight();
+		final int depth = imagePlusInput.getStackSize();
+		Calibration calibration = imagePlusInput.getCalibration();
+		final double xWeight = calibration.pixelWidth*calibration.pixelWidth;
+		final double yWeight = calibration.pixelHeight*calibration.pixelHeight;
+		final double zWeight = calibration.pixelDepth*calibration.pixelDepth;
+		final StackAccessor stackAccessor = new StackAccessor(imagePlusInput);
+		final double [][] tDistance = new double[depth][width*height];
+		final int n = Math.max(width, Math.max(height, depth));
+		SlabExecutor slabExecutor = new SlabExecutor(m_nbThreads);
+		// x and y, slice by slice
+		slabExecutor.run(depth, new SlabExecutor.SlabTask<Object>(){
+			public Object compute(int kMin, int kMax){
+				Envelope envelope = new Envelope(n);
+				double [] tLine = new double[n];
+				for (int k = kMin; k < kMax; ++k){
+					double [] tDistanceSlice = tDistance[k];
+					for (int index = 0; index < width*height; ++index)
+						tDistanceSlice[index] = stackAccessor.getVoxel(index, k) > 0 ? Double.POSITIVE_INFINITY : 0;
+					for (int j = 0; j < height; ++j){
+						for (int i = 0; i < width; ++i)
+							tLine[i] = tDistanceSlice[j*width+i];
+						envelope.transform(tLine, width, xWeight);
+						for (int i = 0; i < width; ++i)
+							tDistanceSlice[j*width+i] = tLine[i];
+					}
+					for (int i = 0; i < width; ++i){
+						for (int j = 0; j < height; ++j)
+							tLine[j] = tDistanceSlice[j*width+i];
+						envelope.transform(tLine, height, yWeight);
+						for (int j = 0; j < height; ++j)
+							tDistanceSlice[j*width+i] = tLine[j];
+					}
+				}
+				return null;
+			}
+		});
+		// z, by slabs of lines j
+		slabExecutor.run(height, new SlabExecutor.SlabTask<Object>(){
+			public Object compute(int jMin, int jMax){
+				Envelope envelope = new Envelope(n);
+				double [] tLine = new double[n];
+				for (int index = jMin*width; index < jMax*width; ++index){
+					for (int k = 0; k < depth; ++k)
+						tLine[k] = tDistance[k][index];
+					envelope.transform(tLine, depth, zWeight);
+					for (int k = 0; k < depth; ++k)
+						tDistance[k][index] = tLine[k];
+				}
+				return null;
+			}
+		});
+		ImageStack imageStackOutput = new ImageStack(width, height);
+		for (int k = 0; k < depth; ++k){
+			float [] tPixels = new float[width*height];
+			for (int index = 0; index < tPixels.length; ++index)
+				tPixels[index] = (float)Math.sqrt(tDistance[k][index]);
+			tDistance[k] = null;
+			imageStackOutput.addSlice(new FloatProcessor(width, height, tPixels, null));
+		}
+		ImagePlus imagePlusOutput = new ImagePlus(imagePlusInput.getTitle(), imageStackOutput);
+		imagePlusOutput.setCalibration(calibration.copy());
+		return imagePlusOutput;
+	}
+
+	/**
+	 * Lower envelope of the parabolas of a line, buffers of one thread
+	 */
+	private static class Envelope{
+		/** positions of the parabolas of the envelope*/
+		private int [] m_tPosition;
+		/** limits between the parabolas of the envelope*/
+		private double [] m_tLimit;
+		private double [] m_tResult;
+
+		private Envelope(int n){
+			m_tPosition = new int[n];
+			m_tLimit = new double[n+1];
+			m_tResult = new double[n];
+		}
+
+		/**
+		 * Replace f(p) by the min on q of f(q)+weight*(p-q)^2, the infinite values are ignored
+		 *
+		 * @param tLine values f of the line
+		 * @param length length of the line
+		 * @param weight squared size of the voxel on the line
+		 */
+		private void transform(double [] tLine, int length, double weight){
+			int nbParabola = 0;
+			for (int q = 0; q < length; ++q){
+				if (tLine[q] == Double.POSITIVE_INFINITY)
+					continue;
+				double limit = Double.NEGATIVE_INFINITY;
+				while (nbParabola > 0){
+					int v = m_tPosition[nbParabola-1];
+					limit = ((tLine[q]+weight*q*q)-(tLine[v]+weight*v*v))/(2*weight*(q-v));
+					if (limit > m_tLimit[nbParabola-1])
+						break;
+					--nbParabola;
+					limit = Double.NEGATIVE_INFINITY;
+				}
+				m_tPosition[nbParabola] = q;
+				m_tLimit[nbParabola] = limit;
+				++nbParabola;
+			}
+			if (nbParabola == 0)
+				return;
+			int n = 0;
+			for (int p = 0; p < length; ++p){
+				while (n < nbParabola-1 && m_tLimit[n+1] < p)
+					++n;
+				int v = m_tPosition[n];
+				m_tResult[p] = tLine[v]+weight*(p-v)*(p-v);
+			}
+			System.arraycopy(m_tResult, 0, tLine, 0, length);
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Component tree of the upper level sets of an image (8 or 16 bits). The voxels are sorted once by
+ * decreasing value (counting sort) and added one by one to the foreground. The connected components
+ * (26-connexity) are merged with a union-find structure, which keeps for each component the number of
+ * voxels, the bounding box and the number of boundary faces along each axis. A voxel touching a
+ * component is added to the attributes of this component, and the slots of the components merged in
+ * an other one are reused, so the tables of attributes have the size of the largest number of
+ * components present at the same time, not of the number of voxels.
+ *
+ * For each threshold of the interval, the attributes of the largest component of the voxels higher or
+ * equal to the threshold are stored, so the whole threshold sweep is read on the tree after one pass
+ * on the image. The boundary faces are counted like in Measure3D.computeSurfaceObject: only for the
+ * voxels which are not on the border of the image.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class ComponentTree{
+	/** Value of the union-find table for the voxels which are not in the foreground*/
+	private static final int ABSENT = -1;
+	private int m_width, m_height, m_depth, m_sliceSize;
+	/** Parent of each voxel, ABSENT or -(index of component+2) for the roots*/
+	private int [] m_parent;
+	/** Attributes of the components*/
+	private int [] m_nbVoxel;
+	private long [] m_xFaces, m_yFaces, m_zFaces;
+	private int [] m_xMin, m_xMax, m_yMin, m_yMax, m_zMin, m_zMax;
+	private int m_nbComponent = 0;
+	/** Slots of the merged components, reused by the next new components*/
+	private int [] m_freeComponent;
+	private int m_nbFreeComponent = 0;
+	/** Attributes of the largest component for each threshold*/
+	private int m_thresholdMin, m_thresholdMax;
+	private long [] m_tNbVoxelForeground;
+	private int [] m_tNbVoxelLargest;
+	private long [] m_tXFacesLargest, m_tYFacesLargest, m_tZFacesLargest;
+	private int [] m_tBoundingBoxLargest;
+
+	public ComponentTree(){	}
+
+	/**
+	 * Build the tree of the input image, and store the attributes of the largest component for each
+	 * threshold value between thresholdMin and thresholdMax
+	 *
+	 * @param imagePlusInput image 8 or 16 bits
+	 * @param thresholdMin lower threshold value
+	 * @param thresholdMax upper threshold value
+	 */
+	public void run(ImagePlus imagePlusInput, int thresholdMin, int thresholdMax){
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		m_width = imagePlusInput.getWidth();
+		m_height = imagePlusInput.getHeight();
+		m_depth = imagePlusInput.getStackSize();
+		m_sliceSize = m_width*m_height;
+		m_thresholdMin = Math.max(thresholdMin, 0);
+		m_thresholdMax = Math.max(thresholdMax, m_thresholdMin-1);
+		int nbThreshold = m_thresholdMax-m_thresholdMin+1;
+		m_tNbVoxelForeground = new long[nbThreshold];
+		m_tNbVoxelLargest = new int[nbThreshold];
+		m_tXFacesLargest = new long[nbThreshold];
+		m_tYFacesLargest = new long[nbThreshold];
+		m_tZFacesLargest = new long[nbThreshold];
+		m_tBoundingBoxLargest = new int[nbThreshold*6];
+
+		ImageProcessor [] tImageProcessor = new ImageProcessor[m_depth];
+		int valueMax = m_thresholdMax;
+		for (int k = 0; k < m_depth; ++k){
+			tImageProcessor[k] = imageStackInput.getProcessor(k+1);
+			for (int index = 0; index < m_sliceSize; ++index)
+				valueMax = Math.max(valueMax, tImageProcessor[k].get(index));
+		}
+		// counting sort of the voxels higher or equal to the lower threshold
+		int [] tStart = new int[valueMax-m_thresholdMin+2];
+		for (int k = 0; k < m_depth; ++k)
+			for (int index = 0; index < m_sliceSize; ++index){
+				int value = tImageProcessor[k].get(index);
+				if (value >= m_thresholdMin)
+					++tStart[value-m_thresholdMin+1];
+			}
+		for (int value = 1; value < tStart.length; ++value)
+			tStart[value] += tStart[value-1];
+		int [] tSortedVoxel = new int[tStart[tStart.length-1]];
+		int [] tNext = tStart.clone();
+		for (int k = 0; k < m_depth; ++k)
+			for (int index = 0; index < m_sliceSize; ++index){
+				int value = tImageProcessor[k].get(index);
+				if (value >= m_thresholdMin)
+					tSortedVoxel[tNext[value-m_thresholdMin]++] = k*m_sliceSize+index;
+			}
+		tImageProcessor = null;
+		tNext = null;
+
+		m_parent = new int[m_sliceSize*m_depth];
+		for (int voxel = 0; voxel < m_parent.length; ++voxel)
+			m_parent[voxel] = ABSENT;
+		m_nbComponent = 0;
+		m_nbFreeComponent = 0;
+		m_nbVoxel = null;
+		m_xFaces = m_yFaces = m_zFaces = null;
+		m_xMin = m_xMax = m_yMin = m_yMax = m_zMin = m_zMax = m_freeComponent = null;
+		allocateComponents(1024);
+		int largest = -1;
+		long nbVoxelForeground = 0;
+		for (int value = valueMax; value >= m_thresholdMin; --value){
+			for (int n = tStart[value-m_thresholdMin]; n < tStart[value-m_thresholdMin+1]; ++n){
+				int component = addVoxel(tSortedVoxel[n]);
+				++nbVoxelForeground;
+				if (largest < 0 || m_nbVoxel[component] > m_nbVoxel[largest])
+					largest = component;
+			}
+			if (value <= m_thresholdMax)
+				storeLargestComponent(value-m_thresholdMin, largest, nbVoxelForeground);
+		}
+		m_parent = null;
+	}
+
+	/**
+	 * Add one voxel in the foreground, and merge it with the components of its neighbors: the voxel
+	 * is added to the component of its first neighbor in the foreground, and a new component is
+	 * created only for a voxel without neighbor
+	 *
+	 * @param voxel index of the voxel
+	 * @return index of the component containing the voxel
+	 */
+	private int addVoxel(int voxel){
+		int i = voxel % m_width;
+		int j = (voxel / m_width) % m_height;
+		int k = voxel / m_sliceSize;
+		boolean interior = isInterior(i, j, k);
+		long xFaces = faceVariation(interior, voxel-1, i > 0, i-1, j, k)
+				+faceVariation(interior, voxel+1, i < m_width-1, i+1, j, k);
+		long yFaces = faceVariation(interior, voxel-m_width, j > 0, i, j-1, k)
+				+faceVariation(interior, voxel+m_width, j < m_height-1, i, j+1, k);
+		long zFaces = faceVariation(interior, voxel-m_sliceSize, k > 0, i, j, k-1)
+				+faceVariation(interior, voxel+m_sliceSize, k < m_depth-1, i, j, k+1);
+		boolean added = false;
+		for (int kk = Math.max(k-1, 0); kk <= Math.min(k+1, m_depth-1); ++kk)
+			for (int jj = Math.max(j-1, 0); jj <= Math.min(j+1, m_height-1); ++jj)
+				for (int ii = Math.max(i-1, 0); ii <= Math.min(i+1, m_width-1); ++ii){
+					int neighbor = kk*m_sliceSize+jj*m_width+ii;
+					if (neighbor == voxel || m_parent[neighbor] == ABSENT)
+						continue;
+					if (added)
+						union(voxel, neighbor);
+					else{
+						int root = find(neighbor);
+						m_parent[voxel] = root;
+						addToComponent(-m_parent[root]-2, i, j, k, xFaces, yFaces, zFaces);
+						added = true;
+					}
+				}
+		if (added == false){
+			int component = newComponent();
+			m_nbVoxel[component] = 0;
+			m_xFaces[component] = m_yFaces[component] = m_zFaces[component] = 0;
+			m_xMin[component] = m_xMax[component] = i;
+			m_yMin[component] = m_yMax[component] = j;
+			m_zMin[component] = m_zMax[component] = k;
+			m_parent[voxel] = -(component+2);
+			addToComponent(component, i, j, k, xFaces, yFaces, zFaces);
+		}
+		return -m_parent[find(voxel)]-2;
+	}
+
+	/**
+	 * Add the attributes of one voxel to a component
+	 *
+	 * @param component
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @param xFaces variation of the number of faces orthogonal to x
+	 * @param yFaces variation of the number of faces orthogonal to y
+	 * @param zFaces variation of the number of faces orthogonal to z
+	 */
+	private void addToComponent(int component, int i, int j, int k, long xFaces, long yFaces, long zFaces){
+		++m_nbVoxel[component];
+		m_xFaces[component] += xFaces;
+		m_yFaces[component] += yFaces;
+		m_zFaces[component] += zFaces;
+		m_xMin[component] = Math.min(m_xMin[component], i);
+		m_xMax[component] = Math.max(m_xMax[component], i);
+		m_yMin[component] = Math.min(m_yMin[component], j);
+		m_yMax[component] = Math.max(m_yMax[component], j);
+		m_zMin[component] = Math.min(m_zMin[component], k);
+		m_zMax[component] = Math.max(m_zMax[component], k);
+	}
+
+	/**
+	 *
+	 * @return slot of a new component, a slot of a merged component if there is one
+	 */
+	private int newComponent(){
+		if (m_nbFreeComponent > 0)
+			return m_freeComponent[--m_nbFreeComponent];
+		if (m_nbComponent == m_nbVoxel.length)
+			allocateComponents(2*m_nbVoxel.length);
+		return m_nbComponent++;
+	}
+
+	/**
+	 * Variation of the number of boundary faces due to one neighbor of the added voxel: the face
+	 * between them is a boundary face of the added voxel if the neighbor is not in the foreground,
+	 * else it is no more a boundary face of the neighbor.
+	 *
+	 * @param interior true if the added voxel is not on the border of the image
+	 * @param neighbor index of the neighbor
+	 * @param inImage true if the neighbor is in the image
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return variation of the number of faces
+	 */
+	private int faceVariation(boolean interior, int neighbor, boolean inImage, int i, int j, int k){
+		if (inImage == false)
+			return 0;
+		if (m_parent[neighbor] != ABSENT)
+			return isInterior(i, j, k) ? -1 : 0;
+		return interior ? 1 : 0;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return true if the voxel is not on the border of the image
+	 */
+	private boolean isInterior(int i, int j, int k){
+		return i > 0 && j > 0 && k > 0 && i < m_width-1 && j < m_height-1 && k < m_depth-1;
+	}
+
+	/**
+	 * Return the root voxel of the component, with path halving
+	 *
+	 * @param voxel
+	 * @return root voxel
+	 */
+	private int find(int voxel){
+		while (m_parent[voxel] >= 0){
+			int parent = m_parent[voxel];
+			if (m_parent[parent] >= 0)
+				m_parent[voxel] = m_parent[parent];
+			voxel = parent;
+		}
+		return voxel;
+	}
+
+	/**
+	 * Merge the components of two voxels, the smaller component is added to the larger one
+	 *
+	 * @param voxel1
+	 * @param voxel2
+	 */
+	private void union(int voxel1, int voxel2){
+		int root1 = find(voxel1);
+		int root2 = find(voxel2);
+		if (root1 == root2)
+			return;
+		int component1 = -m_parent[root1]-2;
+		int component2 = -m_parent[root2]-2;
+		if (m_nbVoxel[component1] < m_nbVoxel[component2]){
+			int root = root1; root1 = root2; root2 = root;
+			int component = component1; component1 = component2; component2 = component;
+		}
+		m_parent[root2] = root1;
+		m_nbVoxel[component1] += m_nbVoxel[component2];
+		m_xFaces[component1] += m_xFaces[component2];
+		m_yFaces[component1] += m_yFaces[component2];
+		m_zFaces[component1] += m_zFaces[component2];
+		m_xMin[component1] = Math.min(m_xMin[component1], m_xMin[component2]);
+		m_xMax[component1] = Math.max(m_xMax[component1], m_xMax[component2]);
+		m_yMin[component1] = Math.min(m_yMin[component1], m_yMin[component2]);
+		m_yMax[component1] = Math.max(m_yMax[component1], m_yMax[component2]);
+		m_zMin[component1] = Math.min(m_zMin[component1], m_zMin[component2]);
+		m_zMax[component1] = Math.max(m_zMax[component1], m_zMax[component2]);
+		m_freeComponent[m_nbFreeComponent++] = component2;
+	}
+
+	/**
+	 * Store the attributes of the largest component for one threshold
+	 *
+	 * @param indexThreshold
+	 * @param largest index of the largest component, -1 if the foreground is empty
+	 * @param nbVoxelForeground
+	 */
+	private void storeLargestComponent(int indexThreshold, int largest, long nbVoxelForeground){
+		m_tNbVoxelForeground[indexThreshold] = nbVoxelForeground;
+		if (largest < 0)
+			return;
+		m_tNbVoxelLargest[indexThreshold] = m_nbVoxel[largest];
+		m_tXFacesLargest[indexThreshold] = m_xFaces[largest];
+		m_tYFacesLargest[indexThreshold] = m_yFaces[largest];
+		m_tZFacesLargest[indexThreshold] = m_zFaces[largest];
+		int index = indexThreshold*6;
+		m_tBoundingBoxLargest[index] = m_xMin[largest];
+		m_tBoundingBoxLargest[index+1] = m_yMin[largest];
+		m_tBoundingBoxLargest[index+2] = m_zMin[largest];
+		m_tBoundingBoxLargest[index+3] = m_xMax[largest];
+		m_tBoundingBoxLargest[index+4] = m_yMax[largest];
+		m_tBoundingBoxLargest[index+5] = m_zMax[largest];
+	}
+
+	/**
+	 * Allocate or enlarge the tables of the component attributes
+	 *
+	 * @param capacity
+	 */
+	private void allocateComponents(int capacity){
+		m_nbVoxel = resize(m_nbVoxel, capacity);
+		m_xFaces = resize(m_xFaces, capacity);
+		m_yFaces = resize(m_yFaces, capacity);
+		m_zFaces = resize(m_zFaces, capacity);
+		m_xMin = resize(m_xMin, capacity);
+		m_xMax = resize(m_xMax, capacity);
+		m_yMin = resize(m_yMin, capacity);
+		m_yMax = resize(m_yMax, capacity);
+		m_zMin = resize(m_zMin, capacity);
+		m_zMax = resize(m_zMax, capacity);
+		m_freeComponent = resize(m_freeComponent, capacity);
+	}
+
+	private int [] resize(int [] tInput, int capacity){
+		int [] tOutput = new int[capacity];
+		if (tInput != null)
+			System.arraycopy(tInput, 0, tOutput, 0, tInput.length);
+		return tOutput;
+	}
+
+	private long [] resize(long [] tInput, int capacity){
+		long [] tOutput = new long[capacity];
+		if (tInput != null)
+			System.arraycopy(tInput, 0, tOutput, 0, tInput.length);
+		return tOutput;
+	}
+
+	/**
+	 *
+	 * @param threshold
+	 * @return number of voxels higher or equal to the threshold
+	 */
+	public long getNbVoxelForeground(int threshold){
+		return m_tNbVoxelForeground[threshold-m_thresholdMin];
+	}
+
+	/**
+	 *
+	 * @param threshold
+	 * @return number of voxels of the largest component, 0 if the foreground is empty
+	 */
+	public int getNbVoxelLargestComponent(int threshold){
+		return m_tNbVoxelLargest[threshold-m_thresholdMin];
+	}
+
+	/**
+	 * Number of boundary faces of the largest component: 0 faces orthogonal to x,
+	 * 1 faces orthogonal to y, 2 faces orthogonal to z
+	 *
+	 * @param threshold
+	 * @return table of the number of faces along each axis
+	 */
+	public long [] getFacesLargestComponent(int threshold){
+		int index = threshold-m_thresholdMin;
+		long [] tFaces = {m_tXFacesLargest[index], m_tYFacesLargest[index], m_tZFacesLargest[index]};
+		return tFaces;
+	}
+
+	/**
+	 * Bounding box of the largest component: xMin, yMin, zMin, xMax, yMax, zMax
+	 *
+	 * @param threshold
+	 * @return table of the bounding box coordinates
+	 */
+	public int [] getBoundingBoxLargestComponent(int threshold){
+		int [] tBoundingBox = new int[6];
+		System.arraycopy(m_tBoundingBoxLargest, (threshold-m_thresholdMin)*6, tBoundingBox, 0, 6);
+		return tBoundingBox;
+	}
+}
@@ -16,6 +16,9 @@ Version S1B.1 Sept. 6, 2006.  Changed comments.
 Version S1C Oct. 1, 2006.  Option for inverse case.
                            Fixed inverse behavior in y and z directions.
 Version D July 30, 2007.  Multithread processing for step 2.
+Version E.  The tasks of the 3 steps run on the threads of SlabExecutor, shared
+            with the other computations, and the buffers of the tasks are kept
+            by these threads for the next calls.
 
 This version assumes the input stack is already in memory, 8-bit, and
 outputs to a new 32-bit stack.  Versions that are more stingy with memory
@@ -57,6 +60,16 @@ public class Distance_Map implements  PlugInFilter {
 	public int w,h,d;
 	public int thresh = 126;
 	public boolean inverse = false;
+	/** true to compute the transformations 2 and 3 with the lower envelope of parabolas, in linear time */
+	public boolean linearTime = false;
+	/** number of tasks of each transformation, run by SlabExecutor; 1 to compute in the calling thread */
+	public int nThreads = Runtime.getRuntime().availableProcessors();
+	/** buffers of the tasks, one per thread, reused by the next calls */
+	private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>(){
+		protected Buffers initialValue(){
+			return new Buffers();
+		}
+	};
 
 	public int setup(String arg, ImagePlus imp) {
  		this.imp = imp;
@@ -75,7 +88,7 @@ public void apply (ImagePlus imagePlus){
 		w = stack.getWidth();
 		h = stack.getHeight();
 		d = imagePlus.getStackSize();
-		int nThreads = Runtime.getRuntime().availableProcessors();
+		int nThreads = Math.max(this.nThreads, 1);
 
 		//Create references to input data
 		data = new byte[d][];
@@ -91,46 +104,25 @@ public void apply (ImagePlus imagePlus){
 		float[] sk;
 		//Transformation 1.  Use s to store g.
 		IJ.showStatus("EDT transformation 1/3");
-		Step1Thread[] s1t = new Step1Thread[nThreads];
+		Runnable[] s1t = new Runnable[nThreads];
 		for(int thread = 0; thread < nThreads; thread++){
 			s1t[thread] = new Step1Thread(thread,nThreads,w,h,d,thresh,s,data);
-			s1t[thread].start();
-		}
-		try{
-			for(int thread = 0; thread< nThreads; thread++){
-				s1t[thread].join();
-			}
-		}catch(InterruptedException ie){
-			IJ.error("A thread was interrupted in step 1 .");
 		}
+		runStep(s1t);
 		//Transformation 2.  g (in s) -> h (in s)
 		IJ.showStatus("EDT transformation 2/3");
-		Step2Thread[] s2t = new Step2Thread[nThreads];
+		Runnable[] s2t = new Runnable[nThreads];
 		for(int thread = 0; thread < nThreads; thread++){
-			s2t[thread] = new Step2Thread(thread,nThreads,w,h,d,s);
-			s2t[thread].start();
-		}
-		try{
-			for(int thread = 0; thread< nThreads; thread++){
-				s2t[thread].join();
-			}
-		}catch(InterruptedException ie){
-			IJ.error("A thread was interrupted in step 2 .");
+			s2t[thread] = linearTime ? new Step2LinearThread(thread,nThreads,w,h,d,s) : new Step2Thread(thread,nThreads,w,h,d,s);
 		}
+		runStep(s2t);
 		//Transformation 3. h (in s) -> s
 		IJ.showStatus("EDT transformation 3/3");
-		Step3Thread[] s3t = new Step3Thread[nThreads];
+		Runnable[] s3t = new Runnable[nThreads];
 		for(int thread = 0; thread < nThreads; thread++){
-			s3t[thread] = new Step3Thread(thread,nThreads,w,h,d,s,data);
-			s3t[thread].start();
-		}
-		try{
-			for(int thread = 0; thread< nThreads; thread++){
-				s3t[thread].join();
-			}
-		}catch(InterruptedException ie){
-			IJ.error("A thread was interrupted in step 3 .");
+			s3t[thread] = linearTime ? new Step3LinearThread(thread,nThreads,w,h,d,s) : new Step3Thread(thread,nThreads,w,h,d,s,data);
 		}
+		runStep(s3t);
 		//Find the largest distance for scaling
 		//Also fill in the background values.
 		float distMax = 0;
@@ -156,6 +148,18 @@ public void apply (ImagePlus imagePlus){
     imagePlus.setStack(sStack);
     //imagePlus.show();
 	}
+	//Run the tasks of a transformation on the threads of SlabExecutor, or in the calling thread for
+	//one task or when called from a task of SlabExecutor
+	void runStep(final Runnable[] tasks){
+		new SlabExecutor(tasks.length).run(tasks.length, new SlabExecutor.SlabTask<Object>(){
+			public Object compute(int threadMin, int threadMax){
+				for(int thread = threadMin; thread < threadMax; thread++){
+					tasks[thread].run();
+				}
+				return null;
+			}
+		});
+	}
 	//Modified from ImageJ code by Wayne Rasband
     String stripExtension(String name) {
         if (name!=null) {
@@ -169,7 +173,7 @@ public void apply (ImagePlus imagePlus){
 
 
 
-	class Step1Thread extends Thread{
+	class Step1Thread implements Runnable{
 		int thread,nThreads,w,h,d,thresh;
 		float[][] s;
 		byte[][] data;
@@ -190,7 +194,7 @@ public void apply (ImagePlus imagePlus){
 			if(h > n) n = h;
 			if(d > n) n = d;
 			int noResult = 3*(n+1)*(n+1);
-			boolean[] background = new boolean[n];
+			boolean[] background = buffers.get().getBackground(n);
 			@SuppressWarnings("unused")
 			boolean nonempty;
 			int test, min;
@@ -226,7 +230,7 @@ public void apply (ImagePlus imagePlus){
 			}
 		}//run
 	}//Step1Thread
-	class Step2Thread extends Thread{
+	class Step2Thread implements Runnable{
 		int thread,nThreads,w,h,d;
 		float[][] s;
 		public Step2Thread(int thread, int nThreads, int w, int h, int d, float[][] s){
@@ -243,8 +247,9 @@ public void apply (ImagePlus imagePlus){
 			if(h > n) n = h;
 			if(d > n) n = d;
 			int noResult = 3*(n+1)*(n+1);
-			int[] tempInt = new int[n];
-			int[] tempS = new int[n];
+			Buffers b = buffers.get();
+			int[] tempInt = b.getTempInt(n);
+			int[] tempS = b.getTempS(n);
 			boolean nonempty;
 			int test, min, delta;
 			for(int k = thread; k < d; k+=nThreads){
@@ -274,7 +279,7 @@ public void apply (ImagePlus imagePlus){
 			}
 		}//run
 	}//Step2Thread
-	class Step3Thread extends Thread{
+	class Step3Thread implements Runnable{
 		int thread,nThreads,w,h,d;
 		float[][] s;
 		byte[][] data;
@@ -295,8 +300,9 @@ public void apply (ImagePlus imagePlus){
 			if(h > n) n = h;
 			if(d > n) n = d;
 			int noResult = 3*(n+1)*(n+1);
-			int[] tempInt = new int[n];
-			int[] tempS = new int[n];
+			Buffers b = buffers.get();
+			int[] tempInt = b.getTempInt(n);
+			int[] tempS = b.getTempS(n);
 			boolean nonempty;
 			int test, min, delta;
 			for(int j = thread; j < h; j+=nThreads){
@@ -340,4 +346,146 @@ public void apply (ImagePlus imagePlus){
 			}
 		}//run
 	}//Step2Thread
+
+	/*
+	Lower envelope of parabolas (Felzenszwalb and Huttenlocher) for the transformations 2 and 3:
+	tempS[x] is replaced by the min on y of tempS[y] + (x-y)^2, in linear time instead of the
+	quadratic loops of Step2Thread and Step3Thread. The values are integers and the limits between
+	the parabolas are rounded down, which is exact for the integer positions, so the squared
+	distances are the same as the quadratic loops.
+	*/
+	void lowerEnvelope(int[] tempS, int length, int[] tempInt, int[] v, long[] z){
+		int k = 0;
+		v[0] = 0;
+		z[0] = Long.MIN_VALUE;
+		for(int q = 1; q < length; q++){
+			long limit = intersection(tempS, v[k], q);
+			while(limit <= z[k]){
+				k--;
+				limit = intersection(tempS, v[k], q);
+			}
+			k++;
+			v[k] = q;
+			z[k] = limit;
+		}
+		int nbParabola = k+1;
+		k = 0;
+		for(int x = 0; x < length; x++){
+			while(k < nbParabola-1 && z[k+1] < x) k++;
+			long delta = x - v[k];
+			tempInt[x] = (int)(tempS[v[k]] + delta*delta);
+		}
+	}
+	//Limit between the parabolas of p and q (p < q), rounded down
+	long intersection(int[] tempS, int p, int q){
+		long numerator = ((long)tempS[q] + (long)q*q) - ((long)tempS[p] + (long)p*p);
+		long denominator = 2L*(q-p);
+		return numerator >= 0 ? numerator/denominator : -((-numerator+denominator-1)/denominator);
+	}
+	class Step2LinearThread implements Runnable{
+		int thread,nThreads,w,h,d;
+		float[][] s;
+		public Step2LinearThread(int thread, int nThreads, int w, int h, int d, float[][] s){
+			this.thread = thread;
+			this.nThreads = nThreads;
+			this.w = w;
+			this.h = h;
+			this.d = d;
+			this.s = s;
+		}
+		public void run(){
+			float[] sk;
+			Buffers b = buffers.get();
+			int[] tempInt = b.getTempInt(h);
+			int[] tempS = b.getTempS(h);
+			int[] v = b.getV(h);
+			long[] z = b.getZ(h);
+			boolean nonempty;
+			for(int k = thread; k < d; k+=nThreads){
+				IJ.showProgress(k/(1.*d));
+				sk = s[k];
+				for (int i = 0; i < w; i++){
+					nonempty = false;
+					for (int j = 0; j < h; j++){
+						tempS[j] = (int)sk[i+w*j];
+						if(tempS[j] >0)nonempty = true;
+					}
+					if(nonempty){
+						lowerEnvelope(tempS, h, tempInt, v, z);
+						for (int j = 0; j < h; j++){
+							sk[i+w*j] = tempInt[j];
+						}
+					}
+				}
+			}
+		}//run
+	}//Step2LinearThread
+	class Step3LinearThread implements Runnable{
+		int thread,nThreads,w,h,d;
+		float[][] s;
+		public Step3LinearThread(int thread, int nThreads, int w, int h, int d, float[][] s){
+			this.thread = thread;
+			this.nThreads = nThreads;
+			this.w = w;
+			this.h = h;
+			this.d = d;
+			this.s = s;
+		}
+		public void run(){
+			Buffers b = buffers.get();
+			int[] tempInt = b.getTempInt(d);
+			int[] tempS = b.getTempS(d);
+			int[] v = b.getV(d);
+			long[] z = b.getZ(d);
+			boolean nonempty;
+			for(int j = thread; j < h; j+=nThreads){
+				IJ.showProgress(j/(1.*h));
+				for(int i = 0; i < w; i++){
+					nonempty = false;
+					for(int k = 0; k < d; k++){
+						tempS[k] = (int)s[k][i+w*j];
+						if(tempS[k] >0)nonempty = true;
+					}
+					if(nonempty){
+						lowerEnvelope(tempS, d, tempInt, v, z);
+						for(int k = 0; k < d; k++){
+							s[k][i+w*j] = tempInt[k];
+						}
+					}
+				}
+			}
+		}//run
+	}//Step3LinearThread
+
+	/*
+	Buffers of the lines of the tasks, kept by each thread (ThreadLocal) and enlarged when a
+	larger image is computed, so the threads of SlabExecutor allocate them once.
+	*/
+	static class Buffers{
+		boolean[] background = new boolean[0];
+		int[] tempInt = new int[0];
+		int[] tempS = new int[0];
+		int[] v = new int[0];
+		long[] z = new long[0];
+		boolean[] getBackground(int n){
+			if(background.length < n) background = new boolean[n];
+			return background;
+		}
+		int[] getTempInt(int n){
+			if(tempInt.length < n) tempInt = new int[n];
+			return tempInt;
+		}
+		int[] getTempS(int n){
+			if(tempS.length < n) tempS = new int[n];
+			return tempS;
+		}
+		int[] getV(int n){
+			if(v.length < n) v = new int[n];
+			return v;
+		}
+		long[] getZ(int n){
+			if(z.length < n) z = new long[n];
+			return z;
+		}
+	}//Buffers
 }
\ No newline at end of file
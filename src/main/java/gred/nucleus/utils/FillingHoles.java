@@ -1,5 +1,7 @@
 package gred.nucleus.utils;
 
+import java.util.Arrays;
+
 import ij.*;
 import ij.process.*;
 import inra.ijpb.binary.ConnectedComponents;
@@ -11,6 +13,10 @@ import inra.ijpb.binary.ConnectedComponents;
  */
 
 public class FillingHoles{
+	/** Buffers of apply2D on a binary mask, kept between the calls*/
+	private boolean [] m_tBorderBackground;
+	private int [] m_tQueue;
+
 	public FillingHoles(){}
  
 	 
@@ -67,4 +73,49 @@ public class FillingHoles{
 		imagePlusCorrected.setStack(imageStackOutput);
 		return imagePlusCorrected;
 	}
+
+	/**
+	 * Method in two dimensions on a binary mask, which process each plan z independent: the
+	 * background regions (8-connexity) which do not touch the border of the plan are added to the
+	 * mask, like apply2D on the image of the mask. The buffers are allocated at the first call and
+	 * reused by the next calls with plans of the same size.
+	 *
+	 * @param binaryMask mask modified
+	 * @return the mask
+	 */
+	public BinaryMask apply2D(BinaryMask binaryMask){
+		int width = binaryMask.getWidth();
+		int height = binaryMask.getHeight();
+		if (m_tQueue == null || m_tQueue.length != width*height){
+			m_tBorderBackground = new boolean[width*height];
+			m_tQueue = new int[width*height];
+		}
+		boolean [] tBorderBackground = m_tBorderBackground;
+		int [] tQueue = m_tQueue;
+		for (int k = 0; k < binaryMask.getDepth(); ++k){
+			Arrays.fill(tBorderBackground, false);
+			int queueEnd = 0;
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i)
+					if ((i == 0 || j == 0 || i == width-1 || j == height-1) && binaryMask.get(i, j, k) == false){
+						tBorderBackground[j*width+i] = true;
+						tQueue[queueEnd++] = j*width+i;
+					}
+			for (int queueStart = 0; queueStart < queueEnd; ++queueStart){
+				int i = tQueue[queueStart] % width;
+				int j = tQueue[queueStart] / width;
+				for (int jj = Math.max(j-1, 0); jj <= Math.min(j+1, height-1); ++jj)
+					for (int ii = Math.max(i-1, 0); ii <= Math.min(i+1, width-1); ++ii)
+						if (tBorderBackground[jj*width+ii] == false && binaryMask.get(ii, jj, k) == false){
+							tBorderBackground[jj*width+ii] = true;
+							tQueue[queueEnd++] = jj*width+ii;
+						}
+			}
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i)
+					if (tBorderBackground[j*width+i] == false)
+						binaryMask.set(i, j, k);
+		}
+		return binaryMask;
+	}
 }
\ No newline at end of file
@@ -9,93 +9,247 @@ import java.util.HashMap;
 /**
  *
  * This class permit to obtain values who are on the Input image (8, 16 or 32 bits)
- *    
+ *
+ * The voxels are counted in an int table indexed by the value for the 8 and 16 bits images and
+ * for the 32 bits images with integer values (label images), and in a hash table of doubles
+ * (open addressing) for the other 32 bits images. Each call of run replaces the results of the
+ * previous call.
+ *
  * @author Axel Poulet
  */
 public class Histogram{
-	/** HashMap which stock the diffents value voxel and the number of voxel for each value present on the image*/
-	private  HashMap<Double , Integer> m_hHistogram = new HashMap <Double , Integer>() ;
-	/** All the value present on the image */
-    private double [] m_label;
+	/** Larger integer value counted in the int table for the 32 bits images*/
+	private static final int MAX_DENSE_VALUE = 1 << 20;
+	/** All the value present on the image, in increasing order */
+    private double [] m_label = new double[0];
+    /** Number of voxels of each value of m_label */
+    private int [] m_nbVoxel = new int[0];
     /** */
     private double m_labelMax = -1;
     private int m_nbLabel = 0;
-    
+
     /**
-     * 
+     *
      */
     public Histogram(){    }
-   
+
     /**
-     * 
+     *
      * @param imagePlusInput
      */
     public void run(ImagePlus imagePlusInput){
-    	Object[] tTemp = computeHistogram(imagePlusInput).keySet().toArray();
-    	m_label = new double[tTemp.length];
-    	for (int i = 0; i < tTemp.length; ++i)
-    		m_label[i] = Double.parseDouble(tTemp[i].toString());
-    	Arrays.sort(m_label);
-    	if (m_nbLabel > 0)
-    		m_labelMax = m_label[m_label.length-1];
+    	ImageStack imageStack = imagePlusInput.getImageStack();
+    	int depth = imagePlusInput.getNSlices();
+    	Object pixels = imageStack.getPixels(1);
+    	if (pixels instanceof byte[]){
+    		int [] tBin = new int[256];
+    		for (int k = 0; k < depth; ++k){
+    			byte [] tPixels = (byte[])imageStack.getPixels(k+1);
+    			for (int index = 0; index < tPixels.length; ++index)
+    				++tBin[tPixels[index] & 0xff];
+    		}
+    		setResults(tBin);
+    	}
+    	else if (pixels instanceof short[]){
+    		int [] tBin = new int[65536];
+    		for (int k = 0; k < depth; ++k){
+    			short [] tPixels = (short[])imageStack.getPixels(k+1);
+    			for (int index = 0; index < tPixels.length; ++index)
+    				++tBin[tPixels[index] & 0xffff];
+    		}
+    		setResults(tBin);
+    	}
+    	else
+    		computeHistogram(new StackAccessor(imageStack), depth);
     }
-    
+
     /**
-     * this method return a Histogram of the image input in hashMap form
-     * 
-     * @param imagePlusInput
-     * @return
+     * Histogram of the 32 bits (or RGB) images: the values are counted in an int table while they
+     * are integers lower than MAX_DENSE_VALUE, then in a hash table
+     *
+     * @param stackAccessor
+     * @param depth
      */
-    private HashMap<Double , Integer> computeHistogram(ImagePlus imagePlusInput){
-    	double voxelValue;
-        ImageStack imageStackInput = imagePlusInput.getImageStack();
-        for (int k = 0; k < imagePlusInput.getNSlices(); ++k)
-        	for (int i = 0; i < imagePlusInput.getWidth(); ++i)
-                for (int j = 0; j < imagePlusInput.getHeight();++j){
-                    voxelValue = imageStackInput.getVoxel(i,j,k);
-                    if (voxelValue > 0 ){
-                        if (m_hHistogram.containsKey(voxelValue)){
-                            int nbVoxel = m_hHistogram.get(voxelValue);
-                            ++nbVoxel;
-                            m_hHistogram.put(voxelValue, nbVoxel);
-                        }
-                        else{
-                        	m_hHistogram.put(voxelValue, 1);
-                        	++m_nbLabel;
-                        }
-                    }
-                }
-        return m_hHistogram;
+    private void computeHistogram(StackAccessor stackAccessor, int depth){
+    	int [] tBin = new int[256];
+    	DoubleCountTable doubleCountTable = null;
+    	int sliceSize = stackAccessor.getWidth()*stackAccessor.getHeight();
+    	for (int k = 0; k < depth; ++k)
+    		for (int index = 0; index < sliceSize; ++index){
+    			double voxelValue = stackAccessor.getVoxel(index, k);
+    			if (voxelValue > 0){
+    				if (doubleCountTable == null){
+    					int intValue = (int)voxelValue;
+    					if (intValue == voxelValue && intValue < MAX_DENSE_VALUE){
+    						if (intValue >= tBin.length)
+    							tBin = Arrays.copyOf(tBin, Math.max(intValue+1, 2*tBin.length));
+    						++tBin[intValue];
+    						continue;
+    					}
+    					doubleCountTable = new DoubleCountTable();
+    					for (int value = 1; value < tBin.length; ++value)
+    						if (tBin[value] > 0)
+    							doubleCountTable.add(value, tBin[value]);
+    				}
+    				doubleCountTable.add(voxelValue, 1);
+    			}
+    		}
+    	if (doubleCountTable == null)
+    		setResults(tBin);
+    	else{
+    		m_nbLabel = doubleCountTable.getSize();
+    		m_label = new double[m_nbLabel];
+    		m_nbVoxel = new int[m_nbLabel];
+    		doubleCountTable.copyTo(m_label, m_nbVoxel);
+    		setLabelMax();
+    	}
     }
-    
+
     /**
-     * this method return a double table which contain the all the value voxel present on the input image 
+     * Results of an int table of the number of voxels of each value, the value 0 is not a label
+     *
+     * @param tBin number of voxels of each value
+     */
+    private void setResults(int [] tBin){
+    	m_nbLabel = 0;
+    	for (int value = 1; value < tBin.length; ++value)
+    		if (tBin[value] > 0)
+    			++m_nbLabel;
+    	m_label = new double[m_nbLabel];
+    	m_nbVoxel = new int[m_nbLabel];
+    	int n = 0;
+    	for (int value = 1; value < tBin.length; ++value)
+    		if (tBin[value] > 0){
+    			m_label[n] = value;
+    			m_nbVoxel[n] = tBin[value];
+    			++n;
+    		}
+    	setLabelMax();
+    }
+
+    private void setLabelMax(){
+    	m_labelMax = m_nbLabel > 0 ? m_label[m_nbLabel-1] : -1;
+    }
+
+    /**
+     * this method return a double table which contain the all the value voxel present on the input image
      * @return
      */
     public double [] getLabels(){
     	return m_label;
     }
-    
+
     /**
-     * 
+     *
+     * @return number of voxels of each value of getLabels()
+     */
+    public int [] getNbVoxels(){
+    	return m_nbVoxel;
+    }
+
+    /**
+     *
+     * @param label
+     * @return number of voxels with this value, 0 if the value is not in the image
+     */
+    public int getNbVoxel(double label){
+    	int n = Arrays.binarySearch(m_label, label);
+    	return n >= 0 ? m_nbVoxel[n] : 0;
+    }
+
+    /**
+     * HashMap of the values and of their number of voxels, built at each call from the tables of
+     * the histogram
+     *
      * @return
      */
     public HashMap<Double , Integer> getHistogram(){
-    	return m_hHistogram;
+    	HashMap<Double , Integer> hHistogram = new HashMap<Double , Integer>();
+    	for (int n = 0; n < m_nbLabel; ++n)
+    		hHistogram.put(m_label[n], m_nbVoxel[n]);
+    	return hHistogram;
     }
     /**
-     * 
+     *
      * @return
      */
     public double getLabelMax(){
     	return m_labelMax;
     }
-    
+
     /**
-     * 
+     *
      * @return
      */
     public int getNbLabels(){
     	return m_nbLabel;
     }
+
+    /**
+     * Hash table (open addressing, linear probing) of the number of voxels of the values > 0
+     */
+    private static class DoubleCountTable{
+    	private double [] m_tKey = new double[64];
+    	/** number of voxels of the key, 0 for an empty slot*/
+    	private int [] m_tCount = new int[64];
+    	private int m_size = 0;
+
+    	private void add(double key, int count){
+    		int slot = find(key);
+    		if (m_tCount[slot] == 0){
+    			m_tKey[slot] = key;
+    			++m_size;
+    		}
+    		m_tCount[slot] += count;
+    		if (2*m_size > m_tKey.length)
+    			rehash();
+    	}
+
+    	/**
+    	 *
+    	 * @param key
+    	 * @return slot of the key, or empty slot where it should be added
+    	 */
+    	private int find(double key){
+    		int mask = m_tKey.length-1;
+    		long bits = Double.doubleToLongBits(key);
+    		int slot = (int)(((bits ^ (bits >>> 32))*0x9E3779B9L) >>> 7) & mask;
+    		while (m_tCount[slot] != 0 && m_tKey[slot] != key)
+    			slot = (slot+1) & mask;
+    		return slot;
+    	}
+
+    	private void rehash(){
+    		double [] tKey = m_tKey;
+    		int [] tCount = m_tCount;
+    		m_tKey = new double[2*tKey.length];
+    		m_tCount = new int[2*tKey.length];
+    		for (int slot = 0; slot < tKey.length; ++slot)
+    			if (tCount[slot] != 0){
+    				int newSlot = find(tKey[slot]);
+    				m_tKey[newSlot] = tKey[slot];
+    				m_tCount[newSlot] = tCount[slot];
+    			}
+    	}
+
+    	private int getSize(){
+    		return m_size;
+    	}
+
+    	/**
+    	 * Copy the keys in increasing order and their number of voxels
+    	 *
+    	 * @param tKey
+    	 * @param tCount
+    	 */
+    	private void copyTo(double [] tKey, int [] tCount){
+    		int n = 0;
+    		for (int slot = 0; slot < m_tKey.length; ++slot)
+    			if (m_tCount[slot] != 0)
+    				tKey[n++] = m_tKey[slot];
+    		Arrays.sort(tKey);
+    		for (n = 0; n < tKey.length; ++n)
+    			tCount[n] = m_tCount[find(tKey[n])];
+    	}
+    }
 }
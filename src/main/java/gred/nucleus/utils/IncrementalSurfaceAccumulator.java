@@ -0,0 +1,203 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+/**
+ * Volume and surface area of the voxels higher or equal to a threshold, updated voxel by voxel when
+ * the threshold changes. The voxels are sorted once by value (counting sort), so a change of the
+ * threshold only visits the voxels at the grey levels between the old and the new threshold, and
+ * the whole interval of thresholds costs about one pass on the image.
+ *
+ * The boundary faces are counted like in Measure3D.computeSurfaceObject: only for the voxels which
+ * are not on the border of the image, with the weights xCalibration*zCalibration for the neighbors
+ * along x, yCalibration*zCalibration along y and xCalibration*yCalibration along z.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class IncrementalSurfaceAccumulator{
+	private int m_width, m_height, m_depth, m_sliceSize;
+	private double m_xCalibration, m_yCalibration, m_zCalibration;
+	/** Voxels sorted by increasing value, the voxels of value v are between m_tStart[v] and m_tStart[v+1]*/
+	private int [] m_tSortedVoxel;
+	private int [] m_tStart;
+	private boolean [] m_foreground;
+	/** Current threshold, all the voxels higher or equal are in the foreground*/
+	private int m_threshold;
+	private long m_nbVoxel = 0;
+	private long m_xFaces = 0, m_yFaces = 0, m_zFaces = 0;
+
+	/**
+	 * Sort the voxels of the image, the foreground is empty
+	 *
+	 * @param imagePlusInput image 8 or 16 bits
+	 */
+	public IncrementalSurfaceAccumulator(ImagePlus imagePlusInput){
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		Calibration calibration = imagePlusInput.getCalibration();
+		m_xCalibration = calibration.pixelWidth;
+		m_yCalibration = calibration.pixelHeight;
+		m_zCalibration = calibration.pixelDepth;
+		m_width = imagePlusInput.getWidth();
+		m_height = imagePlusInput.getHeight();
+		m_depth = imagePlusInput.getStackSize();
+		m_sliceSize = m_width*m_height;
+		ImageProcessor [] tImageProcessor = new ImageProcessor[m_depth];
+		int valueMax = 0;
+		for (int k = 0; k < m_depth; ++k){
+			tImageProcessor[k] = imageStackInput.getProcessor(k+1);
+			for (int index = 0; index < m_sliceSize; ++index)
+				valueMax = Math.max(valueMax, tImageProcessor[k].get(index));
+		}
+		m_tStart = new int[valueMax+2];
+		for (int k = 0; k < m_depth; ++k)
+			for (int index = 0; index < m_sliceSize; ++index)
+				++m_tStart[tImageProcessor[k].get(index)+1];
+		for (int value = 1; value < m_tStart.length; ++value)
+			m_tStart[value] += m_tStart[value-1];
+		m_tSortedVoxel = new int[m_sliceSize*m_depth];
+		int [] tNext = m_tStart.clone();
+		for (int k = 0; k < m_depth; ++k)
+			for (int index = 0; index < m_sliceSize; ++index)
+				m_tSortedVoxel[tNext[tImageProcessor[k].get(index)]++] = k*m_sliceSize+index;
+		m_foreground = new boolean[m_sliceSize*m_depth];
+		m_threshold = valueMax+1;
+	}
+
+	/**
+	 * Change the threshold: the voxels between the old and the new threshold are added to or removed
+	 * from the foreground
+	 *
+	 * @param threshold threshold value
+	 */
+	public void setThreshold(int threshold){
+		threshold = Math.min(Math.max(threshold, 0), m_tStart.length-1);
+		for (int n = m_tStart[threshold]; n < m_tStart[m_threshold]; ++n)
+			add(m_tSortedVoxel[n]);
+		for (int n = m_tStart[m_threshold]; n < m_tStart[threshold]; ++n)
+			remove(m_tSortedVoxel[n]);
+		m_threshold = threshold;
+	}
+
+	/**
+	 * Add one voxel in the foreground
+	 *
+	 * @param voxel index of the voxel (k*width*height+j*width+i)
+	 */
+	public void add(int voxel){
+		if (m_foreground[voxel])
+			return;
+		m_foreground[voxel] = true;
+		++m_nbVoxel;
+		updateFaces(voxel, 1);
+	}
+
+	/**
+	 * Remove one voxel from the foreground
+	 *
+	 * @param voxel index of the voxel (k*width*height+j*width+i)
+	 */
+	public void remove(int voxel){
+		if (m_foreground[voxel] == false)
+			return;
+		m_foreground[voxel] = false;
+		--m_nbVoxel;
+		updateFaces(voxel, -1);
+	}
+
+	/**
+	 * Update the number of boundary faces with the six neighbors of a voxel which is added (sign 1)
+	 * or removed (sign -1): the face between the voxel and a neighbor of the background is a
+	 * boundary face of the voxel, the face with a neighbor of the foreground is a boundary face of
+	 * the neighbor when the voxel is not in the foreground.
+	 *
+	 * @param voxel index of the voxel
+	 * @param sign 1 if the voxel is added, -1 if it is removed
+	 */
+	private void updateFaces(int voxel, int sign){
+		int i = voxel % m_width;
+		int j = (voxel / m_width) % m_height;
+		int k = voxel / m_sliceSize;
+		boolean interior = isInterior(i, j, k);
+		m_xFaces += sign*(faceVariation(interior, voxel-1, i > 0, i-1, j, k)
+				+faceVariation(interior, voxel+1, i < m_width-1, i+1, j, k));
+		m_yFaces += sign*(faceVariation(interior, voxel-m_width, j > 0, i, j-1, k)
+				+faceVariation(interior, voxel+m_width, j < m_height-1, i, j+1, k));
+		m_zFaces += sign*(faceVariation(interior, voxel-m_sliceSize, k > 0, i, j, k-1)
+				+faceVariation(interior, voxel+m_sliceSize, k < m_depth-1, i, j, k+1));
+	}
+
+	/**
+	 * Variation of the number of boundary faces when a voxel is added, due to one of its neighbors
+	 *
+	 * @param interior true if the voxel is not on the border of the image
+	 * @param neighbor index of the neighbor
+	 * @param inImage true if the neighbor is in the image
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return variation of the number of faces
+	 */
+	private int faceVariation(boolean interior, int neighbor, boolean inImage, int i, int j, int k){
+		if (inImage == false)
+			return 0;
+		if (m_foreground[neighbor])
+			return isInterior(i, j, k) ? -1 : 0;
+		return interior ? 1 : 0;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return true if the voxel is not on the border of the image
+	 */
+	private boolean isInterior(int i, int j, int k){
+		return i > 0 && j > 0 && k > 0 && i < m_width-1 && j < m_height-1 && k < m_depth-1;
+	}
+
+	/**
+	 *
+	 * @return the current threshold
+	 */
+	public int getThreshold(){
+		return m_threshold;
+	}
+
+	/**
+	 *
+	 * @param voxel index of the voxel
+	 * @return true if the voxel is in the foreground
+	 */
+	public boolean isForeground(int voxel){
+		return m_foreground[voxel];
+	}
+
+	/**
+	 *
+	 * @return number of voxels of the foreground
+	 */
+	public long getNbVoxel(){
+		return m_nbVoxel;
+	}
+
+	/**
+	 *
+	 * @return volume of the foreground
+	 */
+	public double getVolume(){
+		return m_nbVoxel*m_xCalibration*m_yCalibration*m_zCalibration;
+	}
+
+	/**
+	 *
+	 * @return surface area of the foreground
+	 */
+	public double getSurfaceArea(){
+		return m_xFaces*m_xCalibration*m_zCalibration+m_yFaces*m_yCalibration*m_zCalibration+m_zFaces*m_xCalibration*m_yCalibration;
+	}
+}
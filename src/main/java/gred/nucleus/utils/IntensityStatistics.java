@@ -0,0 +1,97 @@
+package gred.nucleus.utils;
+
+import java.util.ArrayList;
+
+/**
+ * Min, max, mean and standard deviation of values added one by one, in one pass: the mean and the
+ * sum of the squared differences to the mean are updated at each value (Welford), so the standard
+ * deviation is computed without a second pass and without the loss of precision of the sum of the
+ * squares.
+ *
+ * The min starts at 3000 and the max at 0, like the first version of
+ * Measure3D.computeIntensityParameters.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class IntensityStatistics{
+	private double m_min = 3000;
+	private double m_max = 0;
+	private long m_nbValue = 0;
+	private double m_mean = 0;
+	/** sum of the squared differences to the mean*/
+	private double m_m2 = 0;
+
+	public IntensityStatistics(){ }
+
+	/**
+	 *
+	 * @param value value added
+	 */
+	public void add(double value){
+		if (value < m_min) m_min = value;
+		if (value > m_max) m_max = value;
+		++m_nbValue;
+		double delta = value-m_mean;
+		m_mean += delta/m_nbValue;
+		m_m2 += delta*(value-m_mean);
+	}
+
+	/**
+	 * Add the values of an other IntensityStatistics (values of an other part of the image): the
+	 * means and the sums of the squared differences are merged with the formula of Chan et al.
+	 *
+	 * @param intensityStatistics statistics merged in this one
+	 */
+	public void merge(IntensityStatistics intensityStatistics){
+		if (intensityStatistics.m_nbValue == 0)
+			return;
+		if (intensityStatistics.m_min < m_min) m_min = intensityStatistics.m_min;
+		if (intensityStatistics.m_max > m_max) m_max = intensityStatistics.m_max;
+		if (m_nbValue == 0){
+			m_nbValue = intensityStatistics.m_nbValue;
+			m_mean = intensityStatistics.m_mean;
+			m_m2 = intensityStatistics.m_m2;
+			return;
+		}
+		long nbValue = m_nbValue+intensityStatistics.m_nbValue;
+		double delta = intensityStatistics.m_mean-m_mean;
+		m_mean += delta*intensityStatistics.m_nbValue/nbValue;
+		m_m2 += intensityStatistics.m_m2+delta*delta*((double)m_nbValue*intensityStatistics.m_nbValue/nbValue);
+		m_nbValue = nbValue;
+	}
+
+	public long getNbValue(){
+		return m_nbValue;
+	}
+
+	public double getMean(){
+		return m_nbValue == 0 ? Double.NaN : m_mean;
+	}
+
+	/**
+	 *
+	 * @return standard deviation of the sample (divided by the number of values - 1)
+	 */
+	public double getStandardDeviation(){
+		return Math.sqrt(m_m2/(m_nbValue-1));
+	}
+
+	/**
+	 * intensity stat, in the order of Measure3D.computeIntensityParameters
+	 * 0: min
+	 * 1: max
+	 * 2: avg
+	 * 3: std
+	 *
+	 * @return the list of the parameters
+	 */
+	public ArrayList<Double> getParameters(){
+		ArrayList<Double> list = new ArrayList<Double>();
+		list.add(m_min);
+		list.add(m_max);
+		list.add(getMean());
+		list.add(getStandardDeviation());
+		return list;
+	}
+}
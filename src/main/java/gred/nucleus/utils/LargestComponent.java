@@ -0,0 +1,250 @@
+package gred.nucleus.utils;
+
+import java.util.Arrays;
+
+/**
+ * Extraction of the largest object (26-connexity) of a binary mask, without label image: the mask is
+ * cut in runs (voxels of the mask following each other on a line), the runs of the neighbor lines
+ * which touch each other are merged with a union-find, and the number of voxels of each object is
+ * kept in an int table. The mask is then replaced by the runs of the largest object. The result is
+ * the same as the labelling of the mask followed by NucleusSegmentation.deleteArtefact, except if
+ * several objects have the largest size: the first one in the order k, j, i is kept.
+ *
+ * The tables are kept between the calls, so an instance should be used by one thread.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class LargestComponent{
+	/** first and last voxel of each run*/
+	private int [] m_tRunStart = new int[1024];
+	private int [] m_tRunEnd = new int[1024];
+	/** union-find of the runs, and number of voxels of the object of each root*/
+	private int [] m_tParent = new int[1024];
+	private int [] m_tNbVoxel = new int[1024];
+	/** index of the first run of each line, the runs of the line l are from m_tFirstRun[l] to m_tFirstRun[l+1]-1*/
+	private int [] m_tFirstRun;
+	private int m_nbRun;
+	private int m_nbVoxelLargestObject;
+	private boolean m_isFirstSliceTouched;
+	private boolean m_isLastSliceTouched;
+
+	public LargestComponent(){}
+
+	/**
+	 * Replace the mask by its largest object
+	 *
+	 * @param binaryMask mask, replaced by its largest object (empty if the mask is empty)
+	 * @return number of voxels of the largest object, 0 if the mask is empty
+	 */
+	public int apply(BinaryMask binaryMask){
+		int height = binaryMask.getHeight();
+		int depth = binaryMask.getDepth();
+		computeRuns(binaryMask);
+		for (int k = 0; k < depth; ++k)
+			for (int j = 0; j < height; ++j){
+				int line = k*height+j;
+				if (j > 0)
+					mergeLines(line, line-1);
+				if (k > 0){
+					int linePreviousSlice = line-height;
+					if (j > 0)
+						mergeLines(line, linePreviousSlice-1);
+					mergeLines(line, linePreviousSlice);
+					if (j < height-1)
+						mergeLines(line, linePreviousSlice+1);
+				}
+			}
+		int rootLargestObject = -1;
+		for (int run = 0; run < m_nbRun; ++run){
+			int root = find(run);
+			if (rootLargestObject < 0 || m_tNbVoxel[root] > m_tNbVoxel[rootLargestObject])
+				rootLargestObject = root;
+		}
+		m_nbVoxelLargestObject = rootLargestObject < 0 ? 0 : m_tNbVoxel[rootLargestObject];
+		m_isFirstSliceTouched = false;
+		m_isLastSliceTouched = false;
+		binaryMask.clear();
+		long [] tWords = binaryMask.getWords();
+		for (int k = 0; k < depth; ++k)
+			for (int j = 0; j < height; ++j){
+				int line = k*height+j;
+				for (int run = m_tFirstRun[line]; run < m_tFirstRun[line+1]; ++run)
+					if (find(run) == rootLargestObject){
+						setRun(tWords, binaryMask.getRowIndex(j, k), m_tRunStart[run], m_tRunEnd[run]);
+						if (k == 0)
+							m_isFirstSliceTouched = true;
+						if (k == depth-1)
+							m_isLastSliceTouched = true;
+					}
+			}
+		return m_nbVoxelLargestObject;
+	}
+
+	/**
+	 *
+	 * @return number of voxels of the object kept by the last call of apply
+	 */
+	public int getNbVoxelLargestObject(){
+		return m_nbVoxelLargestObject;
+	}
+
+	/**
+	 *
+	 * @return true if the object kept by the last call of apply has voxels in the first slice
+	 */
+	public boolean isFirstSliceTouched(){
+		return m_isFirstSliceTouched;
+	}
+
+	/**
+	 *
+	 * @return true if the object kept by the last call of apply has voxels in the last slice
+	 */
+	public boolean isLastSliceTouched(){
+		return m_isLastSliceTouched;
+	}
+
+	/**
+	 * Cut the lines of the mask in runs, each run is its own object
+	 *
+	 * @param binaryMask mask
+	 */
+	private void computeRuns(BinaryMask binaryMask){
+		int width = binaryMask.getWidth();
+		int nbLine = binaryMask.getHeight()*binaryMask.getDepth();
+		int nbWordsRow = binaryMask.getNbWordsRow();
+		long [] tWords = binaryMask.getWords();
+		if (m_tFirstRun == null || m_tFirstRun.length != nbLine+1)
+			m_tFirstRun = new int[nbLine+1];
+		m_nbRun = 0;
+		for (int line = 0; line < nbLine; ++line){
+			m_tFirstRun[line] = m_nbRun;
+			int rowIndex = line*nbWordsRow;
+			int i = nextVoxel(tWords, rowIndex, nbWordsRow, 0, true);
+			while (i < width){
+				int end = nextVoxel(tWords, rowIndex, nbWordsRow, i, false);
+				addRun(i, end-1);
+				i = nextVoxel(tWords, rowIndex, nbWordsRow, end, true);
+			}
+		}
+		m_tFirstRun[nbLine] = m_nbRun;
+	}
+
+	/**
+	 *
+	 * @param tWords longs of the mask
+	 * @param rowIndex first long of the line
+	 * @param nbWordsRow number of longs of the line
+	 * @param from first voxel searched
+	 * @param inMask true to search a voxel of the mask, false a voxel out of the mask
+	 * @return first voxel from "from" in (or out of) the mask, nbWordsRow*64 if there is none
+	 */
+	private int nextVoxel(long [] tWords, int rowIndex, int nbWordsRow, int from, boolean inMask){
+		int n = from >>> 6;
+		if (n >= nbWordsRow)
+			return nbWordsRow << 6;
+		long word = (inMask ? tWords[rowIndex+n] : ~tWords[rowIndex+n]) & (-1L << from);
+		while (word == 0){
+			if (++n == nbWordsRow)
+				return nbWordsRow << 6;
+			word = inMask ? tWords[rowIndex+n] : ~tWords[rowIndex+n];
+		}
+		return (n << 6)+Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Merge the runs of a line with the runs of a previous neighbor line touching them (26-connexity:
+	 * the runs touch if they share a voxel or a corner)
+	 *
+	 * @param line line of the runs
+	 * @param lineNeighbor previous neighbor line
+	 */
+	private void mergeLines(int line, int lineNeighbor){
+		int runNeighbor = m_tFirstRun[lineNeighbor];
+		int runNeighborEnd = m_tFirstRun[lineNeighbor+1];
+		for (int run = m_tFirstRun[line]; run < m_tFirstRun[line+1]; ++run){
+			while (runNeighbor < runNeighborEnd && m_tRunEnd[runNeighbor] < m_tRunStart[run]-1)
+				++runNeighbor;
+			for (int n = runNeighbor; n < runNeighborEnd && m_tRunStart[n] <= m_tRunEnd[run]+1; ++n)
+				union(run, n);
+		}
+	}
+
+	/**
+	 *
+	 * @param run
+	 * @return root of the object of the run
+	 */
+	private int find(int run){
+		while (m_tParent[run] != run){
+			m_tParent[run] = m_tParent[m_tParent[run]];
+			run = m_tParent[run];
+		}
+		return run;
+	}
+
+	/**
+	 * Merge the objects of two runs, the smallest object is attached to the largest one
+	 *
+	 * @param run1
+	 * @param run2
+	 */
+	private void union(int run1, int run2){
+		int root1 = find(run1);
+		int root2 = find(run2);
+		if (root1 == root2)
+			return;
+		if (m_tNbVoxel[root1] < m_tNbVoxel[root2]){
+			int root = root1;
+			root1 = root2;
+			root2 = root;
+		}
+		m_tParent[root2] = root1;
+		m_tNbVoxel[root1] += m_tNbVoxel[root2];
+	}
+
+	/**
+	 * Add a run, the tables are enlarged if necessary
+	 *
+	 * @param start first voxel
+	 * @param end last voxel
+	 */
+	private void addRun(int start, int end){
+		if (m_nbRun == m_tRunStart.length){
+			int length = m_nbRun*2;
+			m_tRunStart = Arrays.copyOf(m_tRunStart, length);
+			m_tRunEnd = Arrays.copyOf(m_tRunEnd, length);
+			m_tParent = Arrays.copyOf(m_tParent, length);
+			m_tNbVoxel = Arrays.copyOf(m_tNbVoxel, length);
+		}
+		m_tRunStart[m_nbRun] = start;
+		m_tRunEnd[m_nbRun] = end;
+		m_tParent[m_nbRun] = m_nbRun;
+		m_tNbVoxel[m_nbRun] = end-start+1;
+		++m_nbRun;
+	}
+
+	/**
+	 * Add the voxels from start to end of a line in the mask
+	 *
+	 * @param tWords longs of the mask
+	 * @param rowIndex first long of the line
+	 * @param start first voxel
+	 * @param end last voxel
+	 */
+	private void setRun(long [] tWords, int rowIndex, int start, int end){
+		int nStart = start >>> 6;
+		int nEnd = end >>> 6;
+		long maskStart = -1L << start;
+		long maskEnd = -1L >>> (63-(end & 63));
+		if (nStart == nEnd)
+			tWords[rowIndex+nStart] |= maskStart & maskEnd;
+		else{
+			tWords[rowIndex+nStart] |= maskStart;
+			for (int n = nStart+1; n < nEnd; ++n)
+				tWords[rowIndex+n] = -1L;
+			tWords[rowIndex+nEnd] |= maskEnd;
+		}
+	}
+}
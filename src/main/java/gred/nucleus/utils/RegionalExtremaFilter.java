@@ -65,15 +65,15 @@ public class RegionalExtremaFilter implements PlugInFilter{
 		ArrayList<VoxelRecord> arrayListVoxel = new ArrayList<VoxelRecord>();
 		computeImageMoreOne();
 		ImagePlus imageOutput = m_img.duplicate();
-		ImageStack imageStackOutput = imageOutput.getStack();
+		StackAccessor stackAccessorOutput = new StackAccessor(imageOutput);
 		filterMin3DWithMask();
 		for (int k = 0; k < depth; ++k)
 			for (int i = 0; i < width; ++i)
 				for (int j = 0; j < height; ++j){
-					double currentValue = imageStackOutput.getVoxel(i,j,k);
+					double currentValue = stackAccessorOutput.getVoxel(i,j,k);
 					double currentValueMin = m_localMinValues[i][j][k];
 					if (currentValue > 0 &&  currentValue != currentValueMin && m_tabMask[i][j][k]>0){
-						imageStackOutput.setVoxel(i, j, k, 0);
+						stackAccessorOutput.setVoxel(i, j, k, 0);
 						voxelRecord.setLocation(i, j, k);
 						arrayListVoxel.add(voxelRecord);
 						while (arrayListVoxel.size() > 0 ){
@@ -85,8 +85,8 @@ public class RegionalExtremaFilter implements PlugInFilter{
 								for (ii = icurrent - 1; ii <= icurrent+1; ++ii)
 									for (jj = jcurrent - 1; jj <= jcurrent+1; ++jj)
 										if ( kk >= 0 && kk < depth && ii >= 0 && ii < width && jj >= 0 && jj < height  && m_tabMask[ii][jj][kk]>0)
-											if ( imageStackOutput.getVoxel(ii,jj,kk) == currentValue ){
-												imageStackOutput.setVoxel(ii, jj, kk, 0);
+											if ( stackAccessorOutput.getVoxel(ii,jj,kk) == currentValue ){
+												stackAccessorOutput.setVoxel(ii, jj, kk, 0);
 												voxelRecord.setLocation(ii, jj, kk);
 												arrayListVoxel.add( voxelRecord );
 											}
@@ -104,14 +104,12 @@ public class RegionalExtremaFilter implements PlugInFilter{
 	 */
   
 	public void computeImageMoreOne (){
-		double width = m_img.getWidth();
-		double height = m_img.getHeight();
-		double depth = m_img.getStackSize();
-		ImageStack imageStackInput = m_img.getStack();
+		int sliceSize = m_img.getWidth()*m_img.getHeight();
+		int depth = m_img.getStackSize();
+		StackAccessor stackAccessorInput = new StackAccessor(m_img);
 		for (int k = 0; k < depth; ++k)
-			for (int i = 0; i < width; ++i)
-				for (int j = 0; j < height; ++j)
-					imageStackInput.setVoxel(i, j, k, imageStackInput.getVoxel(i, j, k)+1);
+			for (int index = 0; index < sliceSize; ++index)
+				stackAccessorInput.setVoxel(index, k, stackAccessorInput.getVoxel(index, k)+1);
 	}
   
 	/**
@@ -122,24 +120,26 @@ public class RegionalExtremaFilter implements PlugInFilter{
 		int size1 = m_img.getWidth();
 		int size2 = m_img.getHeight();
 		int size3 = m_img.getStackSize();
-		ImageStack imageStackInput= m_img.getStack();
+		StackAccessor stackAccessorInput = new StackAccessor(m_img);
 		int ii;
 		int jj;
 		int kk;
-		double minValue;
+		double minValue, neighborValue;
 		m_localMinValues = new double[size1][size2][size3];
 		for (int k=0; k<size3; ++k)
-			for (int i=0; i<size1; ++i)
-				for (int j=0; j<size2; ++j){
-					minValue = imageStackInput.getVoxel(i, j, k);
-					for (ii = i-1; ii <= i+1; ++ii) 
-						if ( ii >= 0 && ii < size1 )
-							for (jj = j-1; jj <= j+1; ++jj)
-								if ( jj >= 0 && jj < size2 )
-									for (kk = k-1; kk <= k+1; ++kk) if ( kk >= 0 && kk < size3 ){
-										if (imageStackInput.getVoxel(ii, jj, kk)<minValue  && m_tabMask[i][j][k]>0 && m_tabMask[ii][jj][kk] > 0)
-											minValue = imageStackInput.getVoxel(ii, jj, kk);
-									}
+			for (int j=0; j<size2; ++j)
+				for (int i=0; i<size1; ++i){
+					minValue = stackAccessorInput.getVoxel(i, j, k);
+					if (m_tabMask[i][j][k] > 0)
+						for (kk = k-1; kk <= k+1; ++kk)
+							if ( kk >= 0 && kk < size3 )
+								for (jj = j-1; jj <= j+1; ++jj)
+									if ( jj >= 0 && jj < size2 )
+										for (ii = i-1; ii <= i+1; ++ii) if ( ii >= 0 && ii < size1 ){
+											neighborValue = stackAccessorInput.getVoxel(ii, jj, kk);
+											if (neighborValue < minValue && m_tabMask[ii][jj][kk] > 0)
+												minValue = neighborValue;
+										}
 					m_localMinValues[i][j][k] = minValue;
 				}
 	}
@@ -0,0 +1,256 @@
+package gred.nucleus.utils;
+
+import java.util.Arrays;
+
+import ij.ImagePlus;
+
+/**
+ * 3D object stored as the list of its runs: a run is a sequence of consecutive voxels of the
+ * object on a line of the image (fixed j and k), from the voxel start to the voxel end-1. The runs
+ * are sorted by line (k then j) and by start on each line, and two runs of a line are never
+ * consecutive, so the voxel start-1 and the voxel end of a run are not in the object.
+ *
+ * The nuclei and the chromocenters have few runs per line, so an object uses much less memory than
+ * its BinaryMask or its image, and the volume, the surface (Measure3D) and the bounding box are
+ * computed on the runs without scan of the voxels.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class RunLengthObject3D{
+	private int m_width, m_height, m_depth;
+	private int m_nbRun = 0;
+	/** line of each run: k*height+j*/
+	private int [] m_tLine = new int[16];
+	private int [] m_tStart = new int[16];
+	private int [] m_tEnd = new int[16];
+
+	/**
+	 * Empty object in an image of this size
+	 *
+	 * @param width
+	 * @param height
+	 * @param depth
+	 */
+	public RunLengthObject3D(int width, int height, int depth){
+		m_width = width;
+		m_height = height;
+		m_depth = depth;
+	}
+
+	/**
+	 * Object of the voxels of an image with the value label
+	 *
+	 * @param imagePlusInput label image
+	 * @param label label of the object
+	 */
+	public RunLengthObject3D(ImagePlus imagePlusInput, double label){
+		this(imagePlusInput.getWidth(), imagePlusInput.getHeight(), imagePlusInput.getStackSize());
+		StackAccessor stackAccessor = new StackAccessor(imagePlusInput);
+		for (int k = 0; k < m_depth; ++k)
+			for (int j = 0; j < m_height; ++j){
+				int index = j*m_width;
+				int start = -1;
+				for (int i = 0; i < m_width; ++i, ++index){
+					boolean isInObject = stackAccessor.getVoxel(index, k) == label;
+					if (isInObject && start < 0)
+						start = i;
+					else if (isInObject == false && start >= 0){
+						addRun(j, k, start, i);
+						start = -1;
+					}
+				}
+				if (start >= 0)
+					addRun(j, k, start, m_width);
+			}
+		trimToSize();
+	}
+
+	/**
+	 * Object of the voxels of a binary mask
+	 *
+	 * @param binaryMask mask of the object
+	 */
+	public RunLengthObject3D(BinaryMask binaryMask){
+		this(binaryMask.getWidth(), binaryMask.getHeight(), binaryMask.getDepth());
+		for (int k = 0; k < m_depth; ++k)
+			for (int j = 0; j < m_height; ++j){
+				int start = -1;
+				for (int i = 0; i < m_width; ++i){
+					boolean isInObject = binaryMask.get(i, j, k);
+					if (isInObject && start < 0)
+						start = i;
+					else if (isInObject == false && start >= 0){
+						addRun(j, k, start, i);
+						start = -1;
+					}
+				}
+				if (start >= 0)
+					addRun(j, k, start, m_width);
+			}
+		trimToSize();
+	}
+
+	/**
+	 * Add a run at the end of the object: the runs must be added in the order of the lines (k then
+	 * j) and of the starts on a line. A run following the last run on its line is merged with it.
+	 *
+	 * @param j coordinate y of the line
+	 * @param k coordinate z of the line
+	 * @param start first voxel of the run
+	 * @param end voxel after the last voxel of the run
+	 */
+	public void addRun(int j, int k, int start, int end){
+		int line = k*m_height+j;
+		if (start >= end || start < 0 || end > m_width || j < 0 || j >= m_height || k < 0 || k >= m_depth)
+			throw new IllegalArgumentException("run "+start+"-"+end+" of the line "+j+", "+k+" out of the image");
+		if (m_nbRun > 0){
+			int lastLine = m_tLine[m_nbRun-1];
+			if (line < lastLine || (line == lastLine && start < m_tEnd[m_nbRun-1]))
+				throw new IllegalArgumentException("run "+start+"-"+end+" of the line "+j+", "+k+" not after the last run");
+			if (line == lastLine && start == m_tEnd[m_nbRun-1]){
+				m_tEnd[m_nbRun-1] = end;
+				return;
+			}
+		}
+		if (m_nbRun == m_tLine.length){
+			m_tLine = Arrays.copyOf(m_tLine, 2*m_nbRun);
+			m_tStart = Arrays.copyOf(m_tStart, 2*m_nbRun);
+			m_tEnd = Arrays.copyOf(m_tEnd, 2*m_nbRun);
+		}
+		m_tLine[m_nbRun] = line;
+		m_tStart[m_nbRun] = start;
+		m_tEnd[m_nbRun] = end;
+		++m_nbRun;
+	}
+
+	/**
+	 * Reduce the arrays of the runs to the number of runs, to keep the object in memory after its
+	 * construction with addRun
+	 */
+	public void trimToSize(){
+		m_tLine = Arrays.copyOf(m_tLine, m_nbRun);
+		m_tStart = Arrays.copyOf(m_tStart, m_nbRun);
+		m_tEnd = Arrays.copyOf(m_tEnd, m_nbRun);
+	}
+
+	public int getWidth(){
+		return m_width;
+	}
+
+	public int getHeight(){
+		return m_height;
+	}
+
+	public int getDepth(){
+		return m_depth;
+	}
+
+	public int getNbRun(){
+		return m_nbRun;
+	}
+
+	/**
+	 *
+	 * @param n index of the run
+	 * @return line of the run: k*height+j
+	 */
+	public int getRunLine(int n){
+		return m_tLine[n];
+	}
+
+	/**
+	 *
+	 * @param n index of the run
+	 * @return first voxel of the run
+	 */
+	public int getRunStart(int n){
+		return m_tStart[n];
+	}
+
+	/**
+	 *
+	 * @param n index of the run
+	 * @return voxel after the last voxel of the run
+	 */
+	public int getRunEnd(int n){
+		return m_tEnd[n];
+	}
+
+	/**
+	 *
+	 * @param line line k*height+j
+	 * @return index of the first run of the line or of the next lines, getNbRun() if there is none
+	 */
+	public int findFirstRun(int line){
+		int low = 0, high = m_nbRun;
+		while (low < high){
+			int middle = (low+high) >>> 1;
+			if (m_tLine[middle] < line)
+				low = middle+1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 *
+	 * @return number of voxels of the object
+	 */
+	public long getNbVoxel(){
+		long nbVoxel = 0;
+		for (int n = 0; n < m_nbRun; ++n)
+			nbVoxel += m_tEnd[n]-m_tStart[n];
+		return nbVoxel;
+	}
+
+	/**
+	 *
+	 * @return bounding box of the object in voxels: iMin, jMin, kMin, iMax, jMax, kMax (included),
+	 * null if the object is empty
+	 */
+	public int [] getBoundingBox(){
+		if (m_nbRun == 0)
+			return null;
+		int [] tBoundingBox = {m_width, m_height, m_tLine[0]/m_height, -1, -1, m_tLine[m_nbRun-1]/m_height};
+		for (int n = 0; n < m_nbRun; ++n){
+			int j = m_tLine[n]%m_height;
+			if (m_tStart[n] < tBoundingBox[0]) tBoundingBox[0] = m_tStart[n];
+			if (m_tEnd[n]-1 > tBoundingBox[3]) tBoundingBox[3] = m_tEnd[n]-1;
+			if (j < tBoundingBox[1]) tBoundingBox[1] = j;
+			if (j > tBoundingBox[4]) tBoundingBox[4] = j;
+		}
+		return tBoundingBox;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return true if the voxel is in the object
+	 */
+	public boolean contains(int i, int j, int k){
+		int line = k*m_height+j;
+		for (int n = findFirstRun(line); n < m_nbRun && m_tLine[n] == line && m_tStart[n] <= i; ++n)
+			if (i < m_tEnd[n])
+				return true;
+		return false;
+	}
+
+	/**
+	 *
+	 * @return mask of the object
+	 */
+	public BinaryMask toBinaryMask(){
+		BinaryMask binaryMask = new BinaryMask(m_width, m_height, m_depth);
+		for (int n = 0; n < m_nbRun; ++n){
+			int j = m_tLine[n]%m_height;
+			int k = m_tLine[n]/m_height;
+			for (int i = m_tStart[n]; i < m_tEnd[n]; ++i)
+				binaryMask.set(i, j, k);
+		}
+		return binaryMask;
+	}
+}
@@ -0,0 +1,252 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cache on disk of the results of the nucleus segmentation: the threshold chosen and the mask of
+ * the nucleus are saved in a file of the cache directory, named with a hash (SHA-1) of the voxels
+ * of the image, its calibration, the segmentation parameters and the version of the segmentation. An image segmented again with the
+ * same parameters is read in the cache without new segmentation.
+ *
+ * The size of the directory is bounded: when it is exceeded, the files used the least recently are
+ * deleted (the date of modification of a file is updated when it is read).
+ *
+ * @author Poulet Axel
+ *
+ */
+public class SegmentationCache{
+	/** Default size of the cache directory, in bytes*/
+	public static final long DEFAULT_MAX_SIZE = 512L*1024*1024;
+	private static final String EXTENSION = ".seg";
+	private static final int FORMAT_VERSION = 1;
+	/**
+	 * Version of the segmentation, in the hash of the keys: to increment at each change of the code
+	 * which can change the threshold or the mask of a segmented image, so the results of the previous
+	 * versions are not read from the cache
+	 */
+	private static final int ALGORITHM_VERSION = 1;
+	/** Lock shared by the caches of the segmentation threads*/
+	private static final Object LOCK = new Object();
+	private File m_directory;
+	private long m_maxSize;
+
+	/**
+	 *
+	 * @param directory directory of the cache, created if it does not exist
+	 * @param maxSize maximal size of the directory, in bytes
+	 */
+	public SegmentationCache(String directory, long maxSize){
+		m_directory = new File(directory);
+		m_maxSize = maxSize;
+	}
+
+	/**
+	 * Hash of the image and of the parameters of the segmentation
+	 *
+	 * @param imagePlusInput image segmented
+	 * @param volumeMin min volume of the nucleus
+	 * @param volumeMax max volume of the nucleus
+	 * @param parameters other parameters which change the result of the segmentation
+	 * @return key of the image in the cache
+	 */
+	public String computeKey(ImagePlus imagePlusInput, double volumeMin, double volumeMax, String parameters){
+		MessageDigest messageDigest;
+		try{ messageDigest = MessageDigest.getInstance("SHA-1"); }
+		catch (NoSuchAlgorithmException e){ throw new IllegalStateException(e); }
+		Calibration calibration = imagePlusInput.getCalibration();
+		ImageStack imageStack = imagePlusInput.getStack();
+		StringBuilder header = new StringBuilder();
+		header.append(ALGORITHM_VERSION).append(' ').append(imageStack.getWidth()).append(' ').append(imageStack.getHeight()).append(' ').append(imageStack.getSize())
+			.append(' ').append(imagePlusInput.getBitDepth())
+			.append(' ').append(calibration.pixelWidth).append(' ').append(calibration.pixelHeight).append(' ').append(calibration.pixelDepth)
+			.append(' ').append(calibration.getUnit())
+			.append(' ').append(volumeMin).append(' ').append(volumeMax).append(' ').append(parameters);
+		messageDigest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+		byte [] tBuffer = new byte[4*imageStack.getWidth()*imageStack.getHeight()];
+		for (int k = 1; k <= imageStack.getSize(); ++k){
+			Object pixels = imageStack.getPixels(k);
+			if (pixels instanceof byte[])
+				messageDigest.update((byte[])pixels);
+			else if (pixels instanceof short[]){
+				short [] tPixels = (short[])pixels;
+				for (int i = 0; i < tPixels.length; ++i){
+					tBuffer[2*i] = (byte)(tPixels[i] >>> 8);
+					tBuffer[2*i+1] = (byte)tPixels[i];
+				}
+				messageDigest.update(tBuffer, 0, 2*tPixels.length);
+			}
+			else{
+				int [] tPixels = toIntBits(pixels);
+				for (int i = 0; i < tPixels.length; ++i){
+					tBuffer[4*i] = (byte)(tPixels[i] >>> 24);
+					tBuffer[4*i+1] = (byte)(tPixels[i] >>> 16);
+					tBuffer[4*i+2] = (byte)(tPixels[i] >>> 8);
+					tBuffer[4*i+3] = (byte)tPixels[i];
+				}
+				messageDigest.update(tBuffer, 0, 4*tPixels.length);
+			}
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : messageDigest.digest())
+			key.append(String.format("%02x", b & 0xff));
+		return key.toString();
+	}
+
+	/**
+	 *
+	 * @param key key of the image
+	 * @return the segmentation saved with this key, null if it is not in the cache or if the file
+	 * can't be read
+	 */
+	public CachedSegmentation get(String key){
+		File file = new File(m_directory, key+EXTENSION);
+		synchronized (LOCK){
+			if (file.exists() == false)
+				return null;
+			DataInputStream dataInputStream = null;
+			try{
+				dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if (dataInputStream.readInt() != FORMAT_VERSION)
+					return null;
+				int threshold = dataInputStream.readInt();
+				BinaryMask binaryMask = new BinaryMask(dataInputStream.readInt(), dataInputStream.readInt(), dataInputStream.readInt());
+				long [] tWords = binaryMask.getWords();
+				for (int n = 0; n < tWords.length; ++n)
+					tWords[n] = dataInputStream.readLong();
+				file.setLastModified(System.currentTimeMillis());
+				return new CachedSegmentation(threshold, binaryMask);
+			}
+			catch (IOException e){
+				e.printStackTrace();
+				return null;
+			}
+			finally{ close(dataInputStream); }
+		}
+	}
+
+	/**
+	 * Save a segmentation in the cache, then delete the files used the least recently if the cache
+	 * is larger than its maximal size
+	 *
+	 * @param key key of the image
+	 * @param threshold threshold chosen
+	 * @param binaryMask mask of the nucleus
+	 */
+	public void put(String key, int threshold, BinaryMask binaryMask){
+		synchronized (LOCK){
+			if (m_directory.exists() == false)
+				m_directory.mkdirs();
+			File file = new File(m_directory, key+EXTENSION);
+			File fileTemp = new File(m_directory, key+EXTENSION+".tmp");
+			DataOutputStream dataOutputStream = null;
+			try{
+				dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileTemp)));
+				dataOutputStream.writeInt(FORMAT_VERSION);
+				dataOutputStream.writeInt(threshold);
+				dataOutputStream.writeInt(binaryMask.getWidth());
+				dataOutputStream.writeInt(binaryMask.getHeight());
+				dataOutputStream.writeInt(binaryMask.getDepth());
+				long [] tWords = binaryMask.getWords();
+				for (int n = 0; n < tWords.length; ++n)
+					dataOutputStream.writeLong(tWords[n]);
+				dataOutputStream.close();
+				dataOutputStream = null;
+				file.delete();
+				if (fileTemp.renameTo(file) == false)
+					fileTemp.delete();
+			}
+			catch (IOException e){
+				e.printStackTrace();
+				fileTemp.delete();
+			}
+			finally{ close(dataOutputStream); }
+			evict();
+		}
+	}
+
+	/**
+	 * Delete the files used the least recently until the size of the cache is lower than its
+	 * maximal size
+	 */
+	private void evict(){
+		File [] tFile = m_directory.listFiles();
+		if (tFile == null)
+			return;
+		long size = 0;
+		for (int i = 0; i < tFile.length; ++i)
+			if (tFile[i].getName().endsWith(EXTENSION))
+				size += tFile[i].length();
+		Arrays.sort(tFile, new Comparator<File>(){
+			public int compare(File file1, File file2){
+				long lastModified1 = file1.lastModified();
+				long lastModified2 = file2.lastModified();
+				return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < tFile.length && size > m_maxSize; ++i)
+			if (tFile[i].getName().endsWith(EXTENSION)){
+				long length = tFile[i].length();
+				if (tFile[i].delete())
+					size -= length;
+			}
+	}
+
+	/**
+	 *
+	 * @param pixels pixels of a slice (float or RGB)
+	 * @return bits of the pixels
+	 */
+	private int [] toIntBits(Object pixels){
+		if (pixels instanceof int[])
+			return (int[])pixels;
+		float [] tPixels = (float[])pixels;
+		int [] tBits = new int[tPixels.length];
+		for (int i = 0; i < tPixels.length; ++i)
+			tBits[i] = Float.floatToIntBits(tPixels[i]);
+		return tBits;
+	}
+
+	private void close(Closeable closeable){
+		if (closeable != null)
+			try{ closeable.close(); }
+			catch (IOException e){ e.printStackTrace(); }
+	}
+
+	/**
+	 * Segmentation read in the cache
+	 */
+	public static class CachedSegmentation{
+		private int m_threshold;
+		private BinaryMask m_binaryMask;
+
+		private CachedSegmentation(int threshold, BinaryMask binaryMask){
+			m_threshold = threshold;
+			m_binaryMask = binaryMask;
+		}
+
+		public int getThreshold(){
+			return m_threshold;
+		}
+
+		public BinaryMask getBinaryMask(){
+			return m_binaryMask;
+		}
+	}
+}
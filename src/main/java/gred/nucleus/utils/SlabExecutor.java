@@ -0,0 +1,131 @@
+package gred.nucleus.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parallel computation on a stack split in slabs of consecutive slices: each slab is computed by
+ * a task on an executor shared by all the SlabExecutor (setSharedExecutor), and the partial results
+ * are returned in the order of the slabs, so the caller merges them in the same order at each run.
+ * With one thread, or when it is called from a slab task, the stack is computed in one slab in the
+ * calling thread.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class SlabExecutor{
+	/** executor of the slabs of all the instances, created at the first parallel run if not set*/
+	private static ExecutorService m_sharedExecutor = null;
+	/** true in the threads computing a slab*/
+	private static final ThreadLocal<Boolean> m_inSlabTask = new ThreadLocal<Boolean>(){
+		protected Boolean initialValue(){
+			return Boolean.FALSE;
+		}
+	};
+	private int m_nbThreads;
+
+	/**
+	 *
+	 * @param nbThreads number of slabs computed in parallel, 1 for the sequential computation
+	 */
+	public SlabExecutor(int nbThreads){
+		m_nbThreads = Math.max(nbThreads, 1);
+	}
+
+	public int getNbThreads(){
+		return m_nbThreads;
+	}
+
+	/**
+	 * Set the executor of the slabs of all the SlabExecutor. By default, a fixed pool of
+	 * availableProcessors() daemon threads, so the images measured at the same time (for example
+	 * by ProcessImageSegmentaion) share the same threads instead of creating a pool at each measure.
+	 * The threads of this executor must not wait for a run of SlabExecutor started by an other
+	 * thread (for example a batch running its images on the same executor): all the threads could
+	 * wait for slabs that no thread computes. The runs called from a slab task are computed in the
+	 * calling thread.
+	 *
+	 * @param executorService executor of the slabs, not shut down by SlabExecutor
+	 */
+	public static synchronized void setSharedExecutor(ExecutorService executorService){
+		m_sharedExecutor = executorService;
+	}
+
+	static synchronized ExecutorService getSharedExecutor(){
+		if (m_sharedExecutor == null){
+			m_sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+				public Thread newThread(Runnable runnable){
+					Thread thread = new Thread(runnable, "SlabExecutor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return m_sharedExecutor;
+	}
+
+	/**
+	 * Computation of the partial result of a slab
+	 *
+	 * @param <T> type of the partial results
+	 */
+	public interface SlabTask<T>{
+		/**
+		 *
+		 * @param kMin first slice of the slab
+		 * @param kMax slice after the last slice of the slab
+		 * @return partial result of the slab
+		 */
+		T compute(int kMin, int kMax);
+	}
+
+	/**
+	 * Split the slices 0 to depth-1 in at most getNbThreads() slabs of the same size, and compute
+	 * them in parallel
+	 *
+	 * @param depth number of slices
+	 * @param slabTask computation of a slab
+	 * @return partial results in the order of the slabs
+	 */
+	public <T> ArrayList<T> run(int depth, final SlabTask<T> slabTask){
+		ArrayList<T> arrayListResult = new ArrayList<T>();
+		int nbSlab = Math.min(m_nbThreads, depth);
+		// a slab task waiting for the slabs of an other run could block all the threads of the pool
+		if (nbSlab <= 1 || m_inSlabTask.get()){
+			arrayListResult.add(slabTask.compute(0, depth));
+			return arrayListResult;
+		}
+		ExecutorService executorService = getSharedExecutor();
+		ArrayList<Future<T>> arrayListFuture = new ArrayList<Future<T>>();
+		try{
+			for (int n = 0; n < nbSlab; ++n){
+				final int kMin = (int)((long)depth*n/nbSlab);
+				final int kMax = (int)((long)depth*(n+1)/nbSlab);
+				arrayListFuture.add(executorService.submit(new Callable<T>(){
+					public T call(){
+						m_inSlabTask.set(Boolean.TRUE);
+						try{ return slabTask.compute(kMin, kMax); }
+						finally{ m_inSlabTask.set(Boolean.FALSE); }
+					}
+				}));
+			}
+			for (int n = 0; n < arrayListFuture.size(); ++n)
+				arrayListResult.add(arrayListFuture.get(n).get());
+		}
+		catch (InterruptedException e){
+			for (int n = 0; n < arrayListFuture.size(); ++n)
+				arrayListFuture.get(n).cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e){
+			throw new IllegalStateException(e.getCause());
+		}
+		return arrayListResult;
+	}
+}
@@ -0,0 +1,141 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * Access to the voxels of a stack through the pixel arrays of the slices (byte, short or float),
+ * without the call of ImageStack.getVoxel for each voxel. The values and the conversion of the
+ * values written are the same as ImageStack.getVoxel and ImageStack.setVoxel. The other types of
+ * stack (RGB) are read and written with the ImageStack.
+ *
+ * The pixel arrays are stored line by line, so the loops on the voxels should be in the order
+ * k, j, i (i inner most), with the index j*width+i in the slice.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class StackAccessor{
+	private static final int BYTE = 0, SHORT = 1, FLOAT = 2, OTHER = 3;
+	private ImageStack m_imageStack;
+	private int m_width, m_height, m_depth;
+	private int m_type;
+	private byte [][] m_tByte;
+	private short [][] m_tShort;
+	private float [][] m_tFloat;
+
+	/**
+	 *
+	 * @param imagePlusInput image
+	 */
+	public StackAccessor(ImagePlus imagePlusInput){
+		this(imagePlusInput.getStack());
+	}
+
+	/**
+	 *
+	 * @param imageStack stack
+	 */
+	public StackAccessor(ImageStack imageStack){
+		m_imageStack = imageStack;
+		m_width = imageStack.getWidth();
+		m_height = imageStack.getHeight();
+		m_depth = imageStack.getSize();
+		Object pixels = imageStack.getPixels(1);
+		if (pixels instanceof byte[]){
+			m_type = BYTE;
+			m_tByte = new byte[m_depth][];
+			for (int k = 0; k < m_depth; ++k)
+				m_tByte[k] = (byte[])imageStack.getPixels(k+1);
+		}
+		else if (pixels instanceof short[]){
+			m_type = SHORT;
+			m_tShort = new short[m_depth][];
+			for (int k = 0; k < m_depth; ++k)
+				m_tShort[k] = (short[])imageStack.getPixels(k+1);
+		}
+		else if (pixels instanceof float[]){
+			m_type = FLOAT;
+			m_tFloat = new float[m_depth][];
+			for (int k = 0; k < m_depth; ++k)
+				m_tFloat[k] = (float[])imageStack.getPixels(k+1);
+		}
+		else
+			m_type = OTHER;
+	}
+
+	public int getWidth(){
+		return m_width;
+	}
+
+	public int getHeight(){
+		return m_height;
+	}
+
+	public int getDepth(){
+		return m_depth;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @param k slice from 0
+	 * @return value of the voxel
+	 */
+	public double getVoxel(int i, int j, int k){
+		return getVoxel(j*m_width+i, k);
+	}
+
+	/**
+	 *
+	 * @param index index of the voxel in the slice (j*width+i)
+	 * @param k slice from 0
+	 * @return value of the voxel
+	 */
+	public double getVoxel(int index, int k){
+		switch (m_type){
+			case BYTE: return m_tByte[k][index] & 0xff;
+			case SHORT: return m_tShort[k][index] & 0xffff;
+			case FLOAT: return m_tFloat[k][index];
+			default: return m_imageStack.getVoxel(index % m_width, index / m_width, k);
+		}
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @param k slice from 0
+	 * @param value value of the voxel, limited to the range of the type of the stack
+	 */
+	public void setVoxel(int i, int j, int k, double value){
+		setVoxel(j*m_width+i, k, value);
+	}
+
+	/**
+	 *
+	 * @param index index of the voxel in the slice (j*width+i)
+	 * @param k slice from 0
+	 * @param value value of the voxel, limited to the range of the type of the stack
+	 */
+	public void setVoxel(int index, int k, double value){
+		switch (m_type){
+			case BYTE:
+				if (value < 0) value = 0;
+				if (value > 255) value = 255;
+				m_tByte[k][index] = (byte)(value+0.5);
+				break;
+			case SHORT:
+				if (value < 0) value = 0;
+				if (value > 65535) value = 65535;
+				m_tShort[k][index] = (short)(value+0.5);
+				break;
+			case FLOAT:
+				m_tFloat[k][index] = (float)value;
+				break;
+			default:
+				m_imageStack.setVoxel(index % m_width, index / m_width, k, value);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package gred.nucleus.utils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+/**
+ * Reduction of the size of a stack in x and y: each block of factor*factor voxels of a slice is
+ * replaced by the mean of its voxels, so the values of the voxels stay in the same range and the
+ * thresholds of the image can be used on the reduced image. The number of slices is not changed.
+ *
+ * @author Poulet Axel
+ *
+ */
+public class StackDownsampling{
+	public StackDownsampling(){}
+
+	/**
+	 * The blocks of the last column and line can be smaller than factor*factor voxels, the mean is
+	 * computed on the voxels of the image. The calibration is multiplied by the factor in x and y,
+	 * the title is kept.
+	 *
+	 * @param imagePlusInput image (8, 16 or 32 bits)
+	 * @param factor reduction factor in x and y
+	 * @return reduced image, of the type of the input image
+	 */
+	public ImagePlus downsampleXY(ImagePlus imagePlusInput, int factor){
+		int width = imagePlusInput.getWidth();
+		int height = imagePlusInput.getHeight();
+		int widthOutput = (width+factor-1)/factor;
+		int heightOutput = (height+factor-1)/factor;
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		ImageStack imageStackOutput = new ImageStack(widthOutput, heightOutput);
+		double [] tSum = new double[widthOutput];
+		for (int k = 1; k <= imageStackInput.getSize(); ++k){
+			ImageProcessor imageProcessorInput = imageStackInput.getProcessor(k);
+			ImageProcessor imageProcessorOutput = imageProcessorInput.createProcessor(widthOutput, heightOutput);
+			for (int jOutput = 0; jOutput < heightOutput; ++jOutput){
+				int jMin = jOutput*factor;
+				int jMax = Math.min(jMin+factor, height);
+				for (int iOutput = 0; iOutput < widthOutput; ++iOutput)
+					tSum[iOutput] = 0;
+				for (int j = jMin; j < jMax; ++j)
+					for (int i = 0; i < width; ++i)
+						tSum[i/factor] += imageProcessorInput.getf(i, j);
+				for (int iOutput = 0; iOutput < widthOutput; ++iOutput){
+					int nbVoxel = (Math.min(iOutput*factor+factor, width)-iOutput*factor)*(jMax-jMin);
+					double mean = tSum[iOutput]/nbVoxel;
+					if (imageProcessorInput.getBitDepth() != 32)
+						mean = Math.round(mean);
+					imageProcessorOutput.setf(iOutput, jOutput, (float)mean);
+				}
+			}
+			imageStackOutput.addSlice(imageProcessorOutput);
+		}
+		ImagePlus imagePlusOutput = new ImagePlus(imagePlusInput.getTitle(), imageStackOutput);
+		Calibration calibration = imagePlusInput.getCalibration().copy();
+		calibration.pixelWidth *= factor;
+		calibration.pixelHeight *= factor;
+		imagePlusOutput.setCalibration(calibration);
+		return imagePlusOutput;
+	}
+}
@@ -0,0 +1,386 @@
+package gred.nucleus.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import gred.nucleus.utils.Histogram;
+import gred.nucleus.utils.VoxelRecord;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Compare ObjectMeasure3D and Measure3D, with 1 and several threads, with the first version of
+ * Measure3D (triple loops on the voxels, copied in this class), on random labelled stacks
+ */
+class Measure3DTest{
+	private static final int [] NB_THREADS = {1, 3, 5};
+
+	@Test
+	void objectMeasuresSameAsBaseline(){
+		for (long seed = 0; seed < 30; ++seed){
+			ImagePlus imagePlusLabel = createLabelImage(seed);
+			double [] tLabel = labels(imagePlusLabel);
+			for (int n = 0; n < tLabel.length; ++n)
+				for (int t = 0; t < NB_THREADS.length; ++t){
+					double label = tLabel[n];
+					String message = "seed "+seed+" label "+label+" threads "+NB_THREADS[t];
+					ObjectMeasure3D objectMeasure3D = new ObjectMeasure3D(imagePlusLabel, label, null, NB_THREADS[t]);
+					Measure3D measure3D = new Measure3D();
+					measure3D.setNbThreads(NB_THREADS[t]);
+					double volume = baseVolumeObject(imagePlusLabel, label);
+					assertEquals(volume, objectMeasure3D.getVolume(), message+" volume");
+					assertEquals(volume, measure3D.computeVolumeObject(imagePlusLabel, label), message+" volume");
+					double surface = baseSurfaceObject(imagePlusLabel, label);
+					assertRelativeEquals(surface, objectMeasure3D.getSurface(), 1e-12, message+" surface");
+					assertRelativeEquals(surface, measure3D.computeSurfaceObject(imagePlusLabel, label), 1e-12, message+" surface");
+					for (int unit = 0; unit < 2; ++unit){
+						VoxelRecord voxelRecord = baseBarycenter3D(unit == 1, imagePlusLabel, label);
+						assertSameVoxelRecord(voxelRecord, objectMeasure3D.getBarycenter(unit == 1), message+" barycenter");
+						assertSameVoxelRecord(voxelRecord, measure3D.computeBarycenter3D(unit == 1, imagePlusLabel, label), message+" barycenter");
+					}
+					double [] tEigenValues = baseEigenValue3D(imagePlusLabel, label);
+					assertSameEigenValues(tEigenValues, objectMeasure3D.getEigenValues(), message+" eigen values");
+					assertSameEigenValues(tEigenValues, measure3D.computeEigenValue3D(imagePlusLabel, label), message+" eigen values");
+					double [] tShape = {Math.sqrt(tEigenValues[1] / tEigenValues[0]), Math.sqrt(tEigenValues[2] / tEigenValues[1])};
+					double [] tShapeObject = objectMeasure3D.getFlatnessAndElongation();
+					double [] tShapeMeasure = measure3D.computeFlatnessAndElongation(imagePlusLabel, label);
+					for (int i = 0; i < 2; ++i){
+						assertRelativeEquals(tShape[i], tShapeObject[i], 1e-6, message+" flatness and elongation");
+						assertRelativeEquals(tShape[i], tShapeMeasure[i], 1e-6, message+" flatness and elongation");
+					}
+				}
+		}
+	}
+
+	@Test
+	void allObjectsMeasuresSameAsBaseline(){
+		for (long seed = 0; seed < 30; ++seed){
+			ImagePlus imagePlusLabel = createLabelImage(seed);
+			double [] tLabel = labels(imagePlusLabel);
+			Measure3D measure3D = new Measure3D();
+			double [] tVolume = measure3D.computeVolumeofAllObjects(imagePlusLabel);
+			VoxelRecord [] tBarycenter = measure3D.computeObjectBarycenter(imagePlusLabel, true);
+			double [][] tEigenValues = measure3D.computeEigenValueOfAllObjects(imagePlusLabel);
+			assertEquals(tLabel.length, tVolume.length, "seed "+seed+" number of objects");
+			assertEquals(tLabel.length, tBarycenter.length, "seed "+seed+" number of objects");
+			assertEquals(tLabel.length, tEigenValues.length, "seed "+seed+" number of objects");
+			for (int n = 0; n < tLabel.length; ++n){
+				String message = "seed "+seed+" label "+tLabel[n];
+				assertEquals(baseVolumeObject(imagePlusLabel, tLabel[n]), tVolume[n], message+" volume");
+				assertSameVoxelRecord(baseBarycenter3D(true, imagePlusLabel, tLabel[n]), tBarycenter[n], message+" barycenter");
+				assertSameEigenValues(baseEigenValue3D(imagePlusLabel, tLabel[n]), tEigenValues[n], message+" eigen values");
+			}
+		}
+	}
+
+	@Test
+	void intensityMeasuresSameAsBaseline(){
+		for (long seed = 0; seed < 30; ++seed){
+			Random random = new Random(seed);
+			ImagePlus imagePlusLabel = createLabelImage(seed);
+			ImagePlus imagePlusSegmented = threshold(imagePlusLabel, 0);
+			ImagePlus imagePlusChromocenter = threshold(imagePlusLabel, 1+random.nextInt(3));
+			ImagePlus imagePlusRaw = createRawImage(imagePlusLabel, random);
+			ArrayList<Double> listExpected = baseIntensityParameters(imagePlusRaw, imagePlusSegmented);
+			double rhfExpected = baseIntensityRHF(imagePlusRaw, imagePlusSegmented, imagePlusChromocenter);
+			for (int t = 0; t < NB_THREADS.length; ++t){
+				String message = "seed "+seed+" threads "+NB_THREADS[t];
+				Measure3D measure3D = new Measure3D();
+				measure3D.setNbThreads(NB_THREADS[t]);
+				assertSameIntensityParameters(listExpected, measure3D.computeIntensityParameters(imagePlusRaw, imagePlusSegmented), message);
+				assertSameIntensityParameters(listExpected,
+						new ObjectMeasure3D(imagePlusSegmented, 255, imagePlusRaw, NB_THREADS[t]).getIntensityParameters(), message);
+				assertEquals(rhfExpected, measure3D.computeIntensityRHF(imagePlusRaw, imagePlusSegmented, imagePlusChromocenter), message+" RHF");
+			}
+		}
+	}
+
+	/**
+	 * 16 bits label image with calibration: ellipsoids with some holes, each one in its own part of
+	 * the width of the image (so each object is a real 3D object), labels 1 to 3 or large labels
+	 * for the odd seeds
+	 *
+	 * @param seed
+	 * @return label image
+	 */
+	private ImagePlus createLabelImage(long seed){
+		Random random = new Random(seed);
+		int nbObject = 1+random.nextInt(3);
+		int partWidth = 8+random.nextInt(20);
+		int width = nbObject*partWidth+random.nextInt(3);
+		int height = 8+random.nextInt(30);
+		int depth = 5+random.nextInt(20);
+		ImageStack imageStack = new ImageStack(width, height);
+		for (int k = 0; k < depth; ++k)
+			imageStack.addSlice(new ShortProcessor(width, height));
+		for (int n = 0; n < nbObject; ++n){
+			int label = seed % 2 == 0 ? n+1 : 1000*(n+1)+random.nextInt(1000);
+			double ci = n*partWidth+partWidth/2.0, cj = height/2.0, ck = depth/2.0;
+			double ri = 2+random.nextDouble()*(partWidth/2.0-2);
+			double rj = 2+random.nextDouble()*(height/2.0-2);
+			double rk = 2+random.nextDouble()*(depth/2.0-2);
+			for (int k = 0; k < depth; ++k)
+				for (int j = 0; j < height; ++j)
+					for (int i = n*partWidth; i < (n+1)*partWidth; ++i){
+						double x = (i+0.5-ci)/ri, y = (j+0.5-cj)/rj, z = (k+0.5-ck)/rk;
+						if (x*x+y*y+z*z < 1 && random.nextDouble() < 0.95)
+							imageStack.setVoxel(i, j, k, label);
+					}
+		}
+		ImagePlus imagePlus = new ImagePlus("label", imageStack);
+		Calibration calibration = new Calibration();
+		calibration.pixelWidth = 0.1+random.nextDouble();
+		calibration.pixelHeight = 0.1+random.nextDouble();
+		calibration.pixelDepth = 0.1+2*random.nextDouble();
+		imagePlus.setCalibration(calibration);
+		return imagePlus;
+	}
+
+	/**
+	 * Raw image: 8 bits, or 16 bits with values up to 6000, over the min 3000 of
+	 * computeIntensityParameters for the seeds with all the values over 3000
+	 *
+	 * @param imagePlusLabel
+	 * @param random
+	 * @return raw image of the size of the label image
+	 */
+	private ImagePlus createRawImage(ImagePlus imagePlusLabel, Random random){
+		int type = random.nextInt(3);
+		int width = imagePlusLabel.getWidth(), height = imagePlusLabel.getHeight();
+		ImageStack imageStack = new ImageStack(width, height);
+		for (int k = 0; k < imagePlusLabel.getStackSize(); ++k){
+			if (type == 0){
+				byte [] tPixels = new byte[width*height];
+				for (int index = 0; index < tPixels.length; ++index)
+					tPixels[index] = (byte)random.nextInt(256);
+				imageStack.addSlice(new ByteProcessor(width, height, tPixels, null));
+			}
+			else{
+				short [] tPixels = new short[width*height];
+				for (int index = 0; index < tPixels.length; ++index)
+					tPixels[index] = (short)(type == 1 ? random.nextInt(6000) : 3500+random.nextInt(2500));
+				imageStack.addSlice(new ShortProcessor(width, height, tPixels, null));
+			}
+		}
+		return new ImagePlus("raw", imageStack);
+	}
+
+	/**
+	 * @param imagePlusLabel
+	 * @param nbLabel number of labels removed
+	 * @return 8 bits image, 255 for the voxels of the labels, except the nbLabel smaller labels
+	 */
+	private ImagePlus threshold(ImagePlus imagePlusLabel, int nbLabel){
+		double [] tLabel = labels(imagePlusLabel);
+		double threshold = nbLabel <= tLabel.length ? (nbLabel == 0 ? 0 : tLabel[nbLabel-1]) : Double.MAX_VALUE;
+		ImageStack imageStackLabel = imagePlusLabel.getStack();
+		int width = imagePlusLabel.getWidth(), height = imagePlusLabel.getHeight();
+		ImageStack imageStack = new ImageStack(width, height);
+		for (int k = 0; k < imagePlusLabel.getStackSize(); ++k){
+			ByteProcessor byteProcessor = new ByteProcessor(width, height);
+			byte [] tPixels = (byte[])byteProcessor.getPixels();
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i)
+					if (imageStackLabel.getVoxel(i, j, k) > threshold)
+						tPixels[j*width+i] = (byte)255;
+			imageStack.addSlice(byteProcessor);
+		}
+		ImagePlus imagePlus = new ImagePlus("mask", imageStack);
+		imagePlus.setCalibration(imagePlusLabel.getCalibration());
+		return imagePlus;
+	}
+
+	private double [] labels(ImagePlus imagePlus){
+		Histogram histogram = new Histogram();
+		histogram.run(imagePlus);
+		return histogram.getLabels();
+	}
+
+	private void assertRelativeEquals(double expected, double actual, double tolerance, String message){
+		assertEquals(expected, actual, tolerance*Math.max(1, Math.abs(expected)), message);
+	}
+
+	private void assertSameVoxelRecord(VoxelRecord expected, VoxelRecord actual, String message){
+		assertEquals(expected.getI(), actual.getI(), message+" i");
+		assertEquals(expected.getJ(), actual.getJ(), message+" j");
+		assertEquals(expected.getK(), actual.getK(), message+" k");
+	}
+
+	private void assertSameEigenValues(double [] expected, double [] actual, String message){
+		assertEquals(expected.length, actual.length, message);
+		for (int i = 0; i < expected.length; ++i)
+			assertEquals(expected[i], actual[i], 1e-9*Math.max(1, Math.abs(expected[expected.length-1])), message+" "+i);
+	}
+
+	private void assertSameIntensityParameters(ArrayList<Double> expected, ArrayList<Double> actual, String message){
+		assertEquals(expected.get(0), actual.get(0), message+" min");
+		assertEquals(expected.get(1), actual.get(1), message+" max");
+		assertRelativeEquals(expected.get(2), actual.get(2), 1e-9, message+" mean");
+		assertRelativeEquals(expected.get(3), actual.get(3), 1e-9, message+" standard deviation");
+	}
+
+	// first version of Measure3D
+
+	private double baseSurfaceObject(ImagePlus imagePlusInput, double label){
+		Calibration calibration= imagePlusInput.getCalibration();
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		double xCalibration = calibration.pixelWidth;
+		double yCalibration = calibration.pixelHeight;
+		double zCalibration = calibration.pixelDepth;
+		double surfaceArea = 0,voxelValue, neighborVoxelValue;
+		for (int k = 1; k < imagePlusInput.getStackSize()-1; ++k)
+			for (int i = 1; i < imagePlusInput.getWidth()-1; ++i)
+				for (int j = 1; j < imagePlusInput.getHeight()-1; ++j){
+					voxelValue = imageStackInput.getVoxel(i, j, k);
+					if (voxelValue == label){
+						for (int kk = k-1; kk <= k+1; kk += 2){
+							neighborVoxelValue = imageStackInput.getVoxel(i, j, kk);
+							if (voxelValue != neighborVoxelValue)
+								surfaceArea = surfaceArea + xCalibration * yCalibration;
+						}
+						for (int ii=i-1; ii<=i+1; ii+=2){
+							neighborVoxelValue =  imageStackInput.getVoxel(ii, j, k);
+							if (voxelValue != neighborVoxelValue)
+								surfaceArea = surfaceArea + xCalibration * zCalibration;
+						}
+						for (int jj = j-1; jj <= j+1; jj+=2){
+							neighborVoxelValue = imageStackInput.getVoxel(i, jj, k);
+							if (voxelValue != neighborVoxelValue)
+								surfaceArea = surfaceArea + yCalibration * zCalibration;
+						}
+					}
+				}
+		return surfaceArea;
+	}
+
+	private double baseVolumeObject(ImagePlus imagePlusInput, double label){
+		Calibration calibration= imagePlusInput.getCalibration();
+		double xCalibration = calibration.pixelWidth;
+		double yCalibration = calibration.pixelHeight;
+		double zCalibration = calibration.pixelDepth;
+		Histogram histogram = new Histogram ();
+		histogram.run(imagePlusInput);
+		HashMap<Double , Integer> hashMapHisto = histogram.getHistogram();
+		return hashMapHisto.get(label) *xCalibration*yCalibration*zCalibration;
+	}
+
+	private double [] baseEigenValue3D(ImagePlus imagePlusInput, double label){
+		ImageStack imageStackInput = imagePlusInput.getImageStack();
+		VoxelRecord barycenter = baseBarycenter3D (true,imagePlusInput,label);
+		Calibration calibration= imagePlusInput.getCalibration();
+		double xCalibration = calibration.pixelWidth;
+		double yCalibration = calibration.pixelHeight;
+		double zCalibration = calibration.pixelDepth;
+		double xx = 0, xy = 0, xz = 0, yy = 0, yz = 0, zz = 0;
+		int compteur = 0;
+		double voxelValue;
+		for (int k = 0; k < imagePlusInput.getStackSize(); ++k){
+			double dz = ((zCalibration * (double) k)-barycenter.getK());
+			for (int i = 0; i < imagePlusInput.getWidth(); ++i){
+				double dx = ((xCalibration * (double) i)-barycenter.getI());
+				for (int j = 0; j < imagePlusInput.getHeight(); ++j){
+					voxelValue = imageStackInput.getVoxel(i,j,k);
+					if (voxelValue == label){
+						double dy = ((yCalibration * (double) j)-barycenter.getJ());
+						xx+= dx * dx;
+						yy+= dy * dy;
+						zz+= dz * dz;
+						xy+= dx * dy;
+						xz+= dx * dz;
+						yz+= dy * dz;
+						compteur++;
+					}
+				}
+			}
+		}
+		double [][] tValues = {{xx / compteur, xy / compteur, xz / compteur},
+				{xy / compteur, yy / compteur, yz / compteur},
+				{xz / compteur, yz / compteur, zz / compteur}};
+		Matrix matrix = new Matrix (tValues);
+		EigenvalueDecomposition eigenValueDecomposition =  matrix.eig();
+		return eigenValueDecomposition.getRealEigenvalues();
+	}
+
+	private VoxelRecord baseBarycenter3D(boolean unit,ImagePlus imagePlusInput, double label){
+		ImageStack imageStackInput = imagePlusInput.getImageStack();
+		Calibration calibration= imagePlusInput.getCalibration();
+		VoxelRecord voxelRecordBarycenter = new VoxelRecord ();
+		int count = 0, sx = 0, sy = 0, sz = 0;
+		for (int k = 0; k < imagePlusInput.getStackSize(); ++k)
+			for (int i = 0; i < imagePlusInput.getWidth(); ++i)
+				for (int j = 0; j < imagePlusInput.getHeight(); ++j)
+					if (imageStackInput.getVoxel(i,j,k) == label ){
+						sx +=i;
+						sy +=j;
+						sz +=k;
+						++count;
+					}
+		sx /= count;
+		sy /= count;
+		sz /= count;
+		voxelRecordBarycenter.setLocation(sx, sy, sz);
+		if (unit) voxelRecordBarycenter.Multiplie(calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth);
+		return voxelRecordBarycenter;
+	}
+
+	private double baseIntensityRHF(ImagePlus imagePlusInput, ImagePlus imagePlusSegmented, ImagePlus imagePlusChromocenter ){
+		double chromocenterIntensity = 0;
+		double nucleusIntensity = 0;
+		ImageStack imageStackChromocenter =  imagePlusChromocenter.getStack();
+		ImageStack imageStackSegmented = imagePlusSegmented.getStack();
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		for (int k = 0; k < imagePlusInput.getNSlices(); ++k)
+			for (int i = 0; i < imagePlusInput.getWidth(); ++i )
+				for (int j = 0; j < imagePlusInput.getHeight(); ++j ){
+					double voxelValueInput = imageStackInput.getVoxel(i, j, k);
+					if (imageStackSegmented.getVoxel(i, j, k) > 0){
+						if (imageStackChromocenter.getVoxel(i,j,k) > 0)
+							chromocenterIntensity+=voxelValueInput;
+						nucleusIntensity += voxelValueInput;
+					}
+				}
+		return chromocenterIntensity / nucleusIntensity;
+	}
+
+	private ArrayList<Double> baseIntensityParameters(ImagePlus imagePlusInput, ImagePlus imagePlusSegmented){
+		double min =3000;
+		double max = 0;
+		double sum = 0;
+		int nbPixel = 0;
+		double smec =0;
+		ArrayList<Double> list= new ArrayList<Double>();
+		ImageStack imageStackSegmented = imagePlusSegmented.getStack();
+		ImageStack imageStackInput = imagePlusInput.getStack();
+		for (int k = 0; k < imagePlusInput.getNSlices(); ++k)
+			for (int i = 0; i < imagePlusInput.getWidth(); ++i )
+				for (int j = 0; j < imagePlusInput.getHeight(); ++j)
+					if (imageStackSegmented.getVoxel(i, j, k) > 0){
+						double current = imageStackInput.getVoxel(i, j, k);
+						sum += current;
+						if ( current < min) min = current;
+						if ( current > max) max = current;
+						nbPixel++;
+					}
+		sum =sum/nbPixel;
+		for (int k = 0; k < imagePlusInput.getNSlices(); ++k)
+			for (int i = 0; i < imagePlusInput.getWidth(); ++i )
+				for (int j = 0; j < imagePlusInput.getHeight(); ++j)
+					if (imageStackSegmented.getVoxel(i, j, k) > 0) smec += (imageStackInput.getVoxel(i, j, k)-sum)*(imageStackInput.getVoxel(i, j, k)-sum);
+		list.add(min);
+		list.add(max);
+		list.add(sum);
+		list.add(Math.sqrt(smec/(nbPixel-1)));
+		return list;
+	}
+}
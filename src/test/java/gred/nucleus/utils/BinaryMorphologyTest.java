@@ -0,0 +1,84 @@
+package gred.nucleus.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.plugin.Filters3D;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compare the opening and the closing of BinaryMorphology with Filters3D MIN and MAX (1, 1, 0.5),
+ * used before by NucleusSegmentation.computeOpening and computeClosing
+ */
+class BinaryMorphologyTest{
+
+	@Test
+	void openingSameAsFilters3D(){
+		for (long seed = 0; seed < 40; ++seed){
+			BinaryMask binaryMask = createRandomMask(seed);
+			ImageStack imageStackExpected = toImageStack(binaryMask);
+			imageStackExpected = Filters3D.filter(imageStackExpected, Filters3D.MIN, 1, 1, (float)0.5);
+			imageStackExpected = Filters3D.filter(imageStackExpected, Filters3D.MAX, 1, 1, (float)0.5);
+			assertSameMask(imageStackExpected, new BinaryMorphology().open(binaryMask.duplicate()), "opening, seed "+seed);
+			assertSameMask(imageStackExpected, new BinaryMorphology(3).open(binaryMask.duplicate()), "opening 3 threads, seed "+seed);
+			BinaryMask binaryMaskBuffer = new BinaryMask(binaryMask.getWidth(), binaryMask.getHeight(), binaryMask.getDepth());
+			assertSameMask(imageStackExpected, new BinaryMorphology().open(binaryMask, binaryMaskBuffer), "opening with buffer, seed "+seed);
+		}
+	}
+
+	@Test
+	void closingSameAsFilters3D(){
+		for (long seed = 0; seed < 40; ++seed){
+			BinaryMask binaryMask = createRandomMask(seed);
+			ImageStack imageStackExpected = toImageStack(binaryMask);
+			imageStackExpected = Filters3D.filter(imageStackExpected, Filters3D.MAX, 1, 1, (float)0.5);
+			imageStackExpected = Filters3D.filter(imageStackExpected, Filters3D.MIN, 1, 1, (float)0.5);
+			assertSameMask(imageStackExpected, new BinaryMorphology().close(binaryMask.duplicate()), "closing, seed "+seed);
+			assertSameMask(imageStackExpected, new BinaryMorphology(3).close(binaryMask.duplicate()), "closing 3 threads, seed "+seed);
+			BinaryMask binaryMaskBuffer = new BinaryMask(binaryMask.getWidth(), binaryMask.getHeight(), binaryMask.getDepth());
+			assertSameMask(imageStackExpected, new BinaryMorphology().close(binaryMask, binaryMaskBuffer), "closing with buffer, seed "+seed);
+		}
+	}
+
+	/**
+	 * Random mask: the widths cross the limits of the words of 64 voxels (63, 64, 65, 128, 130), and
+	 * the odd seeds fill the borders of the image, so the voxels out of the image are tested.
+	 *
+	 * @param seed
+	 * @return mask
+	 */
+	private BinaryMask createRandomMask(long seed){
+		Random random = new Random(seed);
+		int [] tWidth = {1, 5, 63, 64, 65, 128, 130};
+		int width = tWidth[(int)(seed % tWidth.length)];
+		int height = 1+random.nextInt(20);
+		int depth = 1+random.nextInt(6);
+		double density = 0.2+0.6*random.nextDouble();
+		BinaryMask binaryMask = new BinaryMask(width, height, depth);
+		for (int k = 0; k < depth; ++k)
+			for (int j = 0; j < height; ++j)
+				for (int i = 0; i < width; ++i){
+					boolean border = i == 0 || j == 0 || i == width-1 || j == height-1;
+					if (random.nextDouble() < density || (border && seed % 2 == 1))
+						binaryMask.set(i, j, k);
+				}
+		return binaryMask;
+	}
+
+	private ImageStack toImageStack(BinaryMask binaryMask){
+		ImagePlus imagePlus = binaryMask.toImagePlus("mask", new Calibration());
+		return imagePlus.getStack();
+	}
+
+	private void assertSameMask(ImageStack imageStackExpected, BinaryMask binaryMask, String message){
+		for (int k = 0; k < binaryMask.getDepth(); ++k)
+			for (int j = 0; j < binaryMask.getHeight(); ++j)
+				for (int i = 0; i < binaryMask.getWidth(); ++i)
+					assertEquals(imageStackExpected.getVoxel(i, j, k) > 0, binaryMask.get(i, j, k), message+" voxel "+i+" "+j+" "+k);
+	}
+}
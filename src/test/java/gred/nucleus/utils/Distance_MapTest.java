@@ -0,0 +1,119 @@
+package gred.nucleus.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compare the linear time transformations 2 and 3 of Distance_Map (Step2LinearThread and
+ * Step3LinearThread) with the quadratic ones (Step2Thread and Step3Thread), bit for bit
+ */
+class Distance_MapTest{
+
+	@Test
+	void linearTimeStepsSameAsQuadratic(){
+		for (long seed = 0; seed < 40; ++seed){
+			byte [][] data = createStack(seed);
+			int w = WIDTH[(int)(seed % WIDTH.length)], h = data[0].length/w, d = data.length;
+			Distance_Map distanceMap = new Distance_Map();
+			float [][] s = new float[d][w*h];
+			distanceMap.new Step1Thread(0, 1, w, h, d, distanceMap.thresh, s, data).run();
+
+			float [][] sQuadratic = copy(s);
+			float [][] sLinear = copy(s);
+			distanceMap.new Step2Thread(0, 1, w, h, d, sQuadratic).run();
+			distanceMap.new Step2LinearThread(0, 1, w, h, d, sLinear).run();
+			for (int k = 0; k < d; ++k)
+				for (int index = 0; index < w*h; ++index)
+					assertEquals(sQuadratic[k][index], sLinear[k][index], "step 2, seed "+seed+" voxel "+index+" "+k);
+
+			sLinear = copy(sQuadratic);
+			distanceMap.new Step3Thread(0, 1, w, h, d, sQuadratic, data).run();
+			distanceMap.new Step3LinearThread(0, 1, w, h, d, sLinear).run();
+			// Step3Thread computes only the voxels of the object, the background is set to 0 by apply
+			for (int k = 0; k < d; ++k)
+				for (int index = 0; index < w*h; ++index)
+					if ((data[k][index] & 255) >= distanceMap.thresh)
+						assertEquals(sQuadratic[k][index], sLinear[k][index], "step 3, seed "+seed+" voxel "+index+" "+k);
+		}
+	}
+
+	@Test
+	void linearTimeDistanceMapSameAsQuadratic(){
+		for (long seed = 0; seed < 40; ++seed){
+			byte [][] data = createStack(seed);
+			int w = WIDTH[(int)(seed % WIDTH.length)];
+			ImagePlus imagePlusQuadratic = toImagePlus(data, w);
+			ImagePlus imagePlusLinear = toImagePlus(data, w);
+			Distance_Map distanceMap = new Distance_Map();
+			distanceMap.nThreads = 3;
+			distanceMap.apply(imagePlusQuadratic);
+			distanceMap = new Distance_Map();
+			distanceMap.linearTime = true;
+			distanceMap.nThreads = 3;
+			distanceMap.apply(imagePlusLinear);
+			for (int k = 1; k <= data.length; ++k){
+				float [] tQuadratic = (float[])imagePlusQuadratic.getStack().getPixels(k);
+				float [] tLinear = (float[])imagePlusLinear.getStack().getPixels(k);
+				for (int index = 0; index < tQuadratic.length; ++index)
+					assertEquals(tQuadratic[index], tLinear[index], "seed "+seed+" voxel "+index+" "+k);
+			}
+		}
+	}
+
+	private static final int [] WIDTH = {1, 2, 7, 16, 33, 50};
+
+	/**
+	 * Stack of the test: random voxels for the seeds multiple of 4, an ellipsoid larger than the
+	 * image in x and y for the seeds 1 modulo 4, so the lines and the columns of the central slices
+	 * have no background (noResult of Step1Thread), a stack without background for the seeds 2
+	 * modulo 4, else an ellipsoid with some holes.
+	 *
+	 * @param seed
+	 * @return voxels of the slices, 255 for the object
+	 */
+	private byte [][] createStack(long seed){
+		Random random = new Random(seed);
+		int w = WIDTH[(int)(seed % WIDTH.length)];
+		int h = 1+random.nextInt(40);
+		int d = 1+random.nextInt(20);
+		double density = random.nextDouble();
+		double radius = seed % 4 == 1 ? 0.8 : 0.45;
+		byte [][] data = new byte[d][w*h];
+		for (int k = 0; k < d; ++k)
+			for (int j = 0; j < h; ++j)
+				for (int i = 0; i < w; ++i){
+					double x = (i+0.5)/w-0.5, y = (j+0.5)/h-0.5, z = (k+0.5)/d-0.5;
+					boolean object;
+					if (seed % 4 == 0)
+						object = random.nextDouble() < density;
+					else if (seed % 4 == 2)
+						object = true;
+					else
+						object = (x*x+y*y)/(radius*radius)+z*z/0.2 < 1 && (seed % 4 == 1 || random.nextDouble() < 0.98);
+					if (object)
+						data[k][j*w+i] = (byte)255;
+				}
+		return data;
+	}
+
+	private ImagePlus toImagePlus(byte [][] data, int w){
+		ImageStack imageStack = new ImageStack(w, data[0].length/w);
+		for (int k = 0; k < data.length; ++k)
+			imageStack.addSlice(new ByteProcessor(w, data[0].length/w, data[k].clone(), null));
+		return new ImagePlus("stack", imageStack);
+	}
+
+	private float [][] copy(float [][] s){
+		float [][] sCopy = new float[s.length][];
+		for (int k = 0; k < s.length; ++k)
+			sCopy[k] = s[k].clone();
+		return sCopy;
+	}
+}
@@ -0,0 +1,102 @@
+package gred.nucleus.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import gred.nucleus.core.NucleusSegmentation;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import inra.ijpb.binary.ConnectedComponents;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compare LargestComponent with the labelling ConnectedComponents.computeLabels(26, 32) followed by
+ * NucleusSegmentation.deleteArtefact, used before by the segmentation of each threshold
+ */
+class LargestComponentTest{
+
+	@Test
+	void randomMasksSameAsDeleteArtefact(){
+		LargestComponent largestComponent = new LargestComponent();
+		for (long seed = 0; seed < 60; ++seed){
+			Random random = new Random(seed);
+			int width = 1+random.nextInt(70);
+			int height = 1+random.nextInt(25);
+			int depth = 1+random.nextInt(8);
+			// low densities give many small objects, joined by diagonal neighbors only
+			double density = 0.05+0.5*random.nextDouble();
+			BinaryMask binaryMask = new BinaryMask(width, height, depth);
+			for (int k = 0; k < depth; ++k)
+				for (int j = 0; j < height; ++j)
+					for (int i = 0; i < width; ++i)
+						if (random.nextDouble() < density)
+							binaryMask.set(i, j, k);
+			binaryMask.set(random.nextInt(width), random.nextInt(height), random.nextInt(depth));
+			assertSameAsDeleteArtefact(largestComponent, binaryMask, "seed "+seed);
+		}
+	}
+
+	@Test
+	void diagonalChainsSameAsDeleteArtefact(){
+		LargestComponent largestComponent = new LargestComponent();
+		int width = 20, height = 12, depth = 6;
+		// chain crossing the lines and the slices by the corners of the voxels (i+1, j+1, k+1)
+		BinaryMask binaryMask = new BinaryMask(width, height, depth);
+		for (int n = 0; n < depth; ++n)
+			binaryMask.set(n, n, n);
+		binaryMask.set(10, 5, 2);
+		binaryMask.set(11, 5, 2);
+		assertSameAsDeleteArtefact(largestComponent, binaryMask, "chain i+1 j+1 k+1");
+		// chain going back in i at each line (i-1, j+1), and back in j at each slice (j-1, k+1)
+		binaryMask = new BinaryMask(width, height, depth);
+		for (int n = 0; n < 8; ++n)
+			binaryMask.set(width-1-n, n, 0);
+		for (int n = 1; n < depth; ++n)
+			binaryMask.set(width-8, 7-n, n);
+		for (int i = 0; i < 10; ++i)
+			binaryMask.set(i, height-1, depth-1);
+		assertSameAsDeleteArtefact(largestComponent, binaryMask, "chain i-1 j+1 then j-1 k+1");
+		// chains from the first to the last slice, and object in the first slice only
+		binaryMask = new BinaryMask(width, height, depth);
+		for (int n = 0; n < depth; ++n){
+			binaryMask.set(2*n, height-1-n, n);
+			binaryMask.set(2*n+1, height-1-n, n);
+		}
+		assertSameAsDeleteArtefact(largestComponent, binaryMask, "chain first to last slice");
+		binaryMask = new BinaryMask(width, height, depth);
+		for (int i = 0; i < 5; ++i)
+			binaryMask.set(i, 0, 0);
+		binaryMask.set(width-1, height-1, depth-1);
+		assertSameAsDeleteArtefact(largestComponent, binaryMask, "object in the first slice");
+	}
+
+	private void assertSameAsDeleteArtefact(LargestComponent largestComponent, BinaryMask binaryMask, String message){
+		ImagePlus imagePlusExpected = ConnectedComponents.computeLabels(binaryMask.toImagePlus("mask", new Calibration()), 26, 32);
+		new NucleusSegmentation().deleteArtefact(imagePlusExpected);
+		ImageStack imageStackExpected = imagePlusExpected.getStack();
+		int nbVoxel = 0;
+		boolean firstSliceTouched = false;
+		boolean lastSliceTouched = false;
+		for (int k = 0; k < binaryMask.getDepth(); ++k)
+			for (int j = 0; j < binaryMask.getHeight(); ++j)
+				for (int i = 0; i < binaryMask.getWidth(); ++i)
+					if (imageStackExpected.getVoxel(i, j, k) == 255){
+						++nbVoxel;
+						if (k == 0)
+							firstSliceTouched = true;
+						if (k == binaryMask.getDepth()-1)
+							lastSliceTouched = true;
+					}
+		assertEquals(nbVoxel, largestComponent.apply(binaryMask), message+" number of voxels");
+		assertEquals(nbVoxel, largestComponent.getNbVoxelLargestObject(), message+" number of voxels");
+		assertEquals(firstSliceTouched, largestComponent.isFirstSliceTouched(), message+" first slice");
+		assertEquals(lastSliceTouched, largestComponent.isLastSliceTouched(), message+" last slice");
+		for (int k = 0; k < binaryMask.getDepth(); ++k)
+			for (int j = 0; j < binaryMask.getHeight(); ++j)
+				for (int i = 0; i < binaryMask.getWidth(); ++i)
+					assertEquals(imageStackExpected.getVoxel(i, j, k) == 255, binaryMask.get(i, j, k), message+" voxel "+i+" "+j+" "+k);
+	}
+}